@@ -5,14 +5,16 @@
 
 package com.interaxon.test.libmuse;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import android.app.Activity;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.AsyncTask;
 import android.preference.EditTextPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
@@ -30,24 +32,15 @@ import android.widget.TextView;
 
 import com.interaxon.libmuse.Accelerometer;
 import com.interaxon.libmuse.ConnectionState;
-import com.interaxon.libmuse.Eeg;
 import com.interaxon.libmuse.LibMuseVersion;
 import com.interaxon.libmuse.Muse;
-import com.interaxon.libmuse.MuseArtifactPacket;
 import com.interaxon.libmuse.MuseConnectionListener;
 import com.interaxon.libmuse.MuseConnectionPacket;
-import com.interaxon.libmuse.MuseDataListener;
-import com.interaxon.libmuse.MuseDataPacket;
-import com.interaxon.libmuse.MuseDataPacketType;
 import com.interaxon.libmuse.MuseManager;
-import com.interaxon.libmuse.MusePreset;
 import com.interaxon.libmuse.MuseVersion;
 
-import netP5.NetAddress;
 import netP5.NetInfo;
 import oscP5.OscArgument;
-import oscP5.OscMessage;
-import oscP5.OscP5;
 
 /**
  * In this simple example MainActivity implements 2 MuseHeadband listeners
@@ -57,10 +50,9 @@ import oscP5.OscP5;
  * For simplicity we create Listeners as inner classes of MainActivity. We pass
  * reference to MainActivity as we want listeners to update UI thread in this
  * example app.
- * You can also connect multiple muses to the same phone and register same
- * listener to listen for data from different muses. In this case you will
- * have to provide synchronization for data members you are using inside
- * your listener.
+ * Connect All connects every paired Muse at once. Each one gets its own
+ * listeners and DevicePipeline (ring, sender thread, socket), so there are
+ * no data members shared between them, and its own address prefix or port.
  *
  * Usage instructions:
  * 1. Enable bluetooth on your device
@@ -80,35 +72,41 @@ public class MainActivity extends Activity implements OnClickListener {
     /**
      * Connection listener updates UI with new connection status and logs it.
      */
-    private int PORT_IN = 12000;   // not used, could this be a problem??
+    private int PORT_IN = 12000;   // control messages, see ControlServer
     private int PORT_OUT = 5002;   // changes for each EEG device, need a prefs/setting somewhere
     private String SEND_TO_IP = "none";
-    private NetAddress thisLocation;
-    private OscP5 osc;
+    private ControlServer control;  // listening on PORT_IN, opened once per port and stopped on exit
 
-    private String oscAddressPattern;
+    // what the transport spinner next to the port and IP offers, see StreamConfig.transport
+    private static final String[] TRANSPORTS = { "udp", "tcp", "tcp-len" };
 
-    private float [] oscData;           // stuff with 4 floats
-    private long numWavePackets;
-    private int touchingForehead;               // 0 or 1
+    // streaming settings from the shared preferences, each device pipeline parses its own copy
+    private final StreamConfig streamConfig = new StreamConfig();
+
+    // how Connect All keeps devices apart: "prefix" sends /<mac>/muse/..., "port" uses PORT_OUT + n
+    private String deviceRouting = "prefix";
 
-    private long lastTS;                    // for package time
-    private long totalElapsedMS;            // how many elapsed MS, used for packet-counting
+    // with REPLAY_SESSION set, Connect plays that recorded session instead of using a headset
+    private File replayFile = null;
+    private double replaySpeed = 1;
+    private int replayLoops = 1;
+    private SessionReplayer replayer = null;
 
-    Timer touchingForeheadTimer;
-    Timer horseShoeTimer;
-    Timer alphaTimer;
-    Timer betaTimer;
-    Timer deltaTimer;
-    Timer gammaTimer;
-    Timer thetaTimer;
+    // with SYNTHETIC set to a SyntheticPacketSource spec, Connect streams generated data instead
+    private String syntheticSpec = "";
+
+    private long numWavePackets;
 
     class ConnectionListener extends MuseConnectionListener {
 
         final WeakReference<Activity> activityRef;
+        final Muse muse;
+        final boolean onScreen;         // only the first device's status is shown
 
-        ConnectionListener(final WeakReference<Activity> activityRef) {
+        ConnectionListener(final WeakReference<Activity> activityRef, Muse muse, boolean onScreen) {
             this.activityRef = activityRef;
+            this.muse = muse;
+            this.onScreen = onScreen;
         }
 
         ///XXX: optimize this here, figure out better pathway for this
@@ -121,7 +119,7 @@ public class MainActivity extends Activity implements OnClickListener {
                                 " " + status;
             Log.i("Muse Headband", full);
             Activity activity = activityRef.get();
-            if (activity != null) {
+            if (activity != null && onScreen) {
                 activity.runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
@@ -146,370 +144,19 @@ public class MainActivity extends Activity implements OnClickListener {
         }
     }
 
-    /**
-     * Data listener will be registered to listen for: Accelerometer,
-     * Eeg and Relative Alpha bandpower packets. In all cases we will
-     * update UI with new values.
-     * We also will log message if Artifact packets contains "blink" flag.
-     */
-    class DataListener extends MuseDataListener {
-
-        final WeakReference<Activity> activityRef;
-
-        DataListener(final WeakReference<Activity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void receiveMuseDataPacket(MuseDataPacket p) {
-            int packetSkipAmount = 4;               // send 25% of packets (for now), keyed to BETA waves
-            switch (p.getPacketType()) {
-                case ALPHA_ABSOLUTE:
-                   updateAlphaAbsolute(p.getValues());
-                   break;
-
-                case BETA_ABSOLUTE:
-                    updateBetaAbsolute(p.getValues());
-                    break;
-
-                case DELTA_ABSOLUTE:
-                    updateDeltaAbsolute(p.getValues());
-                    break;
-
-                case GAMMA_ABSOLUTE:
-                    updateGammaAbsolute(p.getValues());
-                    break;
-
-                case THETA_ABSOLUTE:
-                    updateThetaAbsolute(p.getValues());
-                    break;
-
-                case HORSESHOE:
-                    updateHorseshoe(p.getValues());
-                    break;
-
-                case BATTERY:
-                    updateBattery(p.getValues());
-                default:
-                    Log.i("DataPacket ", "Received");
-                    break;
-            }
-        }
-
-
-        @Override
-        public void receiveMuseArtifactPacket(MuseArtifactPacket p) {
-            if( touchingForeheadTimer.expired() == false ) {
-                return;
-            }
-            touchingForeheadTimer.start();
-
-            // something weird about the typecast, so we do it this way
-            if( p.getHeadbandOn())
-                touchingForehead = 1;
-            else
-                touchingForehead = 0;
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        oscAddressPattern = new String("/muse/elements/touching_forehead");
-                        TextView elem1 = (TextView) findViewById(R.id.touchingForehead);
-                        if( touchingForehead == 0 )
-                            elem1.setText("NO");
-                        else
-                            elem1.setText("YES");
-
-
-                        sendOSCData();
-                    }
-                });
-            }
-
-
-        }
-
-
-        private float generateFloatFromEEG( double eegValue ) {
-            if( Float.isNaN(Eeg.TP9.ordinal()))
-                return -1;
-            else {
-                String s = String.format("%6.2f", eegValue);
-                return Float.valueOf(s);
-            }
-        }
-
-        private void stuffOSCData(String pattern, final ArrayList<Double> data) {
-            oscAddressPattern = new String(pattern);
-
-            oscData[0] = generateFloatFromEEG(data.get(Eeg.TP9.ordinal()));
-            oscData[1] = generateFloatFromEEG(data.get(Eeg.FP1.ordinal()));
-            oscData[2] = generateFloatFromEEG(data.get(Eeg.FP2.ordinal()));
-            oscData[3] = generateFloatFromEEG(data.get(Eeg.TP10.ordinal()));
-        }
-
-        // Assumes OSC Data is already in oscData global array, 4 elements, check stuffOSCData()
-        private void updateWaveFields( int field1, int field2, int field3, int field4 ) {
-            TextView elem1 = (TextView) findViewById(field1);
-            TextView elem2 = (TextView) findViewById(field2);
-            TextView elem3 = (TextView) findViewById(field3);
-            TextView elem4 = (TextView) findViewById(field4);
-
-            elem1.setText(String.format( "%6.2f", oscData[0]));
-            elem2.setText(String.format( "%6.2f", oscData[1]));
-            elem3.setText(String.format( "%6.2f", oscData[2]));
-            elem4.setText(String.format( "%6.2f", oscData[3]));
-        }
-
-        private void updateAlphaAbsolute(final ArrayList<Double> data) {
-            if( alphaTimer.expired() == false ) {
-                return;
-            }
-            alphaTimer.start();
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Extra wave patterns
-                        stuffOSCData("/muse/elements/alpha_absolute", data);
-
-                        // update text fields with this EEG wave data
-                        updateWaveFields(R.id.alpha_t9, R.id.alpha_fp1, R.id.alpha_fp2, R.id.alpha_t10);
-
-                        // transmit OSC data
-                        sendOSCData();
-                    }
-                });
-            }
-        }
-
-        private void updateBetaAbsolute(final ArrayList<Double> data) {
-            if( betaTimer.expired() == false ) {
-                return;
-            }
-            betaTimer.start();
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Extra wave patterns
-                        stuffOSCData("/muse/elements/beta_absolute", data);
-
-                        // update text fields with this EEG wave data
-                        updateWaveFields(R.id.beta_t9, R.id.beta_fp1, R.id.beta_fp2, R.id.beta_t10);
-
-                        // transmit OSC data
-                        sendOSCData();
-                    }
-                });
-            }
-        }
-
-        private void updateDeltaAbsolute(final ArrayList<Double> data) {
-            if( deltaTimer.expired() == false ) {
-                return;
-            }
-            deltaTimer.start();
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Extra wave patterns
-                        stuffOSCData("/muse/elements/delta_absolute", data);
-
-                        // update text fields with this EEG wave data
-                        updateWaveFields(R.id.delta_t9, R.id.delta_fp1, R.id.delta_fp2, R.id.delta_t10);
-
-                        // transmit OSC data
-                        sendOSCData();
-                    }
-                });
-            }
-        }
-
-        private void updateGammaAbsolute(final ArrayList<Double> data) {
-            if( gammaTimer.expired() == false ) {
-                return;
-            }
-            gammaTimer.start();
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Extra wave patterns
-                        stuffOSCData("/muse/elements/gamma_absolute", data);
-
-                        // update text fields with this EEG wave data
-                        updateWaveFields(R.id.gamma_t9, R.id.gamma_fp1, R.id.gamma_fp2, R.id.gamma_t10);
-
-                        // transmit OSC data
-                        sendOSCData();
-                    }
-                });
-            }
-        }
-
-        private void updateThetaAbsolute(final ArrayList<Double> data) {
-            if( thetaTimer.expired() == false ) {
-                return;
-            }
-            thetaTimer.start();
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Extra wave patterns
-                        stuffOSCData("/muse/elements/theta_absolute", data);
-
-                        // update text fields with this EEG wave data
-                        updateWaveFields(R.id.theta_t9, R.id.theta_fp1, R.id.theta_fp2, R.id.theta_t10);
-
-                        // transmit OSC data
-                        sendOSCData();
-                    }
-                });
-            }
-        }
-
-        private void updateHorseshoe(final ArrayList<Double> data) {
-            if( horseShoeTimer.expired() == false ) {
-                return;
-            }
-            horseShoeTimer.start();
-
-
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        String [] horseshoeStatus;
-                        horseshoeStatus = new String[4];
-
-                        // stuff the OSC data fields
-                        for( int i = 0; i < 4; i++ )
-                            horseshoeStatus[i] = getHorseshoeString(data.get(i));
-
-                        TextView elem1 = (TextView) findViewById(R.id.horseshoe_1);
-                        TextView elem2 = (TextView) findViewById(R.id.horseshoe_2);
-                        TextView elem3 = (TextView) findViewById(R.id.horseshoe_3);
-                        TextView elem4 = (TextView) findViewById(R.id.horseshoe_4);
-
-
-                        elem1.setText(horseshoeStatus[0]);
-                        elem2.setText(horseshoeStatus[1]);
-                        elem3.setText(horseshoeStatus[2]);
-                        elem4.setText(horseshoeStatus[3]);
-
-                           // Stuff osc data
-                        oscAddressPattern = new String("/muse/elements/horseshoe");
-                        for( int i = 0; i < 4; i++ )
-                            oscData[i] = generateFloatFromEEG(data.get(i));
-
-                        // transmit OSC data
-                        sendOSCData();
-                    }
-                });
-            }
-        }
-
-        // 1.0 = GOOD, 2.0 = OKAY, 3.0 = BAD, 4.0 NONE
-        private String getHorseshoeString(double horseshoeValue) {
-            if( horseshoeValue == 4.0 )
-                return "NONE";
-            else if( horseshoeValue == 3.0 )
-                return "BAD";
-            else if( horseshoeValue == 2.0 )
-                return "OKAY";
-            else if( horseshoeValue == 1.0 )
-                return "GOOD";
-            else
-                return String.format( "ERROR, value = %6.2f", horseshoeValue);
-
-        }
-
-        /*
-        PACKET INFO:
-            /muse/batt iiii
-
-        sent every 10 seconds
-        Position 1 = State of Charge, Divide this by 100 to get percentage of charge remaining, (e.g. 5367 is 53.67%) Range: 16 bit, 0-10000.
-        Position 2 = Millivolts measured by Fuel Gauge, Range: 16bit, 3000-4200 mV.
-        Position 3 = Millivolts measured by ADC, Range: 16bits, 3200-4200 mV. Values below 3350 are not reliable(they will flat line and stop falling) and you can consider the battery close to dead at that point(about 5 mins left).
-        Position 4 = Temperature in degrees Celcius, signed integer, 1°C Resolution, range is -40 to +125 °C.
-        */
-
-        private void updateBattery(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        double batteryLife = data.get(0);
-                        TextView batteryDisplay = (TextView) findViewById(R.id.battery_life);
-                        batteryDisplay.setText(String.format("%6.0f", batteryLife) + "%");
-                    }
-                });
-            }
-        }
-    }
-
-    private Muse muse = null;
-    private ConnectionListener connectionListener = null;
-    private DataListener dataListener = null;
+    // one pipeline per connected Muse, the first one is shown on screen
+    private final ArrayList<Muse> muses = new ArrayList<Muse>();
+    private final ArrayList<PacketSource> sources = new ArrayList<PacketSource>();
+    private final ArrayList<DevicePipeline> pipelines = new ArrayList<DevicePipeline>();
+    private UiRenderer uiRenderer;
     private boolean dataTransmission = true;
 
-    public MainActivity() {
-        // Create listeners and pass reference to activity to them
-        WeakReference<Activity> weakActivity =
-                                new WeakReference<Activity>(this);
-        connectionListener = new ConnectionListener(weakActivity);
-        dataListener = new DataListener(weakActivity);
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         // uncommment to revert to defaults
         //clearPrefs();
 
-        oscData = new float[4];
-        touchingForehead = 0;
-        lastTS = 0L;
         numWavePackets = 0;
-        totalElapsedMS = 0L;      ///XXX: not currently used
-
-        // Allocate timers herre
-        long foreheadTimerMS = 1000;
-        long horseShoeTimerMS = 1000;
-        long waveTimerMS = 200;
-
-        touchingForeheadTimer = new Timer(foreheadTimerMS);
-        horseShoeTimer = new Timer(horseShoeTimerMS);
-        alphaTimer = new Timer(waveTimerMS);
-        betaTimer = new Timer(waveTimerMS);
-        deltaTimer = new Timer(waveTimerMS);
-        gammaTimer = new Timer(waveTimerMS);
-        thetaTimer = new Timer(waveTimerMS);
-
-        touchingForeheadTimer.start();
-        horseShoeTimer.start();
-        alphaTimer.start();
-        betaTimer.start();
-        deltaTimer.start();
-        gammaTimer.start();
-        thetaTimer.start();
 
         // find way to hide popup keyboard
         super.onCreate(savedInstanceState);
@@ -527,7 +174,34 @@ public class MainActivity extends Activity implements OnClickListener {
         saveButton.setOnClickListener(this);
         Log.i("Muse Headband", "libmuse version=" + LibMuseVersion.SDK_VERSION);
 
+        Button connectAllButton = (Button) findViewById(R.id.connect_all);
+        connectAllButton.setOnClickListener(this);
+
+        Spinner transportSpinner = (Spinner) findViewById(R.id.transport);
+        transportSpinner.setAdapter(new ArrayAdapter<String>(
+                this, android.R.layout.simple_spinner_item, TRANSPORTS));
+
         readPrefs();
+        uiRenderer = new UiRenderer(this, new LatestValues());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        uiRenderer.start();
+    }
+
+    @Override
+    protected void onPause() {
+        uiRenderer.stop();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        stopPipelines();
+        closeControlPort();
+        super.onDestroy();
     }
 
     @Override
@@ -552,6 +226,14 @@ public class MainActivity extends Activity implements OnClickListener {
 
             EditText ipEditText = (EditText) findViewById(R.id.ti_ip);
             ipEditText.setEnabled(true);
+            findViewById(R.id.transport).setEnabled(true);
+        }
+        else if (v.getId() == R.id.connect && replayFile != null) {
+            replayer = new SessionReplayer(replayFile, replaySpeed, replayLoops);
+            startSource(replayer, "replay");
+        }
+        else if (v.getId() == R.id.connect && syntheticSpec.length() > 0) {
+            startSource(new SyntheticPacketSource(syntheticSpec), "synthetic");
         }
         else if (v.getId() == R.id.connect) {
             List<Muse> pairedMuses = MuseManager.getPairedMuses();
@@ -560,73 +242,116 @@ public class MainActivity extends Activity implements OnClickListener {
                 Log.w("Muse Headband", "There is nothing to connect to");
             }
             else {
-                muse = pairedMuses.get(musesSpinner.getSelectedItemPosition());
-                ConnectionState state = muse.getConnectionState();
-                if (state == ConnectionState.CONNECTED ||
-                    state == ConnectionState.CONNECTING) {
-                    Log.w("Muse Headband", "doesn't make sense to connect second time to the same muse");
-                    return;
-                }
-                configure_library();
-                /**
-                 * In most cases libmuse native library takes care about
-                 * exceptions and recovery mechanism, but native code still
-                 * may throw in some unexpected situations (like bad bluetooth
-                 * connection). Print all exceptions here.
-                 */
-                try {
-                    muse.runAsynchronously();
-
-                    // turn off editable text fields, store OSC values here
-                    EditText portEditText = (EditText) findViewById(R.id.ti_port);
-                    String portString = portEditText.getText().toString();
-                    //System.out.println("PORT: " + portString );
-                    PORT_OUT = Integer.valueOf(portString);
-                    PORT_IN = PORT_OUT + 7000;      // guarantees unique
-
-                    EditText ipEditText = (EditText) findViewById(R.id.ti_ip);
-                    SEND_TO_IP = ipEditText.getText().toString();
-
-
-                    portEditText.setEnabled(false);
-                    ipEditText.setEnabled(false);
-                    System.out.println("IP: " + SEND_TO_IP );
-                    System.out.println("PORT_IN: " + String.valueOf(PORT_IN) );
-                    System.out.println("PORT_OUT: " + String.valueOf(PORT_OUT) );
-
-                    osc = new OscP5(this,PORT_IN);
-                    thisLocation = new NetAddress(SEND_TO_IP,PORT_OUT);
-                } catch (Exception e) {
-                    Log.e("Muse Headband", e.toString());
-                }
+                List<Muse> selected = new ArrayList<Muse>();
+                selected.add(pairedMuses.get(musesSpinner.getSelectedItemPosition()));
+                connectMuses(selected, false);
+            }
+        }
+        else if (v.getId() == R.id.connect_all) {
+            List<Muse> pairedMuses = MuseManager.getPairedMuses();
+            if (pairedMuses.size() < 1) {
+                Log.w("Muse Headband", "There is nothing to connect to");
+            }
+            else {
+                connectMuses(pairedMuses, true);
             }
         }
         else if (v.getId() == R.id.disconnect) {
-            if (muse != null) {
-                muse.disconnect(true);
+            for (PacketSource source : sources)
+                source.stop();
+            if (replayer != null) {
+                Log.i("Muse Headband", replayer.getReport());
+                replayer = null;
+            }
+            for (DevicePipeline pipeline : pipelines) {
+                SampleRing ring = pipeline.getRing();
+                Log.i("Muse Headband", pipeline.getDeviceId() +
+                        " ring published=" + ring.getPublishedCount() +
+                        " dropped oldest=" + ring.getDroppedOldestCount() +
+                        " dropped newest=" + ring.getDroppedNewestCount() +
+                        " max depth=" + ring.getMaxDepth());
+                Log.i("Muse Headband", "  " + pipeline.getSender().getQueueLatency());
+                Log.i("Muse Headband", "  " + pipeline.getSender().getSendLatency());
+                DeadbandTable deadbands = pipeline.getSender().getDeadbands();
+                Log.i("Muse Headband", "  deadband saved " + deadbands.getSavedMessages() +
+                        " messages (" + deadbands.getSavedBytes() + " bytes)");
+                AdaptiveRate adaptive = pipeline.getSender().getAdaptiveRate();
+                if (adaptive != null) {
+                    Log.i("Muse Headband", "  adaptive rate " + Math.round(adaptive.getScale() * 100) + "%" +
+                            " decreases=" + adaptive.getDecreaseCount() +
+                            " increases=" + adaptive.getIncreaseCount() +
+                            " stale=" + pipeline.getSender().getStaleCount());
+                }
+                if (pipeline.getReconnect() != null)
+                    Log.i("Muse Headband", "  " + pipeline.getReconnect());
+                if (streamConfig.timetags)
+                    Log.i("Muse Headband", "  " + pipeline.getClock());
+                if (pipeline.getSender().getPlayout() != null)
+                    Log.i("Muse Headband", "  " + pipeline.getSender().getPlayout());
+                StreamStats stats = pipeline.getStats();
+                Log.i("Muse Headband", "  " + stats.getLatency(StreamStats.E2E));
+                Log.i("Muse Headband", "  " + stats.getLatency(StreamStats.EVENT));
+                for (int i = 0; i < stats.getAddresses().length; i++) {
+                    if (stats.getReceivedCount(i) == 0)
+                        continue;
+                    Log.i("Muse Headband", "  " + stats.getAddresses()[i] +
+                            " received=" + stats.getReceivedCount(i) +
+                            " throttled=" + stats.getThrottledCount(i) +
+                            " sent=" + stats.getSentCount(i) +
+                            " failed=" + stats.getFailedCount(i));
+                }
+                for (OscDestination destination : pipeline.getSender().getDestinations()) {
+                    Log.i("Muse Headband", "  " + destination +
+                            " sent=" + destination.getSentCount() +
+                            " failed=" + destination.getFailedCount() +
+                            " full=" + destination.getFullCount() +
+                            " skipped=" + destination.getSkippedCount() +
+                            " dropped=" + destination.getDroppedCount());
+                }
+                // the session is over, finish its file now rather than on the next connect
+                SessionRecorder recorder = pipeline.getRecorder();
+                if (recorder != null) {
+                    recorder.stop();
+                    Log.i("Muse Headband", "  recorded " + recorder.getRecordCount() +
+                            " packets (" + recorder.getBytesWritten() + " bytes) to " + recorder.getFile() +
+                            ", dropped=" + recorder.getDroppedCount() +
+                            " errors=" + recorder.getErrorCount());
+                }
             }
 
             EditText portEditText = (EditText) findViewById(R.id.ti_port);
             portEditText.setEnabled(true);
 
+            // the sources are stopped, close the sockets too rather than on the next connect
+            stopPipelines();
+
             EditText ipEditText = (EditText) findViewById(R.id.ti_ip);
             ipEditText.setEnabled(true);
+            findViewById(R.id.transport).setEnabled(true);
         }
         else if (v.getId() == R.id.save) {
             savePrefs();
         }
         else if (v.getId() == R.id.pause) {
-            Button pauseButton = (Button) findViewById(R.id.pause);
+            setDataTransmission(!dataTransmission);
+        }
+    }
 
-            dataTransmission = !dataTransmission;
-            if (muse != null) {
-                muse.enableDataTransmission(dataTransmission);
+    // The pause button, and /streamer/pause and /streamer/resume on the control port
+    private void setDataTransmission(boolean on) {
+        Button pauseButton = (Button) findViewById(R.id.pause);
 
-                if( dataTransmission )
-                    pauseButton.setText("Pause");
-                else
-                    pauseButton.setText("Resume");
-            }
+        dataTransmission = on;
+        if (control != null)
+            control.setPaused(!on);
+        if (!muses.isEmpty()) {
+            for (Muse m : muses)
+                m.enableDataTransmission(dataTransmission);
+
+            if( dataTransmission )
+                pauseButton.setText("Pause");
+            else
+                pauseButton.setText("Resume");
         }
     }
 
@@ -636,6 +361,30 @@ public class MainActivity extends Activity implements OnClickListener {
         SharedPreferences.Editor editor = preferences.edit();
         editor.putString("IP_ADDRESS","10.0.0.0");
         editor.putString("PORT_NUM","5000");
+        editor.putString("TRANSPORT","udp");
+        editor.putString("BUNDLE_MODE","0");
+        editor.putString("BUNDLE_PERIOD_MS","200");
+        editor.putString("RAW_EEG","0");
+        editor.putString("QUANTIZATION","");
+        editor.putString("RATE_LIMITS","");
+        editor.putString("FILTERS","");
+        editor.putString("DEADBANDS","");
+        editor.putString("ADAPTIVE_RATE","floor=1");
+        editor.putString("RECONNECT",ReconnectBackoff.DEFAULT_SPEC);
+        editor.putString("DEVICE_ROUTING","prefix");
+        editor.putString("DESTINATIONS","");
+        editor.putString("RECORD_SESSION","0");
+        editor.putString("REPLAY_SESSION","");
+        editor.putString("REPLAY_SPEED","1");
+        editor.putString("REPLAY_LOOPS","1");
+        editor.putString("SYNTHETIC","");
+        editor.putString("STATS_PERIOD_MS","1000");
+        editor.putString("BAND_POWERS","");
+        editor.putString("DERIVED_METRICS","0");
+        editor.putString("ARTIFACT_EVENTS","1");
+        editor.putString("TIMETAGS","0");
+        editor.putString("PLAYOUT","");
+        editor.putString("CLOCK_SYNC_MS",String.valueOf(ClockSync.DEFAULT_PERIOD_MS));
         editor.apply();
     }
 
@@ -644,11 +393,158 @@ public class MainActivity extends Activity implements OnClickListener {
         String ipAddress = preferences.getString("IP_ADDRESS","");
         String portNum = preferences.getString("PORT_NUM","");
 
+        // no UI for these yet, set them in the shared preferences
+        streamConfig.bundleMode = preferences.getString("BUNDLE_MODE","0").equals("1");
+        streamConfig.rawEegMode = preferences.getString("RAW_EEG","0").equals("1");
+        streamConfig.derivedMetrics = preferences.getString("DERIVED_METRICS","0").equals("1");
+        streamConfig.artifactEvents = preferences.getString("ARTIFACT_EVENTS","1").equals("1");
+        streamConfig.timetags = preferences.getString("TIMETAGS","0").equals("1");
+        File base = getExternalFilesDir(null);
+        File sessions = new File(base != null ? base : getFilesDir(), "sessions");
+        streamConfig.recordDirectory = null;
+        if (preferences.getString("RECORD_SESSION","0").equals("1")) {
+            streamConfig.recordDirectory = sessions;
+            if (!sessions.isDirectory() && !sessions.mkdirs()) {
+                Log.w("Muse Headband", "can't create " + sessions + ", not recording");
+                streamConfig.recordDirectory = null;
+            }
+        }
+
+        // a file name in the sessions directory, or a full path
+        String replaySession = preferences.getString("REPLAY_SESSION","").trim();
+        replayFile = null;
+        if (replaySession.length() > 0) {
+            replayFile = new File(replaySession);
+            if (!replayFile.isAbsolute())
+                replayFile = new File(sessions, replaySession);
+        }
+        try {
+            replaySpeed = SessionReplayer.parseSpeed(preferences.getString("REPLAY_SPEED","1"));
+            replayLoops = Integer.parseInt(preferences.getString("REPLAY_LOOPS","1"));
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad REPLAY_SPEED or REPLAY_LOOPS, " + e.getMessage());
+            replaySpeed = 1;
+            replayLoops = 1;
+        }
+        syntheticSpec = preferences.getString("SYNTHETIC","").trim();
+        try {
+            SyntheticPacketSource.validate(syntheticSpec);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad SYNTHETIC, " + e.getMessage());
+            syntheticSpec = "";
+        }
+        deviceRouting = preferences.getString("DEVICE_ROUTING","prefix");
+        try {
+            streamConfig.bundlePeriodMS = Long.parseLong(preferences.getString("BUNDLE_PERIOD_MS","200"));
+        } catch (NumberFormatException e) {
+            Log.w("Muse Headband", "bad BUNDLE_PERIOD_MS, using " + streamConfig.bundlePeriodMS);
+        }
+        // 0 keeps the on-screen stats but doesn't send /streamer/stats
+        try {
+            long statsPeriod = Long.parseLong(preferences.getString("STATS_PERIOD_MS","1000"));
+            if (statsPeriod < 0)
+                throw new NumberFormatException();
+            streamConfig.statsPeriodMS = statsPeriod;
+        } catch (NumberFormatException e) {
+            Log.w("Muse Headband", "bad STATS_PERIOD_MS, using " + streamConfig.statsPeriodMS);
+        }
+        try {
+            long syncPeriod = Long.parseLong(preferences.getString("CLOCK_SYNC_MS",String.valueOf(ClockSync.DEFAULT_PERIOD_MS)));
+            if (syncPeriod < 0)
+                throw new NumberFormatException();
+            streamConfig.clockSyncMS = syncPeriod;
+        } catch (NumberFormatException e) {
+            Log.w("Muse Headband", "bad CLOCK_SYNC_MS, using " + streamConfig.clockSyncMS);
+        }
+
+        // check the specs once here, so a typo can't stop a pipeline from being created
+        streamConfig.bandPowers = preferences.getString("BAND_POWERS","").trim();
+        try {
+            if (streamConfig.bandPowers.length() > 0)
+                EegBandPowers.validate(streamConfig.bandPowers);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad BAND_POWERS, " + e.getMessage());
+            streamConfig.bandPowers = "";
+        }
+        streamConfig.quantization = preferences.getString("QUANTIZATION","");
+        try {
+            QuantizerTable.validateConfig(streamConfig.quantization);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad QUANTIZATION, " + e.getMessage());
+            streamConfig.quantization = "";
+        }
+        streamConfig.rateLimits = preferences.getString("RATE_LIMITS","");
+        try {
+            RateController.validateConfig(streamConfig.rateLimits);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad RATE_LIMITS, " + e.getMessage());
+            streamConfig.rateLimits = "";
+        }
+        streamConfig.filters = preferences.getString("FILTERS","");
+        try {
+            FilterTable.validateConfig(streamConfig.filters);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad FILTERS, " + e.getMessage());
+            streamConfig.filters = "";
+        }
+        streamConfig.deadbands = preferences.getString("DEADBANDS","");
+        try {
+            DeadbandTable.validateConfig(streamConfig.deadbands);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad DEADBANDS, " + e.getMessage());
+            streamConfig.deadbands = "";
+        }
+        // on unless set to "", see AdaptiveRate for the keys
+        streamConfig.adaptiveRate = preferences.getString("ADAPTIVE_RATE","floor=1").trim();
+        try {
+            if (streamConfig.adaptiveRate.length() > 0)
+                AdaptiveRate.validate(streamConfig.adaptiveRate);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad ADAPTIVE_RATE, " + e.getMessage());
+            streamConfig.adaptiveRate = "";
+        }
+        streamConfig.reconnect = preferences.getString("RECONNECT",ReconnectBackoff.DEFAULT_SPEC).trim();
+        try {
+            if (streamConfig.reconnect.length() > 0)
+                ReconnectBackoff.validate(streamConfig.reconnect);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad RECONNECT, " + e.getMessage());
+            streamConfig.reconnect = ReconnectBackoff.DEFAULT_SPEC;
+        }
+        // off unless set, see PlayoutBuffer for the keys
+        streamConfig.playout = preferences.getString("PLAYOUT","").trim();
+        try {
+            if (streamConfig.playout.length() > 0)
+                PlayoutBuffer.validate(streamConfig.playout);
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad PLAYOUT, " + e.getMessage());
+            streamConfig.playout = "";
+        }
+        streamConfig.destinations = preferences.getString("DESTINATIONS","");
+        try {
+            for (String spec : streamConfig.destinations.split(";")) {
+                if (spec.trim().length() > 0)
+                    OscDestination.parse(spec);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w("Muse Headband", "bad DESTINATIONS, " + e.getMessage());
+            streamConfig.destinations = "";
+        }
+
         EditText portEditText = (EditText) findViewById(R.id.ti_port);
         portEditText.setText(portNum);
 
         EditText ipEditText = (EditText) findViewById(R.id.ti_ip);
         ipEditText.setText(ipAddress);
+
+        String transport = preferences.getString("TRANSPORT","udp").trim().toLowerCase();
+        int transportIndex = Arrays.asList(TRANSPORTS).indexOf(transport);
+        if (transportIndex < 0) {
+            Log.w("Muse Headband", "bad TRANSPORT " + transport + ", using udp");
+            transportIndex = 0;
+        }
+        Spinner transportSpinner = (Spinner) findViewById(R.id.transport);
+        transportSpinner.setSelection(transportIndex);
     }
 
     public void savePrefs() {
@@ -659,62 +555,165 @@ public class MainActivity extends Activity implements OnClickListener {
         EditText ipEditText = (EditText) findViewById(R.id.ti_ip);
         String ipString = ipEditText.getText().toString();
 
+        Spinner transportSpinner = (Spinner) findViewById(R.id.transport);
+        String transportString = TRANSPORTS[transportSpinner.getSelectedItemPosition()];
+
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         SharedPreferences.Editor editor = preferences.edit();
         editor.putString("IP_ADDRESS",ipString);
         editor.putString("PORT_NUM",portString);
+        editor.putString("TRANSPORT",transportString);
         editor.apply();
     }
 
-    // Global variables oscAddressPattern and OSCData are stuffed, from other functions
-    public void sendOSCData(){
-        new AsyncTask<Void, Void, String>(){
+    // Starts a pipeline and a libmuse connection for each Muse. With routePerDevice every device
+    // gets its own address prefix or port (DEVICE_ROUTING), otherwise they all send plain
+    // /muse/... addresses to PORT_OUT.
+    private void connectMuses(List<Muse> toConnect, boolean routePerDevice) {
+        for (Muse m : toConnect) {
+            ConnectionState state = m.getConnectionState();
+            if (state == ConnectionState.CONNECTED ||
+                state == ConnectionState.CONNECTING) {
+                Log.w("Muse Headband", "doesn't make sense to connect second time to the same muse");
+                return;
+            }
+        }
 
-            @Override
-            protected String doInBackground(Void... params) {
+        if (!readSendTo())
+            return;
+        stopPipelines();
 
-                //-- For touching forehead status, we are just sending a single int
-                //-- otherwise, all the waveData and horseshoe goes in a float
-                if( oscAddressPattern.equals("/muse/elements/touching_forehead")) {
-                    OscMessage oscM = new OscMessage(oscAddressPattern, new Object[0]);
-                    oscM.add(touchingForehead);
-                    OscP5.flush(oscM, thisLocation);
-                }
-                else {
-                    OscMessage oscM = new OscMessage(oscAddressPattern, new Object[0]);
-                    for (int i = 0; i < 4; i++)
-                        oscM.add(oscData[i]);
-                    OscP5.flush(oscM, thisLocation);
-                }
-                return "doing in background";
-            }
+        WeakReference<Activity> weakActivity = new WeakReference<Activity>(this);
+        for (int i = 0; i < toConnect.size(); i++) {
+            Muse m = toConnect.get(i);
 
-            @Override
-            protected void onPostExecute(String result) {
-                //System.out.println("done in background");
+            String prefix = "";
+            int port = PORT_OUT;
+            if (routePerDevice) {
+                if (deviceRouting.equals("port"))
+                    port = PORT_OUT + i;
+                else
+                    prefix = OscAddresses.devicePrefix(m.getMacAddress());
             }
+            Log.i("Muse Headband", m.getMacAddress() + " -> " + SEND_TO_IP + ":" + port + " " + prefix);
 
-        }.execute();
+            DevicePipeline pipeline = new DevicePipeline(m.getMacAddress(), prefix, SEND_TO_IP, port, streamConfig);
+            pipeline.start();
+            pipelines.add(pipeline);
+            muses.add(m);
+
+            MusePacketSource source = new MusePacketSource(m, new ConnectionListener(weakActivity, m, i == 0),
+                                                           dataTransmission);
+            source.start(pipeline);
+            sources.add(source);
+        }
+
+        openControlPort();
+
+        uiRenderer.setSource(pipelines.get(0).getLatestValues(), pipelines.get(0).getStats());
     }
 
-    ///XXX:CLEAN
-    private void configure_library() {
-        muse.registerConnectionListener(connectionListener);
+    // Streams a source that isn't a headset (a replayed session or synthetic data) through a
+    // pipeline of its own, exactly like a connected Muse, to PORT_OUT without a device prefix
+    private void startSource(PacketSource source, String name) {
+        if (!readSendTo())
+            return;
+        stopPipelines();
+
+        DevicePipeline pipeline = new DevicePipeline(name, "", SEND_TO_IP, PORT_OUT, streamConfig);
+        pipeline.start();
+        pipelines.add(pipeline);
+
+        try {
+            source.start(pipeline);
+            sources.add(source);
+            Log.i("Muse Headband", name + " -> " + SEND_TO_IP + ":" + PORT_OUT);
+        } catch (IOException e) {
+            Log.e("Muse Headband", "can't start " + name + ", " + e);
+        }
+
+        openControlPort();
+
+        uiRenderer.setSource(pipeline.getLatestValues(), pipeline.getStats());
+    }
 
-        muse.registerDataListener(dataListener, MuseDataPacketType.ALPHA_ABSOLUTE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.BETA_ABSOLUTE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.DELTA_ABSOLUTE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.GAMMA_ABSOLUTE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.THETA_ABSOLUTE);
+    // Reads the port, IP and transport fields into PORT_OUT, SEND_TO_IP and streamConfig and
+    // locks them, false if the port isn't a number
+    private boolean readSendTo() {
+        // turn off editable text fields, store OSC values here
+        EditText portEditText = (EditText) findViewById(R.id.ti_port);
+        String portString = portEditText.getText().toString();
+        EditText ipEditText = (EditText) findViewById(R.id.ti_ip);
+        try {
+            PORT_OUT = Integer.valueOf(portString);
+        } catch (NumberFormatException e) {
+            Log.e("Muse Headband", "bad port: " + portString);
+            return false;
+        }
+        PORT_IN = PORT_OUT + 7000;      // guarantees unique
+        SEND_TO_IP = ipEditText.getText().toString();
+        Spinner transportSpinner = (Spinner) findViewById(R.id.transport);
+        streamConfig.transport = TRANSPORTS[transportSpinner.getSelectedItemPosition()];
+
+        portEditText.setEnabled(false);
+        ipEditText.setEnabled(false);
+        transportSpinner.setEnabled(false);
+        System.out.println("IP: " + SEND_TO_IP );
+        System.out.println("PORT_IN: " + String.valueOf(PORT_IN) );
+        System.out.println("PORT_OUT: " + String.valueOf(PORT_OUT) );
+        System.out.println("TRANSPORT: " + streamConfig.transport );
+        return true;
+    }
 
-        muse.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
-        muse.registerDataListener(dataListener, MuseDataPacketType.HORSESHOE);
+    // One ControlServer on PORT_IN for as long as the port stays the same, a new Connect used
+    // to open another one every time and never close the old. Commands go to the current pipelines
+    private void openControlPort() {
+        if (control == null || control.getPort() != PORT_IN) {
+            closeControlPort();
+            final WeakReference<MainActivity> weakActivity = new WeakReference<MainActivity>(this);
+            ControlServer server = new ControlServer(PORT_IN, new ControlServer.Callback() {
+                @Override
+                public void setDataTransmission(final boolean on) {
+                    final MainActivity activity = weakActivity.get();
+                    if (activity == null)
+                        return;
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            activity.setDataTransmission(on);
+                        }
+                    });
+                }
+            });
+            try {
+                server.start();
+                control = server;
+            } catch (IOException e) {
+                Log.e("Muse Headband", "can't listen on " + PORT_IN + ", " + e);
+                return;
+            }
+        }
+        control.setPipelines(pipelines.toArray(new DevicePipeline[pipelines.size()]));
+    }
 
-        // Artifacts: we are just listening for touching forehead
-        muse.registerDataListener(dataListener, MuseDataPacketType.ARTIFACTS);
+    private void closeControlPort() {
+        if (control != null) {
+            control.stop();
+            control = null;
+        }
+    }
 
-        muse.setPreset(MusePreset.PRESET_14);
-        muse.enableDataTransmission(dataTransmission);
+    // replace whatever we were streaming before
+    private void stopPipelines() {
+        for (PacketSource source : sources)
+            source.stop();
+        sources.clear();
+        for (DevicePipeline pipeline : pipelines)
+            pipeline.stop();
+        pipelines.clear();
+        muses.clear();
+        if (control != null)
+            control.setPipelines(new DevicePipeline[0]);
     }
 
     @Override
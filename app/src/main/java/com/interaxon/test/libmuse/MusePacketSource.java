@@ -0,0 +1,314 @@
+package com.interaxon.test.libmuse;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.interaxon.libmuse.ConnectionState;
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.Muse;
+import com.interaxon.libmuse.MuseArtifactPacket;
+import com.interaxon.libmuse.MuseConnectionListener;
+import com.interaxon.libmuse.MuseConnectionPacket;
+import com.interaxon.libmuse.MuseDataListener;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+import com.interaxon.libmuse.MusePreset;
+
+/**
+ *  MusePacketSource
+ *
+ *  A paired Muse as a PacketSource: registers a DataListener for the packets we stream and
+ *  runs the libmuse connection. Only packets something subscribed needs are registered for
+ *  (see DevicePipeline.needs...()), again on every change of the pipeline's Subscriptions, so
+ *  an unsubscribed stream isn't even copied out of libmuse. Battery is always on, and while a
+ *  session is recorded everything is. The listener is also what a SessionReplayer plays into, so a
+ *  replayed session takes exactly the path a live one does.
+ *
+ *  If the pipeline has a ReconnectBackoff, a connection that drops is opened again on its own
+ *  after the backoff's wait, with the same listeners and preset, until stop(). The pipeline and
+ *  its sockets aren't touched, so streaming picks up where it left off.
+ */
+public class MusePacketSource implements PacketSource {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public MusePacketSource(Muse _muse, MuseConnectionListener _connectionListener, boolean _dataTransmission) {
+        muse = _muse;
+        connectionListener = _connectionListener;
+        dataTransmission = _dataTransmission;
+    }
+
+    @Override
+    public void start(DevicePipeline _pipeline) {
+        pipeline = _pipeline;
+        dataListener = new DataListener(pipeline);
+        configure_library();
+        pipeline.getSubscriptions().setListener(new Runnable() {
+            @Override
+            public void run() {
+                registerDataListeners();
+            }
+        });
+        reconnect = pipeline.getReconnect();
+        if (reconnect != null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            muse.registerConnectionListener(new ReconnectListener());
+        }
+        connect();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (pipeline != null)
+            pipeline.getSubscriptions().setListener(null);
+        if (scheduler != null)
+            scheduler.shutdownNow();
+        // listeners stay registered so the connection listener still sees the disconnect
+        muse.disconnect(true);
+    }
+
+    public Muse getMuse() { return muse; }
+
+    //-------- PUBLIC CLASSES --------/
+    /**
+     * Data listener is registered to listen for band powers, horseshoe,
+     * battery, artifacts and (when needed) EEG packets of one Muse, and also
+     * gets the packets of a replayed session. It copies
+     * the values once into primitive arrays and hands them to that device's
+     * pipeline, which updates the screen snapshot and queues the OSC data.
+     * Each device gets its own listener, so nothing here is shared.
+     */
+    public static class DataListener extends MuseDataListener {
+
+        final DevicePipeline pipeline;
+        final ReconnectBackoff reconnect;
+
+        public DataListener(final DevicePipeline pipeline) {
+            this.pipeline = pipeline;
+            this.reconnect = pipeline.getReconnect();
+        }
+
+        @Override
+        public void receiveMuseDataPacket(MuseDataPacket p) {
+            // the first packet after a reconnect ends the gap
+            if (reconnect != null && reconnect.isInOutage())
+                reconnect.onData(System.nanoTime());
+            if (pipeline.isRecording())
+                recordPacket(p);
+            // what the samples from it are stamped with, see DeviceClock
+            pipeline.setPacketTimestamp(p.getTimestamp());
+
+            int packetSkipAmount = 4;               // send 25% of packets (for now), keyed to BETA waves
+            switch (p.getPacketType()) {
+                case ALPHA_ABSOLUTE:
+                   updateBand(LatestValues.ALPHA, p.getValues());
+                   break;
+
+                case BETA_ABSOLUTE:
+                    updateBand(LatestValues.BETA, p.getValues());
+                    break;
+
+                case DELTA_ABSOLUTE:
+                    updateBand(LatestValues.DELTA, p.getValues());
+                    break;
+
+                case GAMMA_ABSOLUTE:
+                    updateBand(LatestValues.GAMMA, p.getValues());
+                    break;
+
+                case THETA_ABSOLUTE:
+                    updateBand(LatestValues.THETA, p.getValues());
+                    break;
+
+                case HORSESHOE:
+                    updateHorseshoe(p.getValues());
+                    break;
+
+                case EEG:
+                    updateEeg(p.getValues());
+                    break;
+
+                case BATTERY:
+                    updateBattery(p.getValues());
+                default:
+                    Log.i("DataPacket ", "Received");
+                    break;
+            }
+        }
+
+
+        @Override
+        public void receiveMuseArtifactPacket(MuseArtifactPacket p) {
+            if (pipeline.isRecording()) {
+                // artifact packets carry no timestamp, the receive time is recorded with them
+                recordValues[0] = p.getHeadbandOn() ? 1 : 0;
+                recordValues[1] = p.getBlink() ? 1 : 0;
+                recordValues[2] = p.getJawClench() ? 1 : 0;
+                pipeline.onPacket(MuseDataPacketType.ARTIFACTS.ordinal() + 1, 0, recordValues, 3);
+            }
+            pipeline.setPacketTimestamp(0);
+            pipeline.onArtifacts(p.getHeadbandOn(), p.getBlink(), p.getJawClench());
+        }
+
+        // All of the packet's values, as received, go to the session log
+        private void recordPacket(MuseDataPacket p) {
+            final ArrayList<Double> data = p.getValues();
+            int count = Math.min(data.size(), SessionRecorder.MAX_VALUES);
+            for (int i = 0; i < count; i++)
+                recordValues[i] = data.get(i).floatValue();
+            pipeline.onPacket(p.getPacketType().ordinal() + 1, p.getTimestamp(), recordValues, count);
+        }
+
+        // Copies the 4 channels once into the listener's scratch array
+        private void copyChannels(final ArrayList<Double> data) {
+            values[0] = data.get(Eeg.TP9.ordinal()).floatValue();
+            values[1] = data.get(Eeg.FP1.ordinal()).floatValue();
+            values[2] = data.get(Eeg.FP2.ordinal()).floatValue();
+            values[3] = data.get(Eeg.TP10.ordinal()).floatValue();
+        }
+
+        private void updateBand(int band, final ArrayList<Double> data) {
+            copyChannels(data);
+            pipeline.onBand(band, values);
+        }
+
+        private void updateHorseshoe(final ArrayList<Double> data) {
+            for( int i = 0; i < 4; i++ )
+                values[i] = data.get(i).floatValue();
+            pipeline.onHorseshoe(values);
+        }
+
+        // Full rate, no timer: the sender batches these
+        private void updateEeg(final ArrayList<Double> data) {
+            copyChannels(data);
+            pipeline.onEeg(values);
+        }
+
+        /*
+        PACKET INFO:
+            /muse/batt iiii
+
+        sent every 10 seconds
+        Position 1 = State of Charge, Divide this by 100 to get percentage of charge remaining, (e.g. 5367 is 53.67%) Range: 16 bit, 0-10000.
+        Position 2 = Millivolts measured by Fuel Gauge, Range: 16bit, 3000-4200 mV.
+        Position 3 = Millivolts measured by ADC, Range: 16bits, 3200-4200 mV. Values below 3350 are not reliable(they will flat line and stop falling) and you can consider the battery close to dead at that point(about 5 mins left).
+        Position 4 = Temperature in degrees Celcius, signed integer, 1°C Resolution, range is -40 to +125 °C.
+        */
+
+        private void updateBattery(final ArrayList<Double> data) {
+            pipeline.onBattery(data.get(0).floatValue());
+        }
+
+        // scratch copy of the current packet's values, only used on the libmuse callback thread
+        private final float[] values = new float[4];
+        private final float[] recordValues = new float[SessionRecorder.MAX_VALUES];
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void connect() {
+        /**
+         * In most cases libmuse native library takes care about
+         * exceptions and recovery mechanism, but native code still
+         * may throw in some unexpected situations (like bad bluetooth
+         * connection). Print all exceptions here.
+         */
+        try {
+            muse.runAsynchronously();
+        } catch (Exception e) {
+            Log.e("Muse Headband", e.toString());
+        }
+    }
+
+    ///XXX:CLEAN
+    private void configure_library() {
+        muse.unregisterAllListeners();
+        registered.clear();
+        muse.registerConnectionListener(connectionListener);
+
+        muse.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
+        registerDataListeners();
+
+        muse.setPreset(MusePreset.PRESET_14);
+        muse.enableDataTransmission(dataTransmission);
+    }
+
+    // Registers the data listener for the packet types the pipeline needs and unregisters it
+    // from the others. Runs on whichever thread changed the subscriptions
+    private synchronized void registerDataListeners() {
+        for (int band = 0; band < LatestValues.NUM_BANDS; band++)
+            listenTo(BAND_TYPES[band], pipeline.needsBandPackets(band));
+        listenTo(MuseDataPacketType.HORSESHOE, pipeline.needsHorseshoePackets());
+        listenTo(MuseDataPacketType.EEG, pipeline.needsEegPackets());
+        listenTo(MuseDataPacketType.ARTIFACTS, pipeline.needsArtifactPackets());
+    }
+
+    private void listenTo(MuseDataPacketType type, boolean needed) {
+        needed |= pipeline.isRecording();
+        if (needed == registered.contains(type))
+            return;
+        if (needed) {
+            muse.registerDataListener(dataListener, type);
+            registered.add(type);
+        }
+        else {
+            muse.unregisterDataListener(dataListener, type);
+            registered.remove(type);
+        }
+        Log.i("Muse Headband", muse.getMacAddress() + (needed ? " listening to " : " not listening to ") + type);
+    }
+
+    //-------- PRIVATE CLASSES --------/
+    /**
+     * Watches the connection for drops and schedules the next attempt, the
+     * backoff measures how long it took. Called on libmuse's thread.
+     */
+    private class ReconnectListener extends MuseConnectionListener {
+        @Override
+        public void receiveMuseConnectionPacket(MuseConnectionPacket p) {
+            if (stopped)
+                return;
+            ConnectionState current = p.getCurrentConnectionState();
+            long now = System.nanoTime();
+            if (current == ConnectionState.CONNECTED) {
+                reconnect.onConnected(now);
+            }
+            else if (current == ConnectionState.DISCONNECTED) {
+                long wait = reconnect.onDisconnected(now);
+                Log.i("Muse Headband", muse.getMacAddress() + " reconnecting in " + wait / 1000000 + "ms");
+                try {
+                    scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!stopped)
+                                connect();
+                        }
+                    }, wait, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException e) {
+                    // stop() shut the scheduler down in between
+                }
+            }
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    // indexed by LatestValues.ALPHA ... LatestValues.THETA
+    private static final MuseDataPacketType[] BAND_TYPES = {
+        MuseDataPacketType.ALPHA_ABSOLUTE, MuseDataPacketType.BETA_ABSOLUTE, MuseDataPacketType.DELTA_ABSOLUTE,
+        MuseDataPacketType.GAMMA_ABSOLUTE, MuseDataPacketType.THETA_ABSOLUTE
+    };
+
+    private final Muse muse;
+    private final MuseConnectionListener connectionListener;
+    private DevicePipeline pipeline = null;
+    private DataListener dataListener = null;
+    private final EnumSet<MuseDataPacketType> registered = EnumSet.noneOf(MuseDataPacketType.class);
+    private final boolean dataTransmission;
+    private ReconnectBackoff reconnect = null;          // null if reconnecting is off
+    private ScheduledExecutorService scheduler = null;
+    private volatile boolean stopped = false;
+}
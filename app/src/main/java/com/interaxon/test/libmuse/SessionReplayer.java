@@ -0,0 +1,193 @@
+package com.interaxon.test.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import com.interaxon.libmuse.MuseArtifactPacket;
+import com.interaxon.libmuse.MuseDataListener;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ *  SessionReplayer
+ *
+ *  Plays a SessionRecorder log back into a pipeline on its own thread, through the same
+ *  MusePacketSource.DataListener a connected headset uses, so rate limiting, quantization and
+ *  sending all run unchanged.
+ *
+ *  With speed > 0 the packets keep their recorded spacing divided by speed (1 is real time),
+ *  scheduled against System.nanoTime(): the thread parks until shortly before each packet is
+ *  due and spins the rest of the way. With speed <= 0 (MAX_SPEED) packets are pushed as fast
+ *  as the listener takes them, which makes it a soak test of the whole send path; the report
+ *  then gives the sustained packets per second.
+ *
+ *  libmuse packets are immutable, so every replayed packet is allocated like a live one is.
+ */
+public class SessionReplayer implements PacketSource, Runnable {
+    public static final double MAX_SPEED = 0;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    // loops is how many times the log is played, 0 to keep playing until stop()
+    public SessionReplayer(File _file, double _speed, int _loops) {
+        file = _file;
+        speed = _speed;
+        loops = _loops;
+    }
+
+    // "max" for MAX_SPEED, otherwise the speed as a number, e.g. "1" or "10"
+    public static double parseSpeed(String spec) {
+        spec = spec.trim();
+        if (spec.equalsIgnoreCase("max"))
+            return MAX_SPEED;
+        try {
+            double speed = Double.parseDouble(spec);
+            if (speed > 0)
+                return speed;
+        } catch (NumberFormatException e) {
+            // falls through to the error below
+        }
+        throw new IllegalArgumentException("bad replay speed: " + spec);
+    }
+
+    @Override
+    public void start(DevicePipeline pipeline) throws IOException {
+        reader = new SessionReader(file);
+        listener = new MusePacketSource.DataListener(pipeline);
+        running = true;
+        thread = new Thread(this, "SessionReplayer " + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() { return running; }
+    public long getReplayedCount() { return replayed; }
+    // time the listener took per packet, i.e. up to the sample being queued for the sender
+    public LatencyStats getDispatchLatency() { return dispatchLatency; }
+    // how late each packet was handed over compared to its schedule, paced replay only
+    public LatencyStats getLateness() { return lateness; }
+
+    // Packets per second since start, up to the end of the replay
+    public double getPacketsPerSecond() {
+        long end = finishedNanos != 0 ? finishedNanos : System.nanoTime();
+        long elapsed = end - startedNanos;
+        return elapsed <= 0 ? 0 : replayed * 1e9 / elapsed;
+    }
+
+    public String getReport() {
+        return file.getName() + " replayed=" + replayed +
+                " pps=" + Math.round(getPacketsPerSecond()) +
+                " speed=" + (speed > 0 ? String.valueOf(speed) : "max") +
+                "\n  " + dispatchLatency +
+                (speed > 0 ? "\n  " + lateness : "");
+    }
+
+    @Override
+    public void run() {
+        startedNanos = System.nanoTime();
+        try {
+            for (int loop = 0; running && (loops == 0 || loop < loops); loop++) {
+                reader.rewind();
+                if (!replayOnce())
+                    break;              // an empty log
+            }
+        } catch (IOException e) {
+            System.out.println("SessionReplayer: can't read " + file + " " + e);
+        }
+        finishedNanos = System.nanoTime();
+        running = false;
+        reader.close();
+        System.out.println("SessionReplayer: " + getReport());
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // Plays the log from the current position to its end, false if there was nothing in it
+    private boolean replayOnce() throws IOException {
+        long firstRecorded = 0;
+        long loopStart = System.nanoTime();
+        boolean any = false;
+
+        while (running && reader.next()) {
+            if (!any) {
+                firstRecorded = reader.receivedNanos;
+                any = true;
+            }
+
+            if (speed > 0) {
+                long due = loopStart + (long) ((reader.receivedNanos - firstRecorded) / speed);
+                waitUntil(due);
+                lateness.record(System.nanoTime() - due);
+            }
+
+            long t0 = System.nanoTime();
+            dispatch();
+            dispatchLatency.record(System.nanoTime() - t0);
+            replayed++;
+        }
+        return any;
+    }
+
+    private void dispatch() {
+        if (reader.type == ARTIFACTS_TYPE) {
+            listener.receiveMuseArtifactPacket(new MuseArtifactPacket(null,
+                    reader.values[0] != 0, reader.values[1] != 0, reader.values[2] != 0));
+            return;
+        }
+        if (reader.type < 1 || reader.type > PACKET_TYPES.length)
+            return;             // not a type this libmuse knows
+
+        ArrayList<Double> values = new ArrayList<Double>(reader.count);
+        for (int i = 0; i < reader.count; i++)
+            values.add((double) reader.values[i]);
+        listener.receiveMuseDataPacket(new MuseDataPacket(PACKET_TYPES[reader.type - 1],
+                reader.deviceTimestamp, null, values));
+    }
+
+    // Parks until just before due, then spins, parkNanos alone is often a millisecond late
+    private void waitUntil(long due) {
+        while (running) {
+            long left = due - System.nanoTime();
+            if (left <= 0)
+                return;
+            if (left > SPIN_NANOS)
+                LockSupport.parkNanos(left - SPIN_NANOS);
+            else
+                Thread.yield();
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long SPIN_NANOS = 1000000L;           // spin for the last 1ms
+    private static final MuseDataPacketType[] PACKET_TYPES = MuseDataPacketType.values();
+    private static final int ARTIFACTS_TYPE = MuseDataPacketType.ARTIFACTS.ordinal() + 1;
+
+    private final File file;
+    private MuseDataListener listener;
+    private final double speed;
+    private final int loops;
+    private SessionReader reader;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // only written by the replay thread
+    private final LatencyStats dispatchLatency = new LatencyStats("dispatch");
+    private final LatencyStats lateness = new LatencyStats("lateness");
+    private volatile long replayed = 0;
+    private volatile long startedNanos = 0;
+    private volatile long finishedNanos = 0;
+}
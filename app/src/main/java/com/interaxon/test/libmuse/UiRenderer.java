@@ -0,0 +1,205 @@
+package com.interaxon.test.libmuse;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.widget.TextView;
+
+/**
+ *  UiRenderer
+ *
+ *  Redraws the data fields at a fixed frame rate from a LatestValues snapshot, instead of the
+ *  listener posting a Runnable per packet. TextViews are looked up once, numbers are formatted
+ *  into one reused char[] per field, and a field is only set again when what it shows changed,
+ *  not just when a packet came, so UI cost is the same however fast packets arrive. The pipeline's StreamStats summary is
+ *  redrawn about once a second, as often as the sender takes a new snapshot.
+ *
+ *  Driven by a Handler on the UI thread rather than Choreographer, which needs API 16 and we
+ *  still support API 11.
+ */
+public class UiRenderer implements Runnable {
+    public static final long FRAME_MS = 33;        // ~30 fps is plenty for numbers
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public UiRenderer(Activity activity, LatestValues _latest) {
+        setSource(_latest, null);
+
+        int[][] bandIds = {
+            { R.id.alpha_t9, R.id.alpha_fp1, R.id.alpha_fp2, R.id.alpha_t10 },
+            { R.id.beta_t9, R.id.beta_fp1, R.id.beta_fp2, R.id.beta_t10 },
+            { R.id.delta_t9, R.id.delta_fp1, R.id.delta_fp2, R.id.delta_t10 },
+            { R.id.gamma_t9, R.id.gamma_fp1, R.id.gamma_fp2, R.id.gamma_t10 },
+            { R.id.theta_t9, R.id.theta_fp1, R.id.theta_fp2, R.id.theta_t10 },
+        };
+        int[] horseshoeIds = { R.id.horseshoe_1, R.id.horseshoe_2, R.id.horseshoe_3, R.id.horseshoe_4 };
+
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            for (int c = 0; c < LatestValues.NUM_CHANNELS; c++) {
+                bandViews[b][c] = (TextView) activity.findViewById(bandIds[b][c]);
+                bandText[b][c] = new char[TEXT_SIZE];
+            }
+        }
+        for (int c = 0; c < LatestValues.NUM_CHANNELS; c++)
+            horseshoeViews[c] = (TextView) activity.findViewById(horseshoeIds[c]);
+        batteryView = (TextView) activity.findViewById(R.id.battery_life);
+        touchingForeheadView = (TextView) activity.findViewById(R.id.touchingForehead);
+        statsView = (TextView) activity.findViewById(R.id.stream_stats);
+    }
+
+    // Which device's values and stats (null for none) to show, call on the UI thread
+    public void setSource(LatestValues _latest, StreamStats _stats) {
+        latest = _latest;
+        stats = _stats;
+        statsFrames = STATS_FRAMES;
+
+        // force every field to redraw from the new source
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            renderedBandVersions[b] = -1;
+            for (int c = 0; c < LatestValues.NUM_CHANNELS; c++)
+                bandLength[b][c] = -1;
+        }
+        renderedHorseshoeVersion = -1;
+        for (int c = 0; c < LatestValues.NUM_CHANNELS; c++)
+            renderedHorseshoe[c] = Float.NaN;
+        renderedBatteryVersion = -1;
+        batteryLength = -1;
+        renderedTouchingForeheadVersion = -1;
+        renderedTouchingForehead = -1;
+    }
+
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        handler.post(this);
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (!running)
+            return;
+        render();
+        handler.postDelayed(this, FRAME_MS);
+    }
+
+    // 1.0 = GOOD, 2.0 = OKAY, 3.0 = BAD, 4.0 NONE
+    public static String getHorseshoeString(double horseshoeValue) {
+        if( horseshoeValue == 4.0 )
+            return "NONE";
+        else if( horseshoeValue == 3.0 )
+            return "BAD";
+        else if( horseshoeValue == 2.0 )
+            return "OKAY";
+        else if( horseshoeValue == 1.0 )
+            return "GOOD";
+        else
+            return String.format( "ERROR, value = %6.2f", horseshoeValue);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void render() {
+        latest.copyTo(frame);
+
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            if (frame.bandVersions[b] == renderedBandVersions[b])
+                continue;
+            renderedBandVersions[b] = frame.bandVersions[b];
+
+            for (int c = 0; c < LatestValues.NUM_CHANNELS; c++) {
+                // a new packet mostly shows the same digits, only those that differ are set
+                int len = FixedFormat.format(scratch, frame.bands[b][c], 2, 6);
+                if (sameText(bandText[b][c], bandLength[b][c], len))
+                    continue;
+                // TextView keeps the char[], so each field has its own and it is only
+                // rewritten right before the next setText() on that field
+                System.arraycopy(scratch, 0, bandText[b][c], 0, len);
+                bandLength[b][c] = len;
+                bandViews[b][c].setText(bandText[b][c], 0, len);
+            }
+        }
+
+        if (frame.horseshoeVersion != renderedHorseshoeVersion) {
+            renderedHorseshoeVersion = frame.horseshoeVersion;
+            for (int c = 0; c < LatestValues.NUM_CHANNELS; c++) {
+                if (frame.horseshoe[c] == renderedHorseshoe[c])
+                    continue;
+                renderedHorseshoe[c] = frame.horseshoe[c];
+                horseshoeViews[c].setText(getHorseshoeString(frame.horseshoe[c]));
+            }
+        }
+
+        if (frame.batteryVersion != renderedBatteryVersion) {
+            renderedBatteryVersion = frame.batteryVersion;
+            int len = FixedFormat.format(scratch, frame.battery, 0, 6);
+            scratch[len++] = '%';
+            if (!sameText(batteryText, batteryLength, len)) {
+                System.arraycopy(scratch, 0, batteryText, 0, len);
+                batteryLength = len;
+                batteryView.setText(batteryText, 0, len);
+            }
+        }
+
+        if (frame.touchingForeheadVersion != renderedTouchingForeheadVersion) {
+            renderedTouchingForeheadVersion = frame.touchingForeheadVersion;
+            if (frame.touchingForehead != renderedTouchingForehead) {
+                renderedTouchingForehead = frame.touchingForehead;
+                touchingForeheadView.setText(frame.touchingForehead == 0 ? "NO" : "YES");
+            }
+        }
+
+        if (stats != null && ++statsFrames >= STATS_FRAMES) {
+            statsFrames = 0;
+            statsBuilder.setLength(0);
+            stats.appendSummary(statsBuilder);
+            int len = Math.min(statsBuilder.length(), statsText.length);
+            statsBuilder.getChars(0, len, statsText, 0);
+            statsView.setText(statsText, 0, len);
+        }
+    }
+
+    // True if the len chars just formatted into scratch are what text already shows
+    private boolean sameText(char[] text, int shownLength, int len) {
+        if (shownLength != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (text[i] != scratch[i])
+                return false;
+        }
+        return true;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final int TEXT_SIZE = 32;       // more than any float we format with 2 decimals
+    private static final int STATS_FRAMES = (int) (1000 / FRAME_MS);
+
+    private LatestValues latest;
+    private final LatestValues frame = new LatestValues();      // UI thread's copy
+    private final Handler handler = new Handler();
+    private boolean running = false;
+
+    private final TextView[][] bandViews = new TextView[LatestValues.NUM_BANDS][LatestValues.NUM_CHANNELS];
+    private final char[][][] bandText = new char[LatestValues.NUM_BANDS][LatestValues.NUM_CHANNELS][];
+    private final int[][] bandLength = new int[LatestValues.NUM_BANDS][LatestValues.NUM_CHANNELS];
+    private final char[] scratch = new char[TEXT_SIZE];        // formatted here, compared to what is shown
+    private final TextView[] horseshoeViews = new TextView[LatestValues.NUM_CHANNELS];
+    private final TextView batteryView;
+    private final char[] batteryText = new char[TEXT_SIZE];
+    private int batteryLength = -1;
+    private final TextView touchingForeheadView;
+    private StreamStats stats = null;
+    private final TextView statsView;
+    private final StringBuilder statsBuilder = new StringBuilder(128);
+    private final char[] statsText = new char[128];
+    private int statsFrames = 0;
+
+    private final int[] renderedBandVersions = new int[LatestValues.NUM_BANDS];
+    private int renderedHorseshoeVersion = 0;
+    private final float[] renderedHorseshoe = new float[LatestValues.NUM_CHANNELS];
+    private int renderedBatteryVersion = 0;
+    private int renderedTouchingForeheadVersion = 0;
+    private int renderedTouchingForehead = -1;
+}
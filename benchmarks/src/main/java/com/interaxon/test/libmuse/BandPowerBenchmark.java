@@ -0,0 +1,67 @@
+package com.interaxon.test.libmuse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  BandPowerBenchmark
+ *
+ *  The on-device band power DSP: one 256-point power spectrum, one EEG frame at the default
+ *  hop of 5 (what the listener thread pays per frame on average), and a frame that completes
+ *  every hop (the worst case, 4 channels of FFT and band sums).
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class BandPowerBenchmark {
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < frames.length; i++) {
+            double t = i / 220.0;
+            for (int c = 0; c < 4; c++)
+                frames[i][c] = (float) (841 + 20 * Math.sin(2 * Math.PI * 10 * t + c) + 5 * Math.sin(2 * Math.PI * 22 * t));
+        }
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = frames[i][0] - 841;
+    }
+
+    @Benchmark
+    public double fft256() {
+        fft.powerSpectrum(samples, power);
+        return power[12];
+    }
+
+    @Benchmark
+    public boolean frameAtDefaultHop() {
+        return defaultHop.add(next());
+    }
+
+    @Benchmark
+    public boolean frameEveryHop() {
+        return everyFrame.add(next());
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private float[] next() {
+        index = (index + 1) & (frames.length - 1);
+        return frames[index];
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final float[][] frames = new float[1024][4];
+    private int index = 0;
+    private final RealFft fft = new RealFft(256);
+    private final double[] samples = new double[256];
+    private final double[] power = new double[129];
+    private final EegBandPowers defaultHop = new EegBandPowers("");
+    private final EegBandPowers everyFrame = new EegBandPowers("hop=1");
+}
@@ -0,0 +1,44 @@
+package com.interaxon.test.libmuse;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  BenchmarkRunner
+ *
+ *  Runs the benchmarks matching args[0] (all of them by default) twice, for ops/s and for
+ *  ns/op, both with the GC profiler so every result also has gc.alloc.rate.norm, the bytes
+ *  allocated per op. JSON results go to args[1] (build/jmh by default) to compare later runs
+ *  against.
+ */
+public class BenchmarkRunner {
+    //-------- PUBLIC FUNCTIONS --------/
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+        File resultDir = new File(args.length > 1 ? args[1] : "build/jmh");
+        resultDir.mkdirs();
+
+        run(include, Mode.Throughput, TimeUnit.SECONDS, new File(resultDir, "throughput.json"));
+        run(include, Mode.AverageTime, TimeUnit.NANOSECONDS, new File(resultDir, "average.json"));
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private static void run(String include, Mode mode, TimeUnit unit, File result) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(include)
+                .mode(mode)
+                .timeUnit(unit)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,120 @@
+package com.interaxon.test.libmuse;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ *  DispatchBenchmark
+ *
+ *  What the libmuse callback thread does per packet: switch on the packet type, copy the
+ *  values out of the boxed list and hand them to a running DevicePipeline. The switch mirrors
+ *  MusePacketSource.DataListener, which needs Android's Log and can't run here. Packets cycle
+ *  through the 5 bands, horseshoe and EEG.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class DispatchBenchmark {
+
+    @Setup
+    public void setup() throws Exception {
+        // a socket nobody reads, so the sender's writes succeed and go nowhere
+        receiver = DatagramChannel.open();
+        receiver.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+        StreamConfig config = new StreamConfig();
+        config.rawEegMode = true;
+        pipeline = new DevicePipeline("bench", "", "127.0.0.1", receiver.socket().getLocalPort(), config);
+        pipeline.start();
+
+        MuseDataPacketType[] types = {
+            MuseDataPacketType.ALPHA_ABSOLUTE, MuseDataPacketType.BETA_ABSOLUTE, MuseDataPacketType.DELTA_ABSOLUTE,
+            MuseDataPacketType.GAMMA_ABSOLUTE, MuseDataPacketType.THETA_ABSOLUTE, MuseDataPacketType.HORSESHOE,
+            MuseDataPacketType.EEG
+        };
+        packets = new MuseDataPacket[types.length];
+        for (int i = 0; i < types.length; i++) {
+            ArrayList<Double> data = new ArrayList<Double>();
+            for (int c = 0; c < 4; c++)
+                data.add(0.5 + 0.1 * c);
+            packets[i] = new MuseDataPacket(types[i], i, null, data);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pipeline.stop();
+        receiver.close();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        index = index + 1 == packets.length ? 0 : index + 1;
+        MuseDataPacket p = packets[index];
+
+        switch (p.getPacketType()) {
+            case ALPHA_ABSOLUTE:
+                updateBand(LatestValues.ALPHA, p.getValues());
+                break;
+            case BETA_ABSOLUTE:
+                updateBand(LatestValues.BETA, p.getValues());
+                break;
+            case DELTA_ABSOLUTE:
+                updateBand(LatestValues.DELTA, p.getValues());
+                break;
+            case GAMMA_ABSOLUTE:
+                updateBand(LatestValues.GAMMA, p.getValues());
+                break;
+            case THETA_ABSOLUTE:
+                updateBand(LatestValues.THETA, p.getValues());
+                break;
+            case HORSESHOE:
+                for (int i = 0; i < 4; i++)
+                    values[i] = p.getValues().get(i).floatValue();
+                pipeline.onHorseshoe(values);
+                break;
+            case EEG:
+                copyChannels(p.getValues());
+                pipeline.onEeg(values);
+                break;
+            default:
+                break;
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void copyChannels(final ArrayList<Double> data) {
+        values[0] = data.get(Eeg.TP9.ordinal()).floatValue();
+        values[1] = data.get(Eeg.FP1.ordinal()).floatValue();
+        values[2] = data.get(Eeg.FP2.ordinal()).floatValue();
+        values[3] = data.get(Eeg.TP10.ordinal()).floatValue();
+    }
+
+    private void updateBand(int band, final ArrayList<Double> data) {
+        copyChannels(data);
+        pipeline.onBand(band, values);
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private DatagramChannel receiver;
+    private DevicePipeline pipeline;
+    private MuseDataPacket[] packets;
+    private int index = 0;
+    private final float[] values = new float[4];
+}
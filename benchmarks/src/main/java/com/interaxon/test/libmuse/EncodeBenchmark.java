@@ -0,0 +1,69 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import oscP5.OscMessage;
+
+/**
+ *  EncodeBenchmark
+ *
+ *  Building the bytes of one OSC message, for a band (4 floats) and for touching_forehead
+ *  (1 int): oscP5's OscMessage and getBytes(), as sendOSCData() used to, against OscEncoder
+ *  and Quantizer writing into a reused direct buffer.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class EncodeBenchmark {
+
+    @Benchmark
+    public byte[] legacyOscMessage4Floats() {
+        OscMessage message = new OscMessage(OscAddresses.ALPHA_ABSOLUTE, new Object[0]);
+        for (int i = 0; i < 4; i++)
+            message.add(values[i]);
+        return message.getBytes();
+    }
+
+    @Benchmark
+    public byte[] legacyOscMessage1Int() {
+        OscMessage message = new OscMessage(OscAddresses.TOUCHING_FOREHEAD, new Object[0]);
+        message.add(1);
+        return message.getBytes();
+    }
+
+    @Benchmark
+    public int encoder4Floats() {
+        buf.clear();
+        OscEncoder.writeMessage(buf, OscAddresses.ALPHA_ABSOLUTE, values, 4);
+        return buf.position();
+    }
+
+    @Benchmark
+    public int encoder1Int() {
+        buf.clear();
+        OscEncoder.writeMessage(buf, OscAddresses.TOUCHING_FOREHEAD, 1);
+        return buf.position();
+    }
+
+    // what the sender does per band sample: prefix, rounding and encoding
+    @Benchmark
+    public int quantizer4FloatsWithPrefix() {
+        buf.clear();
+        round2.writeMessage(buf, "/0055DAB01234", OscAddresses.ALPHA_ABSOLUTE, values, 4);
+        return buf.position();
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final float[] values = { 0.8123f, 0.4567f, 0.6543f, 0.9012f };
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(OscSender.MAX_PACKET_SIZE);
+    private final Quantizer round2 = Quantizer.round(2);
+}
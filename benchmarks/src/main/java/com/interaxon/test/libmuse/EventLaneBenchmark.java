@@ -0,0 +1,132 @@
+package com.interaxon.test.libmuse;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  EventLaneBenchmark
+ *
+ *  How long a discrete event takes to reach a UDP receiver on 127.0.0.1 while raw EEG floods
+ *  the bulk ring. Each op queues load EEG frames, then one more sample, and waits until the
+ *  receiver has that sample:
+ *      eventBehindLoad   a blink edge, on the event lane
+ *      bandBehindLoad    an alpha band sample, in the bulk ring behind the EEG
+ *  What the op left in the socket is drained between ops, outside the measurement.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class EventLaneBenchmark {
+
+    @Param({ "0", "256" })
+    public int load;
+
+    @Setup
+    public void setup() throws Exception {
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setReceiveBufferSize(1 << 22);
+
+        // every band sample goes out, and no stats in between
+        StreamConfig config = new StreamConfig();
+        config.rawEegMode = true;
+        config.rateLimits = OscAddresses.ALPHA_ABSOLUTE + "=none";
+        config.statsPeriodMS = 0;
+        pipeline = new DevicePipeline("bench", "", "127.0.0.1", receiver.getLocalPort(), config);
+        pipeline.start();
+        pipeline.onArtifacts(true, false, false);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pipeline.stop();
+        receiver.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void drain() throws Exception {
+        receiver.setSoTimeout(DRAIN_TIMEOUT_MS);
+        try {
+            while (true)
+                receiver.receive(in);
+        } catch (SocketTimeoutException e) {
+            // nothing left
+        }
+        receiver.setSoTimeout(0);
+    }
+
+    @Benchmark
+    public void eventBehindLoad() throws Exception {
+        queueLoad();
+        blink = !blink;
+        pipeline.onArtifacts(true, blink, false);
+        receiveUntil(BLINK);
+    }
+
+    @Benchmark
+    public void bandBehindLoad() throws Exception {
+        queueLoad();
+        pipeline.onBand(LatestValues.ALPHA, values);
+        receiveUntil(ALPHA);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void queueLoad() {
+        for (int i = 0; i < load; i++)
+            pipeline.onEeg(frame);
+    }
+
+    // Blocks until a datagram starting with address arrives
+    private void receiveUntil(byte[] address) throws Exception {
+        while (true) {
+            in.setLength(buffer.length);
+            receiver.receive(in);
+            if (startsWith(address))
+                return;
+        }
+    }
+
+    private boolean startsWith(byte[] address) {
+        if (in.getLength() < address.length)
+            return false;
+        for (int i = 0; i < address.length; i++) {
+            if (buffer[i] != address[i])
+                return false;
+        }
+        return true;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final int DRAIN_TIMEOUT_MS = 5;
+    private static final byte[] BLINK = ascii(OscAddresses.BLINK);
+    private static final byte[] ALPHA = ascii(OscAddresses.ALPHA_ABSOLUTE);
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) s.charAt(i);
+        return bytes;
+    }
+
+    private final float[] values = { 0.81f, 0.45f, 0.65f, 0.90f };
+    private final float[] frame = { 841, 835, 850, 846 };
+    private final byte[] buffer = new byte[OscSender.MAX_PACKET_SIZE];
+    private final DatagramPacket in = new DatagramPacket(buffer, buffer.length);
+    private DatagramSocket receiver;
+    private DevicePipeline pipeline;
+    private boolean blink = false;
+}
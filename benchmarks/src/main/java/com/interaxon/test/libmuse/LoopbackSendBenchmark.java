@@ -0,0 +1,175 @@
+package com.interaxon.test.libmuse;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import netP5.NetAddress;
+import oscP5.OscMessage;
+import oscP5.OscP5;
+
+/**
+ *  LoopbackSendBenchmark
+ *
+ *  One band sample out over UDP or TCP to a receiver on 127.0.0.1:
+ *      legacyOscP5Flush      OscMessage and OscP5.flush(), what each old AsyncTask did
+ *      encoderChannelWrite   OscEncoder into a direct buffer and a connected DatagramChannel
+ *      udpDestinationWrite   the same through an OscDestination
+ *      tcpDestinationWrite   the same through an OscTcpDestination, SLIP framed and flushed
+ *      pipelineRoundTrip     DevicePipeline.onBand() until the receiver has the datagram, i.e.
+ *                            ring, sender thread, rate check, quantizer, encode and socket
+ *      tcpPipelineRoundTrip  the same with transport "tcp", until the receiver has the frame
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class LoopbackSendBenchmark {
+
+    @Setup
+    public void setup() throws Exception {
+        receiver = DatagramChannel.open();
+        receiver.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        receiver.socket().setReceiveBufferSize(1 << 20);
+        int port = receiver.socket().getLocalPort();
+
+        legacyAddress = new NetAddress("127.0.0.1", port);
+        channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress("127.0.0.1", port));
+        udpDestination = new OscDestination(OscDestination.Kind.UNICAST, "127.0.0.1", port);
+        udpDestination.open();
+
+        // every sample goes out, so each onBand() is one datagram, and no stats in between
+        StreamConfig config = new StreamConfig();
+        config.rateLimits = OscAddresses.ALPHA_ABSOLUTE + "=none";
+        config.statsPeriodMS = 0;
+        pipeline = new DevicePipeline("bench", "", "127.0.0.1", port, config);
+        pipeline.start();
+
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        int tcpPort = server.socket().getLocalPort();
+        tcpDestination = new OscTcpDestination(OscTcpDestination.Framing.SLIP, "127.0.0.1", tcpPort);
+        tcpDestination.open();
+        tcpReceiver = server.accept();
+        config.transport = "tcp";
+        tcpPipeline = new DevicePipeline("bench", "", "127.0.0.1", tcpPort, config);
+        tcpPipeline.start();
+        tcpPipelineReceiver = server.accept();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pipeline.stop();
+        tcpPipeline.stop();
+        udpDestination.close();
+        tcpDestination.close();
+        tcpReceiver.close();
+        tcpPipelineReceiver.close();
+        server.close();
+        channel.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public void legacyOscP5Flush() throws Exception {
+        OscMessage message = new OscMessage(OscAddresses.ALPHA_ABSOLUTE, new Object[0]);
+        for (int i = 0; i < 4; i++)
+            message.add(values[i]);
+        OscP5.flush(message, legacyAddress);
+        drain();
+    }
+
+    @Benchmark
+    public void encoderChannelWrite() throws Exception {
+        out.clear();
+        OscEncoder.writeMessage(out, OscAddresses.ALPHA_ABSOLUTE, values, 4);
+        out.flip();
+        channel.write(out);
+        drain();
+    }
+
+    @Benchmark
+    public void udpDestinationWrite() throws Exception {
+        out.clear();
+        OscEncoder.writeMessage(out, OscAddresses.ALPHA_ABSOLUTE, values, 4);
+        out.flip();
+        long now = System.nanoTime();
+        udpDestination.write(out, now);
+        udpDestination.flush(now);
+        drain();
+    }
+
+    @Benchmark
+    public void tcpDestinationWrite() throws Exception {
+        out.clear();
+        OscEncoder.writeMessage(out, OscAddresses.ALPHA_ABSOLUTE, values, 4);
+        out.flip();
+        long now = System.nanoTime();
+        tcpDestination.write(out, now);
+        tcpDestination.flush(now);
+        receiveFrame(tcpReceiver);
+    }
+
+    @Benchmark
+    public void pipelineRoundTrip() throws Exception {
+        pipeline.onBand(LatestValues.ALPHA, values);
+        in.clear();
+        receiver.receive(in);           // blocks until the sender thread's datagram arrives
+    }
+
+    @Benchmark
+    public void tcpPipelineRoundTrip() throws Exception {
+        tcpPipeline.onBand(LatestValues.ALPHA, values);
+        receiveFrame(tcpPipelineReceiver);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // read what we sent so the receive buffer never fills
+    private void drain() throws Exception {
+        in.clear();
+        receiver.receive(in);
+    }
+
+    // Blocks until a whole SLIP frame (an END before and after) has arrived. A read can end
+    // mid-frame, so ENDs are counted across calls
+    private void receiveFrame(SocketChannel from) throws Exception {
+        while (ends < 2) {
+            in.clear();
+            from.read(in);
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) == (byte) 0xC0)
+                    ends++;
+            }
+        }
+        ends -= 2;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final float[] values = { 0.81f, 0.45f, 0.65f, 0.90f };
+    private final ByteBuffer out = ByteBuffer.allocateDirect(OscSender.MAX_PACKET_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(OscSender.MAX_PACKET_SIZE);
+    private DatagramChannel receiver;
+    private DatagramChannel channel;
+    private NetAddress legacyAddress;
+    private DevicePipeline pipeline;
+    private OscDestination udpDestination;
+    private OscTcpDestination tcpDestination;
+    private ServerSocketChannel server;
+    private SocketChannel tcpReceiver;
+    private DevicePipeline tcpPipeline;
+    private SocketChannel tcpPipelineReceiver;
+    private int ends = 0;               // SLIP ENDs read but not yet counted as a frame
+}
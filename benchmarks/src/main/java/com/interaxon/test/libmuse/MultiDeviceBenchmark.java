@@ -0,0 +1,112 @@
+package com.interaxon.test.libmuse;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  MultiDeviceBenchmark
+ *
+ *  Raw EEG from several devices at once, each through its own DevicePipeline (and so its own
+ *  sender thread and batching) to its own UDP receiver on 127.0.0.1. Each op hands every
+ *  device a burst of BURST frames, the way libmuse delivers them, and waits until every
+ *  sender has sent all of them in its bundles; frames/s is ops/s * BURST * devices.
+ *
+ *  At the end of each trial every device's end-to-end latency (received by the pipeline to
+ *  written to the socket, warm-up included) is printed as "devices=N device=i p50=..us
+ *  p99=..us", the figures the multi-device change was measured with. Run with
+ *      gradle :benchmarks:jmh -Pinclude=MultiDeviceBenchmark
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class MultiDeviceBenchmark {
+    public static final int BURST = 12;
+
+    @Param({ "1", "2", "4", "6" })
+    public int devices;
+
+    @Setup
+    public void setup() throws Exception {
+        receivers = new DatagramChannel[devices];
+        pipelines = new DevicePipeline[devices];
+        expected = new long[devices];
+        for (int d = 0; d < devices; d++) {
+            receivers[d] = DatagramChannel.open();
+            receivers[d].socket().setReceiveBufferSize(1 << 22);
+            receivers[d].socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            receivers[d].configureBlocking(false);
+
+            StreamConfig config = new StreamConfig();
+            config.rawEegMode = true;
+            config.statsPeriodMS = 0;
+            pipelines[d] = new DevicePipeline("bench" + d, "", "127.0.0.1", receivers[d].socket().getLocalPort(), config);
+            pipelines[d].start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (int d = 0; d < devices; d++) {
+            pipelines[d].stop();
+            receivers[d].close();
+
+            LatencyStats e2e = pipelines[d].getStats().getLatency(StreamStats.E2E);
+            System.out.println("devices=" + devices + " device=" + d +
+                               " p50=" + e2e.getPercentile(0.5) / 1000 + "us" +
+                               " p99=" + e2e.getPercentile(0.99) / 1000 + "us");
+        }
+    }
+
+    @Benchmark
+    public void eegBursts() throws Exception {
+        for (int d = 0; d < devices; d++) {
+            for (int i = 0; i < BURST; i++)
+                pipelines[d].onEeg(frame);
+            expected[d] += BURST;
+        }
+
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        for (int d = 0; d < devices; d++) {
+            OscSender sender = pipelines[d].getSender();
+            while (sender.getBatchedCount() < expected[d]) {
+                drain();
+                if (System.nanoTime() > deadline)
+                    throw new IllegalStateException("device " + d + " sent " + sender.getBatchedCount() + " of " + expected[d]);
+                Thread.yield();
+            }
+        }
+        drain();
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // read what was sent so no receive buffer fills up
+    private void drain() throws Exception {
+        for (int d = 0; d < devices; d++) {
+            in.clear();
+            while (receivers[d].receive(in) != null)
+                in.clear();
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long TIMEOUT_NANOS = 1000000000L;
+
+    private final float[] frame = { 841, 835, 850, 846 };
+    private final ByteBuffer in = ByteBuffer.allocateDirect(OscSender.MAX_PACKET_SIZE);
+    private DatagramChannel[] receivers;
+    private DevicePipeline[] pipelines;
+    private long[] expected;                // frames each sender has to have sent
+}
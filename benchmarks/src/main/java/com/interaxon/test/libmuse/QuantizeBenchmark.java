@@ -0,0 +1,59 @@
+package com.interaxon.test.libmuse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  QuantizeBenchmark
+ *
+ *  Rounding one band power to 2 decimals: the String.format()/Float.valueOf() round trip the
+ *  listener used to do (generateFloatFromEEG) against the Quantizer that replaced it.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class QuantizeBenchmark {
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < values.length; i++)
+            values[i] = Math.sin(i) * 2;
+    }
+
+    // the old MainActivity.DataListener.generateFloatFromEEG()
+    @Benchmark
+    public float legacyStringFormat() {
+        String s = String.format("%6.2f", next());
+        return Float.valueOf(s);
+    }
+
+    @Benchmark
+    public float quantizerRound() {
+        return round2.toRounded((float) next());
+    }
+
+    @Benchmark
+    public int quantizerInt16() {
+        return int16.toInt16((float) next());
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private double next() {
+        index = (index + 1) & (values.length - 1);
+        return values[index];
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final double[] values = new double[1024];
+    private int index = 0;
+    private final Quantizer round2 = Quantizer.round(2);
+    private final Quantizer int16 = Quantizer.parse("int16:1000");
+}
@@ -0,0 +1,78 @@
+package com.interaxon.test.libmuse;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  RateGateBenchmark
+ *
+ *  Deciding whether a band sample goes out: the old per-band Timer.expired()/start() check
+ *  against RateController.admit() with the policies the pipeline uses.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class RateGateBenchmark {
+
+    @Setup
+    public void setup() {
+        rates = new RateController(4);
+        rates.set(OscAddresses.ALPHA_ABSOLUTE, "latest:5");
+        rates.set(OscAddresses.BETA_ABSOLUTE, "max:5");
+        rates.set(OscAddresses.DELTA_ABSOLUTE, "bucket:5:10");
+        rates.set(OscAddresses.EEG, "none");
+
+        sample = new Sample(4);
+        timer = new Timer(200);
+        timer.start();
+    }
+
+    // the old updateAlphaAbsolute() gate
+    @Benchmark
+    public boolean legacyTimer() {
+        if (timer.expired() == false)
+            return false;
+        timer.start();
+        return true;
+    }
+
+    @Benchmark
+    public boolean rateLatest() {
+        return admit(OscAddresses.ALPHA_ABSOLUTE);
+    }
+
+    @Benchmark
+    public boolean rateMax() {
+        return admit(OscAddresses.BETA_ABSOLUTE);
+    }
+
+    @Benchmark
+    public boolean rateBucket() {
+        return admit(OscAddresses.DELTA_ABSOLUTE);
+    }
+
+    @Benchmark
+    public boolean rateNone() {
+        return admit(OscAddresses.EEG);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private boolean admit(String address) {
+        sample.setFloats(address, values, 4);
+        return rates.admit(sample, System.nanoTime());
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final float[] values = { 0.81f, 0.45f, 0.65f, 0.90f };
+    private RateController rates;
+    private Sample sample;
+    private Timer timer;
+}
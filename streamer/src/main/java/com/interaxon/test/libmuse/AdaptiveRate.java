@@ -0,0 +1,93 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  AdaptiveRate
+ *
+ *  Scales the RateController's rates to what the network currently takes. The sender reports
+ *  its health once per control period: how full the ring is, how long a datagram took to write
+ *  and how many writes the sockets refused or nobody took. Any sign of congestion halves the
+ *  scale at once; after RECOVER_PERIODS healthy periods in a row it grows back by a tenth, up to
+ *  the configured rates (scale 1). A rate limited stream never goes below floor Hz, or its own
+ *  rate if that is lower.
+ *
+ *  Freshness wins over completeness: samples that waited longer than stale in the ring are
+ *  dropped rather than sent late, whatever the scale.
+ *
+ *  Specs are "key=value" pairs separated by ';', e.g. "floor=1;depth=0.25;send=2"
+ *      floor       lowest rate in Hz scaling takes a stream down to
+ *      period      control period in ms
+ *      depth       ring fill (0..1) that counts as congested
+ *      send        mean ms per datagram write that counts as congested
+ *      stale       ms after which a waiting sample is dropped, 0 to never drop
+ *
+ *  Used by the sender thread only, the getters may be called from anywhere.
+ */
+public class AdaptiveRate {
+    public static final String DEFAULT_SPEC = "floor=1;period=250;depth=0.25;send=2;stale=500";
+    public static final int RECOVER_PERIODS = 4;
+    public static final double MIN_SCALE = 0.01;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public AdaptiveRate(String spec) {
+        double[] values = parseSpec(spec);
+        floorHz = values[FLOOR];
+        periodNanos = (long) (values[PERIOD] * 1000000L);
+        depthLimit = values[DEPTH];
+        sendLimitNanos = (long) (values[SEND] * 1000000L);
+        staleNanos = values[STALE] == 0 ? Long.MAX_VALUE : (long) (values[STALE] * 1000000L);
+    }
+
+    // Throws IllegalArgumentException if the constructor wouldn't take spec
+    public static void validate(String spec) {
+        parseSpec(spec);
+    }
+
+    public double getFloorHz() { return floorHz; }
+    public long getPeriodNanos() { return periodNanos; }
+    public long getStaleNanos() { return staleNanos; }
+    public double getScale() { return scale; }
+    public long getDecreaseCount() { return decreases; }
+    public long getIncreaseCount() { return increases; }
+
+    // One control period's health, returns the scale for the next one
+    public double update(int depth, int capacity, long meanSendNanos, long refused) {
+        boolean congested = depth > depthLimit * capacity || meanSendNanos > sendLimitNanos || refused > 0;
+        if (congested) {
+            healthy = 0;
+            if (scale > MIN_SCALE) {
+                scale = Math.max(MIN_SCALE, scale * 0.5);
+                decreases++;
+            }
+        }
+        else if (++healthy >= RECOVER_PERIODS && scale < 1) {
+            healthy = 0;
+            scale = Math.min(1, scale + 0.1);
+            increases++;
+        }
+        return scale;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // The DEFAULT_SPEC values with spec's on top, in KEYS order
+    private static double[] parseSpec(String spec) {
+        double[] values = KeyValueSpec.parse("adaptive rate", KEYS, DEFAULT_SPEC, spec);
+        if (values[PERIOD] == 0)
+            throw new IllegalArgumentException("adaptive rate period has to be > 0: " + spec);
+        return values;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final String[] KEYS = { "floor", "period", "depth", "send", "stale" };
+    private static final int FLOOR = 0, PERIOD = 1, DEPTH = 2, SEND = 3, STALE = 4;
+
+    private final double floorHz;
+    private final long periodNanos;
+    private final double depthLimit;
+    private final long sendLimitNanos;
+    private final long staleNanos;
+
+    private volatile double scale = 1;
+    private int healthy = 0;                // healthy periods in a row
+    private volatile long decreases = 0;
+    private volatile long increases = 0;
+}
@@ -0,0 +1,166 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  ClockSync
+ *
+ *  The receiver's clock as seen from ours, so the timetags we send are in the receiver's time
+ *  and samples from several tablets line up there. NTP-style: the sender sends
+ *  /streamer/sync t with our time t1, the receiver answers to PORT_IN with /streamer/sync ttt
+ *  (t1 as it came, t2 when it got the request, t3 when it answered, all NTP timetags), and t4 is
+ *  when the answer got back to us:
+ *      offset = ((t2 - t1) + (t3 - t4)) / 2        delay = (t4 - t1) - (t3 - t2)
+ *
+ *  Of the last FILTER_SIZE exchanges the one with the smallest delay is trusted, queuing only
+ *  makes an exchange slower and its offset worse. Drift is the slope between trusted offsets
+ *  at least DRIFT_SPAN_NANOS apart, averaged, and carries the offset forward between exchanges.
+ *  Until a receiver answers, the offset stays 0 and timetags are our own wall clock.
+ *
+ *  Our time is System.nanoTime() anchored to System.currentTimeMillis() once, so a wall clock
+ *  change can't make timetags jump. Requests come from the sender thread, answers from the
+ *  control thread, the estimate is swapped in as one immutable object.
+ */
+public class ClockSync {
+    public static final int FILTER_SIZE = 8;
+    public static final long DRIFT_SPAN_NANOS = 60000000000L;
+    public static final double MAX_DRIFT = 0.0005;          // 500 ppm, anything more is noise
+    public static final long DEFAULT_PERIOD_MS = 2000;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public ClockSync() {
+        this(System.nanoTime(), System.currentTimeMillis() * 1000000L);
+    }
+
+    // Our clock as anchorWallNanos (since 1970) at nanoTime() anchorNanos
+    public ClockSync(long _anchorNanos, long _anchorWallNanos) {
+        anchorNanos = _anchorNanos;
+        anchorWallNanos = _anchorWallNanos;
+    }
+
+    // Our wall clock time for a nanoTime(), in nanos since 1970
+    public long toWallNanos(long nanos) {
+        return anchorWallNanos + (nanos - anchorNanos);
+    }
+
+    // The receiver's time for a nanoTime(), in nanos since 1970
+    public long toReceiverNanos(long nanos) {
+        Estimate e = estimate;
+        return toWallNanos(nanos) + e.offsetNanos + (long) (e.drift * (nanos - e.atNanos));
+    }
+
+    public long toTimetag(long nanos) {
+        return OscEncoder.toTimetagNanos(toReceiverNanos(nanos));
+    }
+
+    // t1 for a new request sent at nanoTime() now, remembered so the answer can be matched
+    public synchronized long newRequest(long now) {
+        long t1 = OscEncoder.toTimetagNanos(toWallNanos(now));
+        pending[nextPending] = t1;
+        pendingNanos[nextPending] = now;
+        nextPending = (nextPending + 1) % pending.length;
+        requests++;
+        return t1;
+    }
+
+    // An answer that arrived at nanoTime() now, false if it isn't to one of our requests
+    public synchronized boolean onReply(long t1, long t2, long t3, long now) {
+        int request = -1;
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] == t1 && t1 != 0)
+                request = i;
+        }
+        if (request < 0)
+            return false;
+        pending[request] = 0;
+
+        // timetags aren't exact to the nanosecond, t1 is taken from our own records
+        long sentNanos = pendingNanos[request];
+        long t1Nanos = toWallNanos(sentNanos);
+        long t2Nanos = OscEncoder.fromTimetagNanos(t2);
+        long t3Nanos = OscEncoder.fromTimetagNanos(t3);
+        long t4Nanos = toWallNanos(now);
+        long delay = (t4Nanos - t1Nanos) - (t3Nanos - t2Nanos);
+        if (delay < 0)
+            return false;
+
+        int slot = (int) (replies % FILTER_SIZE);
+        offsets[slot] = ((t2Nanos - t1Nanos) + (t3Nanos - t4Nanos)) / 2;
+        delays[slot] = delay;
+        times[slot] = sentNanos + (now - sentNanos) / 2;
+        replies++;
+
+        int best = 0;
+        int filled = (int) Math.min(replies, FILTER_SIZE);
+        for (int i = 1; i < filled; i++) {
+            if (delays[i] < delays[best])
+                best = i;
+        }
+        update(offsets[best], times[best], delays[best]);
+        return true;
+    }
+
+    public boolean isSynced() { return replies > 0; }
+    public long getOffsetNanos() { return estimate.offsetNanos; }
+    public double getDrift() { return estimate.drift; }
+    public long getDelayNanos() { return estimate.delayNanos; }
+    public long getRequestCount() { return requests; }
+    public long getReplyCount() { return replies; }
+
+    @Override
+    public String toString() {
+        Estimate e = estimate;
+        return "clock offset=" + e.offsetNanos / 1000 + "us drift=" + Math.round(e.drift * 1e9) / 1000.0 + "ppm" +
+                " delay=" + e.delayNanos / 1000 + "us replies=" + replies + "/" + requests;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void update(long offset, long at, long delay) {
+        double drift = estimate.drift;
+        if (driftAtNanos == 0) {
+            driftAtNanos = at;
+            driftOffset = offset;
+        }
+        else if (at - driftAtNanos >= DRIFT_SPAN_NANOS) {
+            double slope = (double) (offset - driftOffset) / (at - driftAtNanos);
+            slope = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, slope));
+            drift = driftSpans == 0 ? slope : drift + (slope - drift) / 4;
+            driftSpans++;
+            driftAtNanos = at;
+            driftOffset = offset;
+        }
+        estimate = new Estimate(offset, at, drift, delay);
+    }
+
+    //-------- PRIVATE CLASSES --------/
+    private static class Estimate {
+        final long offsetNanos;     // receiver minus us, at atNanos
+        final long atNanos;
+        final double drift;         // change of the offset per nanosecond
+        final long delayNanos;      // round trip of the exchange it came from
+
+        Estimate(long _offsetNanos, long _atNanos, double _drift, long _delayNanos) {
+            offsetNanos = _offsetNanos;
+            atNanos = _atNanos;
+            drift = _drift;
+            delayNanos = _delayNanos;
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final long anchorNanos;
+    private final long anchorWallNanos;
+    private volatile Estimate estimate = new Estimate(0, 0, 0, 0);
+
+    private final long[] pending = new long[FILTER_SIZE];      // t1 of requests not answered yet
+    private final long[] pendingNanos = new long[FILTER_SIZE];
+    private int nextPending = 0;
+
+    private final long[] offsets = new long[FILTER_SIZE];
+    private final long[] delays = new long[FILTER_SIZE];
+    private final long[] times = new long[FILTER_SIZE];
+    private long driftAtNanos = 0;
+    private long driftOffset = 0;
+    private int driftSpans = 0;
+
+    private volatile long requests = 0;
+    private volatile long replies = 0;
+}
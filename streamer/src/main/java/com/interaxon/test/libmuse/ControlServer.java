@@ -0,0 +1,212 @@
+package com.interaxon.test.libmuse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ *  ControlServer
+ *
+ *  OSC control messages on PORT_IN, so a receiver can ask for only what it uses. Each command
+ *  goes to every pipeline, or to one if its address starts with that pipeline's device prefix
+ *  (e.g. /0055DAB01234/streamer/pause):
+ *
+ *      /streamer/subscribe s...        subscribe to these addresses or patterns ("/muse/eeg",
+ *      /streamer/unsubscribe s...      "/muse/elements/*", "*"), see Subscriptions
+ *      /streamer/rate ss               an address and its RateController spec, e.g. "latest:5"
+ *      /streamer/pause                 stop and start the headsets' data transmission
+ *      /streamer/resume
+ *      /streamer/status                answered to the sender, one /streamer/status ssii per
+ *                                      pipeline: device id, subscriptions, paused, datagrams sent
+ *      /streamer/sync ttt              a receiver's answer to a clock sync request, see ClockSync
+ *
+ *  A malformed message, an unknown command or a command that throws is counted and logged,
+ *  nothing else, and the server goes on to the next one. Everything runs on the server's own
+ *  thread; pausing is left to the Callback, which knows the headsets.
+ */
+public class ControlServer implements Runnable {
+    public static final String SUBSCRIBE = "/streamer/subscribe";
+    public static final String UNSUBSCRIBE = "/streamer/unsubscribe";
+    public static final String RATE = "/streamer/rate";
+    public static final String PAUSE = "/streamer/pause";
+    public static final String RESUME = "/streamer/resume";
+    public static final String STATUS = "/streamer/status";
+    public static final String SYNC = OscAddresses.STREAMER_SYNC;
+
+    public interface Callback {
+        // called on the server's thread
+        void setDataTransmission(boolean on);
+    }
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public ControlServer(int _port, Callback _callback) {
+        port = _port;
+        callback = _callback;
+        in = ByteBuffer.allocate(OscSender.MAX_PACKET_SIZE);
+        out = ByteBuffer.allocate(OscSender.MAX_PACKET_SIZE);
+    }
+
+    // Binds the port, throws if it is taken
+    public void start() throws IOException {
+        channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(port));
+        running = true;
+        thread = new Thread(this, "ControlServer " + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (channel != null) {
+            try {
+                // wakes the blocked receive()
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    // The pipelines commands go to, replaced on every connect
+    public void setPipelines(DevicePipeline[] _pipelines) {
+        pipelines = _pipelines;
+    }
+
+    // For the status replies when the headsets are paused some other way
+    public void setPaused(boolean _paused) {
+        paused = _paused;
+    }
+
+    public int getPort() { return port; }
+    public boolean isPaused() { return paused; }
+    public long getCommandCount() { return commands; }
+    public long getRejectedCount() { return rejected; }
+
+    @Override
+    public void run() {
+        while (running) {
+            SocketAddress from;
+            long received;
+            try {
+                in.clear();
+                from = channel.receive(in);
+                received = System.nanoTime();
+            } catch (IOException e) {
+                if (running)
+                    System.out.println("ControlServer: stopped on port " + port + " " + e);
+                break;
+            }
+            in.flip();
+            try {
+                OscDecoder.Message message = OscDecoder.readMessage(in);
+                if (message == null)
+                    throw new IllegalArgumentException("bundles aren't supported");
+                handle(message, from, received);
+                commands++;
+            } catch (IllegalArgumentException e) {
+                rejected++;
+                System.out.println("ControlServer: rejected message from " + from + ", " + e.getMessage());
+            } catch (RuntimeException e) {
+                // a bug or a callback that failed, losing the control port over it is worse
+                rejected++;
+                System.out.println("ControlServer: failed message from " + from + ", " + e);
+            }
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void handle(OscDecoder.Message message, SocketAddress from, long received) {
+        String address = message.address;
+        int command = address.indexOf("/streamer/");
+        if (command < 0)
+            throw new IllegalArgumentException("unknown command: " + address);
+        String target = address.substring(0, command);
+        String name = address.substring(command);
+
+        if (name.equals(PAUSE) || name.equals(RESUME)) {
+            // the headsets share one switch, same as the pause button
+            paused = name.equals(PAUSE);
+            if (callback != null)
+                callback.setDataTransmission(!paused);
+            return;
+        }
+
+        boolean known = false;
+        DevicePipeline[] list = pipelines;
+        for (DevicePipeline pipeline : list) {
+            if (target.length() > 0 && !target.equals(pipeline.getAddressPrefix()))
+                continue;
+
+            if (name.equals(SUBSCRIBE) || name.equals(UNSUBSCRIBE)) {
+                Subscriptions subscriptions = pipeline.getSubscriptions();
+                for (int i = 0; i < message.size(); i++) {
+                    if (name.equals(SUBSCRIBE))
+                        subscriptions.subscribe(message.getString(i));
+                    else
+                        subscriptions.unsubscribe(message.getString(i));
+                }
+                System.out.println("ControlServer: " + pipeline.getDeviceId() + " subscribed to " + subscriptions);
+            }
+            else if (name.equals(RATE)) {
+                if (message.size() < 2)
+                    throw new IllegalArgumentException(RATE + " needs an address and a spec");
+                pipeline.getSender().setRate(message.getString(0), message.getString(1));
+            }
+            else if (name.equals(STATUS)) {
+                sendStatus(pipeline, from);
+            }
+            else if (name.equals(SYNC)) {
+                // every pipeline without a prefix gets it, only the one that asked knows its t1
+                pipeline.getClock().onReply(message.getLong(0), message.getLong(1), message.getLong(2), received);
+            }
+            else {
+                throw new IllegalArgumentException("unknown command: " + address);
+            }
+            known = true;
+        }
+        if (!known && target.length() > 0)
+            throw new IllegalArgumentException("no device " + target);
+    }
+
+    private void sendStatus(DevicePipeline pipeline, SocketAddress to) {
+        out.clear();
+        OscEncoder.writeAddress(out, pipeline.getAddressPrefix(), STATUS);
+        OscEncoder.writeTypeTags(out, "ssii");
+        OscEncoder.writeString(out, pipeline.getDeviceId());
+        OscEncoder.writeString(out, pipeline.getSubscriptions().toString());
+        out.putInt(paused ? 1 : 0);
+        out.putInt((int) pipeline.getSender().getSentCount());
+        out.flip();
+        try {
+            channel.send(out, to);
+        } catch (IOException e) {
+            System.out.println("ControlServer: can't answer " + to + " " + e);
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final int port;
+    private final Callback callback;
+    private final ByteBuffer in;
+    private final ByteBuffer out;
+    private DatagramChannel channel;
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile DevicePipeline[] pipelines = new DevicePipeline[0];
+
+    // only written by the server thread
+    private volatile long commands = 0;
+    private volatile long rejected = 0;
+}
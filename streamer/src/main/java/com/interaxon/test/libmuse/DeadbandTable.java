@@ -0,0 +1,173 @@
+package com.interaxon.test.libmuse;
+
+import java.util.HashMap;
+
+/**
+ *  DeadbandTable
+ *
+ *  Per-address change detection on the sender thread: a sample is only sent if one of its
+ *  values moved more than the address's threshold away from the last one sent, or if nothing
+ *  was sent for keepAlive so receivers still see the stream is alive. Suppressed messages, and
+ *  the bytes they would have taken as datagrams of their own, are counted.
+ *
+ *      ABSOLUTE - |value - last| > threshold, 0 sends every change and no repeats
+ *      RELATIVE - |value - last| > threshold * |last|
+ *
+ *  Specs are written "abs:0.01", "rel:0.05" or with a keep-alive in ms, "abs:0:5000"; "none"
+ *  removes an address's deadband. parse() reads the DEADBANDS preference, "address=spec" pairs
+ *  separated by ';'.
+ */
+public class DeadbandTable {
+    public enum Mode { ABSOLUTE, RELATIVE }
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public DeadbandTable(int _maxValues, String _prefix) {
+        maxValues = _maxValues;
+        prefix = _prefix;
+    }
+
+    public void set(String address, String spec) {
+        Band band = new Band(maxValues);
+        if (parseSpec(spec, band))
+            table.put(address, band);
+        else
+            table.remove(address);
+    }
+
+    public void parse(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq < 0)
+                continue;
+            set(entry.substring(0, eq).trim(), entry.substring(eq + 1));
+        }
+    }
+
+    // Throws IllegalArgumentException if parse() wouldn't take config
+    public static void validateConfig(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq >= 0)
+                parseSpec(entry.substring(eq + 1), null);
+        }
+    }
+
+    // True if the sample should be sent, which makes it the one later samples are compared to
+    public boolean admit(Sample sample, long now) {
+        keepAlive = false;
+        if (table.isEmpty())
+            return true;
+        Band band = table.get(sample.address);
+        if (band == null)
+            return true;
+
+        boolean changed = !band.sentOnce || band.moved(sample);
+        if (changed || now - band.lastSent >= band.keepAliveNanos) {
+            keepAlive = !changed;
+            band.last.copyFrom(sample);
+            band.sentOnce = true;
+            band.lastSent = now;
+            return true;
+        }
+
+        band.suppressed++;
+        savedMessages++;
+        savedBytes += OscEncoder.messageSize(prefix, sample.address, sample.isInt ? 1 : sample.count);
+        return false;
+    }
+
+    // True if the last sample admit() let through only went because its keep-alive was due, so
+    // a bundler that only sends changes has to send it anyway
+    public boolean wasKeepAlive() { return keepAlive; }
+
+    public long getSuppressedCount(String address) {
+        Band band = table.get(address);
+        return band != null ? band.suppressed : 0;
+    }
+
+    public long getSavedMessages() { return savedMessages; }
+    public long getSavedBytes() { return savedBytes; }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // Checks spec and, unless band is null, sets band up with it. False for "none"
+    private static boolean parseSpec(String spec, Band band) {
+        String[] parts = spec.trim().split(":");
+        String name = parts[0].trim().toLowerCase();
+        if (name.equals("none"))
+            return false;
+
+        Mode mode;
+        if (name.equals("abs"))
+            mode = Mode.ABSOLUTE;
+        else if (name.equals("rel"))
+            mode = Mode.RELATIVE;
+        else
+            throw new IllegalArgumentException("unknown deadband: " + spec);
+        if (parts.length < 2)
+            throw new IllegalArgumentException("missing threshold: " + spec);
+        double threshold = Double.parseDouble(parts[1].trim());
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold has to be >= 0: " + spec);
+        long keepAliveNanos = Long.MAX_VALUE;
+        if (parts.length > 2) {
+            long keepAliveMS = Long.parseLong(parts[2].trim());
+            if (keepAliveMS <= 0)
+                throw new IllegalArgumentException("keep-alive has to be > 0: " + spec);
+            keepAliveNanos = keepAliveMS * 1000000L;
+        }
+
+        if (band != null) {
+            band.mode = mode;
+            band.threshold = threshold;
+            band.keepAliveNanos = keepAliveNanos;
+        }
+        return true;
+    }
+
+    //-------- PRIVATE CLASSES --------/
+    private static class Band {
+        Band(int maxValues) {
+            last = new Sample(maxValues);
+        }
+
+        boolean moved(Sample sample) {
+            if (sample.isInt != last.isInt || sample.count != last.count)
+                return true;
+            if (sample.isInt)
+                return exceeds(sample.intValue, last.intValue);
+            for (int i = 0; i < sample.count; i++) {
+                if (exceeds(sample.values[i], last.values[i]))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean exceeds(double value, double previous) {
+            double limit = mode == Mode.RELATIVE ? threshold * Math.abs(previous) : threshold;
+            // NaN never compares, so it counts as a change
+            return !(Math.abs(value - previous) <= limit);
+        }
+
+        Mode mode = Mode.ABSOLUTE;
+        double threshold = 0;
+        long keepAliveNanos = Long.MAX_VALUE;
+        final Sample last;
+        boolean sentOnce = false;
+        long lastSent = 0;
+        volatile long suppressed = 0;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final int maxValues;
+    private final String prefix;
+    private final HashMap<String, Band> table = new HashMap<String, Band>();
+    private boolean keepAlive = false;
+
+    // only written by the sender thread
+    private volatile long savedMessages = 0;
+    private volatile long savedBytes = 0;
+}
@@ -0,0 +1,88 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  DerivedMetrics
+ *
+ *  What every receiver used to work out for itself from the band powers, worked out once on
+ *  the tablet: relative band powers (a band's power over the sum of all five), the alpha/theta
+ *  and beta/alpha ratios per channel, and each band's mean over the four channels.
+ *
+ *  Band values come in on the log10 scale libmuse and EegBandPowers use, and are kept as linear
+ *  powers so the relative values and ratios are of powers, like libmuse's *_RELATIVE. Each
+ *  setBand() only updates that band and the channels' totals; the getters compute just what
+ *  was asked for into arrays owned by this instance, so nothing is allocated. Used by one
+ *  thread only (the pipeline's listener thread).
+ */
+public class DerivedMetrics {
+    public static final int ALPHA_THETA = 0;
+    public static final int BETA_ALPHA = 1;
+    public static final int NUM_RATIOS = 2;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    // band is LatestValues.ALPHA ... THETA, values holds the 4 channels as log10 powers
+    public void setBand(int band, float[] values) {
+        for (int c = 0; c < NUM_CHANNELS; c++) {
+            powers[band][c] = Math.pow(10, values[c]);
+            logValues[band][c] = values[c];
+        }
+        seen |= 1 << band;
+
+        for (int c = 0; c < NUM_CHANNELS; c++) {
+            double total = 0;
+            for (int b = 0; b < LatestValues.NUM_BANDS; b++)
+                total += powers[b][c];
+            totals[c] = total;
+        }
+    }
+
+    // True once every band has arrived, before that relative values aren't meaningful
+    public boolean hasAllBands() {
+        return seen == ALL_BANDS;
+    }
+
+    // True if band is one of the two a ratio is made of, and both have arrived
+    public boolean hasRatio(int ratio, int band) {
+        int top = RATIO_TOP[ratio];
+        int bottom = RATIO_BOTTOM[ratio];
+        return (band == top || band == bottom) && (seen & (1 << top)) != 0 && (seen & (1 << bottom)) != 0;
+    }
+
+    // band's share (0..1) of the total power, per channel
+    public float[] getRelative(int band) {
+        for (int c = 0; c < NUM_CHANNELS; c++)
+            out[c] = totals[c] > 0 ? (float) (powers[band][c] / totals[c]) : 0;
+        return out;
+    }
+
+    // e.g. alpha power over theta power, per channel
+    public float[] getRatio(int ratio) {
+        double[] top = powers[RATIO_TOP[ratio]];
+        double[] bottom = powers[RATIO_BOTTOM[ratio]];
+        for (int c = 0; c < NUM_CHANNELS; c++)
+            out[c] = bottom[c] > 0 ? (float) (top[c] / bottom[c]) : 0;
+        return out;
+    }
+
+    // Mean of the band's 4 channel values, on the scale they came in
+    public float[] getMean(int band) {
+        float sum = 0;
+        for (int c = 0; c < NUM_CHANNELS; c++)
+            sum += logValues[band][c];
+        mean[0] = sum / NUM_CHANNELS;
+        return mean;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final int NUM_CHANNELS = LatestValues.NUM_CHANNELS;
+    private static final int ALL_BANDS = (1 << LatestValues.NUM_BANDS) - 1;
+    private static final int[] RATIO_TOP = { LatestValues.ALPHA, LatestValues.BETA };
+    private static final int[] RATIO_BOTTOM = { LatestValues.THETA, LatestValues.ALPHA };
+
+    private final double[][] powers = new double[LatestValues.NUM_BANDS][NUM_CHANNELS];
+    private final float[][] logValues = new float[LatestValues.NUM_BANDS][NUM_CHANNELS];
+    private final double[] totals = new double[NUM_CHANNELS];
+    private int seen = 0;                   // bit per band that has arrived
+
+    private final float[] out = new float[NUM_CHANNELS];
+    private final float[] mean = new float[1];
+}
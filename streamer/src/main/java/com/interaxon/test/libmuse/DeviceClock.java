@@ -0,0 +1,53 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  DeviceClock
+ *
+ *  Maps the headset's packet timestamps (microseconds, from libmuse) onto System.nanoTime(),
+ *  so a sample is stamped with when it was taken rather than when Bluetooth got it to us.
+ *
+ *  The offset between the two clocks is the smallest receive time minus device time seen: a
+ *  packet that took longer to arrive only shows a larger difference. The smallest one is allowed
+ *  to creep up by MAX_DRIFT of the time passed, so a device clock running slower than ours is
+ *  followed as well. A jump of more than RESET_NANOS either way (a reconnect restarting the
+ *  device clock) starts over.
+ *
+ *  Only used on the libmuse callback thread.
+ */
+public class DeviceClock {
+    public static final double MAX_DRIFT = 0.0001;          // 100 ppm
+    public static final long RESET_NANOS = 1000000000L;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    // The nanoTime() the sample stamped deviceMicros was taken at, never later than receivedNanos
+    public long toLocalNanos(long deviceMicros, long receivedNanos) {
+        long measured = receivedNanos - deviceMicros * 1000;
+        if (count == 0) {
+            offset = measured;
+        }
+        else {
+            long allowed = offset + (long) ((receivedNanos - lastReceived) * MAX_DRIFT);
+            if (Math.abs(measured - allowed) > RESET_NANOS) {
+                offset = measured;
+                resets++;
+            }
+            else
+                offset = Math.min(allowed, measured);
+        }
+        lastReceived = receivedNanos;
+        lastMeasured = measured;
+        count++;
+        return deviceMicros * 1000 + offset;
+    }
+
+    // How long the last packet took beyond the quickest one, roughly its Bluetooth delay
+    public long getLastDelayNanos() { return lastMeasured - offset; }
+    public long getResetCount() { return resets; }
+
+    //-------- PRIVATE VARIABLES --------/
+    private long offset = 0;
+    private long lastReceived = 0;
+    private long lastMeasured = 0;
+    private long count = 0;
+    private long resets = 0;
+}
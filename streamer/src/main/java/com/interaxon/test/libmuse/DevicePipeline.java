@@ -0,0 +1,379 @@
+package com.interaxon.test.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *  DevicePipeline
+ *
+ *  Everything that happens to one headset's data after it is received: the latest values for
+ *  the screen, the ring and the sender thread with its own rate controller, quantizers and
+ *  socket. Each connected Muse gets its own pipeline and there is no mutable state shared
+ *  between them, so adding headsets doesn't make any one of them wait on another.
+ *
+ *  The on...() functions are called from the device's listener thread only (the ring's single
+ *  producer). Values are passed as float[] so any source can feed a pipeline, not just libmuse.
+ *
+ *  With config.bandPowers set, raw EEG also goes through EegBandPowers, whose output is sent
+ *  next to libmuse's bands on /muse/dsp/... or instead of them on /muse/elements/....
+ *  With config.derivedMetrics, every band that goes out on /muse/elements/... also updates a
+ *  DerivedMetrics, whose relative powers, ratios and means are sent like any other sample.
+ *
+ *  With config.artifactEvents, blinks, jaw clenches and the headband going on or off are sent
+ *  the moment they start or stop, as 1 or 0, on a ring of their own that the sender empties
+ *  before anything in the bulk ring. touching_forehead still goes the bulk way too, as the
+ *  rate limited keep-alive it always was.
+ *
+ *  Every sample is stamped with when it was taken: libmuse's packet timestamp, through the
+ *  DeviceClock, or the time it reached us for packets without one. With config.timetags the
+ *  sender sends it as the sample's timetag, in the receiver's time as the ClockSync sees it.
+ *  With config.playout a PlayoutBuffer paces the samples out by the same times.
+ *
+ *  Only subscribed addresses are queued at all (see Subscriptions), and the needs...() functions
+ *  tell the source which libmuse packets anything subscribed still depends on.
+ *
+ *  The pipeline outlives the headset's connection: when a source reconnects on its own (see
+ *  config.reconnect) it keeps feeding the same pipeline, ring and sockets.
+ */
+public class DevicePipeline {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    // addressPrefix is put in front of every address, "" to send the plain /muse/... patterns.
+    // host:port is the main destination over config.transport, config.destinations are sent the
+    // same packets
+    public DevicePipeline(String _deviceId, String addressPrefix, String host, int port, StreamConfig config) {
+        deviceId = _deviceId;
+        prefix = addressPrefix;
+        sendRawEeg = config.rawEegMode;
+        bandPowers = config.bandPowers.length() > 0 ? new EegBandPowers(config.bandPowers) : null;
+        replaceBands = bandPowers != null && bandPowers.replacesBands();
+        derived = config.derivedMetrics ? new DerivedMetrics() : null;
+        reconnect = config.reconnect.length() > 0 ? new ReconnectBackoff(config.reconnect) : null;
+
+        String[] counted = OscAddresses.ALL;
+        if (bandPowers != null && !replaceBands)
+            counted = concat(counted, OscAddresses.DSP_BANDS);
+        if (derived != null)
+            counted = concat(concat(concat(counted, OscAddresses.RELATIVE), OscAddresses.RATIOS), OscAddresses.BAND_MEANS);
+        if (config.artifactEvents)
+            counted = concat(counted, OscAddresses.ARTIFACT_EVENTS);
+        stats = new StreamStats(counted);
+        stats.setReconnect(reconnect);
+        subscriptions = new Subscriptions(counted);
+
+        // drop the oldest samples if the network falls behind, fresh data matters more
+        ring = new SampleRing(config.rawEegMode ? StreamConfig.RAW_RING_CAPACITY : StreamConfig.RING_CAPACITY,
+                              4, SampleRing.OverflowPolicy.DROP_OLDEST);
+        events = config.artifactEvents ?
+                new SampleRing(StreamConfig.EVENT_RING_CAPACITY, 1, SampleRing.OverflowPolicy.DROP_OLDEST) : null;
+
+        sender = new OscSender(ring);
+        sender.addDestination(OscDestination.parse(config.transport + ":" + host + ":" + port));
+        for (String spec : config.destinations.split(";")) {
+            if (spec.trim().length() > 0)
+                sender.addDestination(OscDestination.parse(spec));
+        }
+        sender.setAddressPrefix(addressPrefix);
+        sender.setQuantizers(createQuantizers(config));
+        sender.setRateController(createRateController(config, replaceBands));
+        FilterTable filters = new FilterTable(4);
+        filters.parse(config.filters);
+        sender.setFilters(filters);
+        sender.setDeadbands(createDeadbands(config, addressPrefix));
+        if (config.adaptiveRate.length() > 0)
+            sender.setAdaptiveRate(new AdaptiveRate(config.adaptiveRate));
+        if (config.bundleMode) {
+            sender.setBundler(new OscBundler(OscAddresses.BANDS,
+                    new String[] { OscAddresses.HORSESHOE, OscAddresses.TOUCHING_FOREHEAD }, 4),
+                    config.bundlePeriodMS);
+        }
+        if (config.rawEegMode)
+            sender.setBatching(OscAddresses.EEG, StreamConfig.RAW_BATCH_SIZE);
+        if (events != null)
+            sender.setEvents(events);
+        if (config.timetags)
+            sender.setTimetags(clock, config.clockSyncMS);
+        if (config.playout.length() > 0)
+            sender.setPlayout(new PlayoutBuffer(config.playout, ring.capacity(), 4));
+        sender.setStats(stats, config.statsPeriodMS);
+
+        if (config.recordDirectory != null) {
+            String name = OscAddresses.devicePrefix(deviceId).substring(1) + "-" + System.currentTimeMillis() + ".muserec";
+            recorder = new SessionRecorder(new File(config.recordDirectory, name));
+        }
+    }
+
+    public void start() {
+        sender.start();
+        if (recorder != null) {
+            try {
+                recorder.start();
+            } catch (IOException e) {
+                System.out.println("DevicePipeline: can't record to " + recorder.getFile() + " " + e);
+                recorder = null;
+            }
+        }
+    }
+
+    public void stop() {
+        sender.stop();
+        if (recorder != null)
+            recorder.stop();
+    }
+
+    public String getDeviceId() { return deviceId; }
+    public String getAddressPrefix() { return prefix; }
+    public Subscriptions getSubscriptions() { return subscriptions; }
+    public LatestValues getLatestValues() { return latestValues; }
+    public SampleRing getRing() { return ring; }
+    public OscSender getSender() { return sender; }
+    public StreamStats getStats() { return stats; }
+    public EegBandPowers getBandPowers() { return bandPowers; }
+    public DerivedMetrics getDerivedMetrics() { return derived; }
+    // null if the source shouldn't reconnect on its own
+    public ReconnectBackoff getReconnect() { return reconnect; }
+    public ClockSync getClock() { return clock; }
+    public DeviceClock getDeviceClock() { return deviceClock; }
+    public SessionRecorder getRecorder() { return recorder; }
+    public boolean isRecording() { return recorder != null; }
+
+    // Which libmuse packets anything subscribed depends on. Band powers from EegBandPowers and
+    // the derived metrics pull in the packets they are computed from
+    public boolean needsBandPackets(int band) {
+        return !replaceBands && (subscriptions.isSubscribed(OscAddresses.BANDS[band]) || wantsDerived());
+    }
+
+    public boolean needsEegPackets() {
+        return (sendRawEeg && subscriptions.isSubscribed(OscAddresses.EEG)) || wantsBandPowers();
+    }
+
+    public boolean needsHorseshoePackets() {
+        return subscriptions.isSubscribed(OscAddresses.HORSESHOE);
+    }
+
+    public boolean needsArtifactPackets() {
+        return subscriptions.isSubscribed(OscAddresses.TOUCHING_FOREHEAD) ||
+               (events != null && subscriptions.isAnySubscribed(OscAddresses.ARTIFACT_EVENTS));
+    }
+
+    // libmuse's timestamp (microseconds) of the packet the next on...() calls come from, 0 for
+    // packets without one
+    public void setPacketTimestamp(long deviceMicros) {
+        packetMicros = deviceMicros;
+    }
+
+    // Every packet as received, for the session log. type is never 0, see SessionRecorder
+    public void onPacket(int type, long deviceTimestamp, float[] values, int count) {
+        if (recorder != null)
+            recorder.record(type, deviceTimestamp, values, count);
+    }
+
+    // band is LatestValues.ALPHA ... THETA, values holds the 4 channels
+    public void onBand(int band, float[] values) {
+        if (replaceBands)
+            return;             // ours go out on these addresses instead
+        sendBand(band, values);
+    }
+
+    public void onHorseshoe(float[] values) {
+        latestValues.setHorseshoe(values);
+        publish(OscAddresses.HORSESHOE, values, 4);
+    }
+
+    public void onEeg(float[] values) {
+        if (bandPowers != null && wantsBandPowers() && bandPowers.add(values)) {
+            for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+                float[] powers = bandPowers.getBand(b);
+                if (replaceBands)
+                    sendBand(b, powers);
+                else
+                    publish(OscAddresses.DSP_BANDS[b], powers, 4);
+            }
+        }
+        if (sendRawEeg)
+            publish(OscAddresses.EEG, values, 4);
+    }
+
+    public void onBattery(float percent) {
+        latestValues.setBattery(percent);
+    }
+
+    public void onArtifacts(boolean headbandOn, boolean blink, boolean jawClench) {
+        int touchingForehead = headbandOn ? 1 : 0;
+        latestValues.setTouchingForehead(touchingForehead);
+
+        if (events != null) {
+            long now = System.nanoTime();
+            if (touchingForehead != lastTouchingForehead)
+                sendEvent(OscAddresses.TOUCHING_FOREHEAD, touchingForehead, now);
+            if (blink != lastBlink)
+                sendEvent(OscAddresses.BLINK, blink ? 1 : 0, now);
+            if (jawClench != lastJawClench)
+                sendEvent(OscAddresses.JAW_CLENCH, jawClench ? 1 : 0, now);
+            lastTouchingForehead = touchingForehead;
+            lastBlink = blink;
+            lastJawClench = jawClench;
+        }
+
+        // the sender's RateController decides when it goes out
+        if (!subscriptions.isSubscribed(OscAddresses.TOUCHING_FOREHEAD))
+            return;
+        stats.onReceived(OscAddresses.TOUCHING_FOREHEAD);
+        Sample sample = ring.claim();
+        if (sample != null) {
+            sample.setInt(OscAddresses.TOUCHING_FOREHEAD, touchingForehead);
+            stamp(sample, System.nanoTime());
+            ring.publish();
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+
+    // A band for /muse/elements/..., from libmuse or EegBandPowers, and what is derived from it
+    private void sendBand(int band, float[] values) {
+        latestValues.setBand(band, values);
+        publish(OscAddresses.BANDS[band], values, 4);
+        if (!wantsDerived())
+            return;
+
+        derived.setBand(band, values);
+        if (derived.hasAllBands())
+            publish(OscAddresses.RELATIVE[band], derived.getRelative(band), 4);
+        for (int r = 0; r < DerivedMetrics.NUM_RATIOS; r++) {
+            if (derived.hasRatio(r, band))
+                publish(OscAddresses.RATIOS[r], derived.getRatio(r), 4);
+        }
+        publish(OscAddresses.BAND_MEANS[band], derived.getMean(band), 1);
+    }
+
+    // An artifact edge onto the event lane, the sender sends it before anything else waiting
+    private void sendEvent(String address, int value, long now) {
+        if (!subscriptions.isSubscribed(address))
+            return;
+        stats.onReceived(address);
+        Sample sample = events.claim();
+        if (sample == null)
+            return;
+
+        sample.setInt(address, value);
+        stamp(sample, now);
+        events.publish();
+    }
+
+    // Copies the values into a ring slot, the sender thread picks it up from there.
+    // Rounding to the configured precision happens later, in the sender's Quantizer
+    private void publish(String address, float[] values, int count) {
+        if (!subscriptions.isSubscribed(address))
+            return;
+        stats.onReceived(address);
+        Sample sample = ring.claim();
+        if (sample == null)
+            return;
+
+        sample.setFloats(address, values, count);
+        stamp(sample, System.nanoTime());
+        ring.publish();
+    }
+
+    private void stamp(Sample sample, long now) {
+        sample.receivedNanos = now;
+        if (packetMicros == 0)
+            sample.sampleNanos = now;
+        else if (packetMicros != stampedMicros) {
+            // one conversion per packet, band powers and derived metrics share their packet's time
+            stampedMicros = packetMicros;
+            stampedNanos = deviceClock.toLocalNanos(packetMicros, now);
+            sample.sampleNanos = stampedNanos;
+        }
+        else
+            sample.sampleNanos = stampedNanos;
+    }
+
+    private boolean wantsDerived() {
+        return derived != null && (subscriptions.isAll() || subscriptions.isAnySubscribed(OscAddresses.RELATIVE) ||
+               subscriptions.isAnySubscribed(OscAddresses.RATIOS) || subscriptions.isAnySubscribed(OscAddresses.BAND_MEANS));
+    }
+
+    // EegBandPowers only runs while something wants its output, on /muse/dsp/... or as the bands
+    private boolean wantsBandPowers() {
+        if (bandPowers == null)
+            return false;
+        if (subscriptions.isAll())
+            return true;
+        if (replaceBands)
+            return subscriptions.isAnySubscribed(OscAddresses.BANDS) || wantsDerived();
+        return subscriptions.isAnySubscribed(OscAddresses.DSP_BANDS);
+    }
+
+    // Bands and horseshoe default to the 2 decimals we always sent, raw EEG goes untouched
+    private static QuantizerTable createQuantizers(StreamConfig config) {
+        QuantizerTable quantizers = new QuantizerTable(Quantizer.round(2));
+        quantizers.set(OscAddresses.EEG, Quantizer.float32());
+        quantizers.parse(config.quantization);
+        return quantizers;
+    }
+
+    // Defaults match the old timers (5 per second per band, 1 per second for horseshoe and
+    // forehead) but send the newest value, RATE_LIMITS overrides them per address. Bands from
+    // EegBandPowers already come at the rate its hop was chosen for. Derived metrics follow the bands
+    private static RateController createRateController(StreamConfig config, boolean replaceBands) {
+        RateController rates = new RateController(4);
+        String bandRate = replaceBands ? "none" : "latest:5";
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            rates.set(OscAddresses.BANDS[b], bandRate);
+            rates.set(OscAddresses.RELATIVE[b], bandRate);
+            rates.set(OscAddresses.BAND_MEANS[b], bandRate);
+        }
+        for (String ratio : OscAddresses.RATIOS)
+            rates.set(ratio, bandRate);
+        rates.set(OscAddresses.HORSESHOE, "latest:1");
+        rates.set(OscAddresses.TOUCHING_FOREHEAD, "latest:1");
+        rates.parse(config.rateLimits);
+        return rates;
+    }
+
+    // Horseshoe and touching_forehead hardly ever change, only send them when they do or every
+    // 5 seconds. DEADBANDS adds others (e.g. bands at display precision) or overrides these
+    private static DeadbandTable createDeadbands(StreamConfig config, String addressPrefix) {
+        DeadbandTable deadbands = new DeadbandTable(4, addressPrefix);
+        deadbands.set(OscAddresses.HORSESHOE, "abs:0:5000");
+        deadbands.set(OscAddresses.TOUCHING_FOREHEAD, "abs:0:5000");
+        deadbands.parse(config.deadbands);
+        return deadbands;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] all = new String[a.length + b.length];
+        System.arraycopy(a, 0, all, 0, a.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return all;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final String deviceId;
+    private final String prefix;
+    private final Subscriptions subscriptions;
+    private final ClockSync clock = new ClockSync();
+
+    // only used on the listener thread
+    private final DeviceClock deviceClock = new DeviceClock();
+    private long packetMicros = 0;
+    private long stampedMicros = 0;
+    private long stampedNanos = 0;
+    private final LatestValues latestValues = new LatestValues();
+    private final SampleRing ring;
+    private final SampleRing events;                // null if artifact events are off
+    private final OscSender sender;
+    private final StreamStats stats;
+    private final boolean sendRawEeg;
+    private final EegBandPowers bandPowers;         // null if off, used on the listener thread only
+    private final boolean replaceBands;
+    private final DerivedMetrics derived;           // null if off, used on the listener thread only
+    private final ReconnectBackoff reconnect;       // null if off
+    private SessionRecorder recorder = null;
+
+    // last artifact state, for sending edges only; used on the listener thread only
+    private int lastTouchingForehead = -1;          // unknown, so the first packet sends it
+    private boolean lastBlink = false;
+    private boolean lastJawClench = false;
+}
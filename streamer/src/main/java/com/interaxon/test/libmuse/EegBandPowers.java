@@ -0,0 +1,195 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  EegBandPowers
+ *
+ *  Band powers computed on the device from raw EEG, at a rate we choose instead of libmuse's
+ *  ~10Hz. Each channel keeps the last window samples in a ring; every hop samples the window
+ *  has its mean removed, a Hann window applied, and goes through a RealFft. A band's value is
+ *  log10 of its power in uV^2 (the one-sided PSD summed over the band's bins), the same log
+ *  scale as libmuse's *_ABSOLUTE values though not their exact numbers.
+ *
+ *  Bands follow libmuse: delta 1-4Hz, theta 4-8Hz, alpha 7.5-13Hz, beta 13-30Hz, gamma 30-44Hz.
+ *  Everything is allocated in the constructor; add() runs on the listener thread and does
+ *  about 4 FFTs of window/2 points every hop.
+ *
+ *  Specs are "key=value" pairs separated by ';', e.g. "window=256;hop=5;output=replace"
+ *      rate        EEG samples per second, 220 for the Muse's PRESET_14
+ *      window      samples per FFT, a power of 2
+ *      hop         new samples between outputs, rate / hop is the output rate
+ *      output      "parallel" for /muse/dsp/..., "replace" for /muse/elements/... instead of
+ *                  libmuse's band packets
+ */
+public class EegBandPowers {
+    public static final int NUM_CHANNELS = LatestValues.NUM_CHANNELS;
+    public static final String DEFAULT_SPEC = "rate=220;window=256;hop=5;output=parallel";
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public EegBandPowers(String spec) {
+        double[] values = parseSpec(spec);
+        rate = values[RATE];
+        window = (int) values[WINDOW];
+        hop = (int) values[HOP];
+        replace = values[OUTPUT] != 0;
+
+        fft = new RealFft(window);
+        history = new float[NUM_CHANNELS][window];
+        samples = new double[window];
+        power = new double[window / 2 + 1];
+
+        // Hann window, and the scale from |X[k]|^2 to uV^2 of a one-sided spectrum
+        hann = new double[window];
+        double sumSquares = 0;
+        for (int i = 0; i < window; i++) {
+            hann[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / window);
+            sumSquares += hann[i] * hann[i];
+        }
+        scale = 2 / (window * sumSquares);
+
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            firstBin[b] = bin(BAND_LOW_HZ[b], window, rate);
+            endBin[b] = bin(BAND_HIGH_HZ[b], window, rate);
+        }
+    }
+
+    // Throws IllegalArgumentException if the constructor wouldn't take spec
+    public static void validate(String spec) {
+        parseSpec(spec);
+    }
+
+    public int getWindow() { return window; }
+    public int getHop() { return hop; }
+    public double getOutputRate() { return rate / hop; }
+    public boolean replacesBands() { return replace; }
+    public long getComputeCount() { return computed; }
+
+    // Takes one EEG frame (NUM_CHANNELS values), true if it completed a hop and there are new
+    // band powers to read with getBand()
+    public boolean add(float[] frame) {
+        for (int c = 0; c < NUM_CHANNELS; c++)
+            history[c][next] = frame[c];
+        next = next + 1 == window ? 0 : next + 1;
+        if (filled < window)
+            filled++;
+
+        if (++sinceOutput < hop || filled < window)
+            return false;
+        sinceOutput = 0;
+
+        for (int c = 0; c < NUM_CHANNELS; c++)
+            compute(c);
+        computed++;
+        return true;
+    }
+
+    // band is LatestValues.ALPHA ... THETA, one value per channel
+    public float[] getBand(int band) { return bands[band]; }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // The DEFAULT_SPEC values with spec's on top, indexed RATE ... OUTPUT (1 for replace)
+    private static double[] parseSpec(String spec) {
+        double[] values = new double[4];
+        parse(DEFAULT_SPEC, values);
+        parse(spec, values);
+
+        double rate = values[RATE];
+        int window = (int) values[WINDOW];
+        int hop = (int) values[HOP];
+        if (rate <= 0)
+            throw new IllegalArgumentException("rate has to be > 0: " + rate);
+        if (hop < 1 || hop > window)
+            throw new IllegalArgumentException("hop has to be 1.." + window + ": " + hop);
+        RealFft.checkSize(window);
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            if (BAND_HIGH_HZ[b] > rate / 2)
+                throw new IllegalArgumentException("rate " + rate + " is too low for bands up to " + BAND_HIGH_HZ[b] + "Hz");
+            if (bin(BAND_HIGH_HZ[b], window, rate) <= bin(BAND_LOW_HZ[b], window, rate))
+                throw new IllegalArgumentException("window " + window + " is too short to resolve " +
+                                                   BAND_LOW_HZ[b] + "-" + BAND_HIGH_HZ[b] + "Hz");
+        }
+        return values;
+    }
+
+    private static void parse(String spec, double[] values) {
+        for (String entry : spec.split(";")) {
+            entry = entry.trim();
+            if (entry.length() == 0)
+                continue;
+
+            int eq = entry.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("bad band power entry: " + entry);
+            String key = entry.substring(0, eq).trim();
+            String value = entry.substring(eq + 1).trim();
+            try {
+                if (key.equals("rate"))
+                    values[RATE] = Double.parseDouble(value);
+                else if (key.equals("window"))
+                    values[WINDOW] = Integer.parseInt(value);
+                else if (key.equals("hop"))
+                    values[HOP] = Integer.parseInt(value);
+                else if (key.equals("output") && (value.equals("parallel") || value.equals("replace")))
+                    values[OUTPUT] = value.equals("replace") ? 1 : 0;
+                else
+                    throw new IllegalArgumentException("bad band power entry: " + entry);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad band power entry: " + entry);
+            }
+        }
+    }
+
+    // The first FFT bin at or above hz
+    private static int bin(double hz, int window, double rate) {
+        return (int) Math.ceil(hz * window / rate);
+    }
+
+    // The channel's window, oldest sample first, through the FFT into bands[..][channel]
+    private void compute(int channel) {
+        float[] h = history[channel];
+        double mean = 0;
+        for (int i = 0; i < window; i++)
+            mean += h[i];
+        mean /= window;
+
+        int j = next;                       // the oldest sample
+        for (int i = 0; i < window; i++) {
+            samples[i] = (h[j] - mean) * hann[i];
+            j = j + 1 == window ? 0 : j + 1;
+        }
+        fft.powerSpectrum(samples, power);
+
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            double sum = 0;
+            for (int k = firstBin[b]; k < endBin[b]; k++)
+                sum += power[k];
+            bands[b][channel] = (float) Math.log10(Math.max(sum * scale, MIN_POWER));
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    // indexed by LatestValues.ALPHA ... THETA
+    private static final double[] BAND_LOW_HZ = { 7.5, 13, 1, 30, 4 };
+    private static final double[] BAND_HIGH_HZ = { 13, 30, 4, 44, 8 };
+    private static final double MIN_POWER = 1e-12;             // keeps log10 finite for a flat signal
+    private static final int RATE = 0, WINDOW = 1, HOP = 2, OUTPUT = 3;        // parseSpec() values
+
+    private final double rate;
+    private final int window;
+    private final int hop;
+    private final boolean replace;
+
+    private final RealFft fft;
+    private final double[] hann;
+    private final double scale;
+    private final int[] firstBin = new int[LatestValues.NUM_BANDS];
+    private final int[] endBin = new int[LatestValues.NUM_BANDS];      // exclusive
+
+    private final float[][] history;
+    private int next = 0;                   // where the next sample goes
+    private int filled = 0;
+    private int sinceOutput = 0;
+    private final double[] samples;
+    private final double[] power;
+    private final float[][] bands = new float[LatestValues.NUM_BANDS][NUM_CHANNELS];
+    private volatile long computed = 0;
+}
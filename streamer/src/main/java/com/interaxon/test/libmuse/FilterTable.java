@@ -0,0 +1,64 @@
+package com.interaxon.test.libmuse;
+
+import java.util.HashMap;
+
+/**
+ *  FilterTable
+ *
+ *  Which SignalFilter each OSC address goes through, none for addresses without one. Filters
+ *  keep state, so every pipeline parses its own table. Filled in before the sender starts and
+ *  only used by the sender thread afterwards.
+ *
+ *  parse() reads the FILTERS preference, "address=spec" pairs separated by ';', e.g.
+ *      /muse/elements/alpha_absolute=euro:1:0.5;/muse/eeg=decimate:4
+ */
+public class FilterTable {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public FilterTable(int _maxValues) {
+        maxValues = _maxValues;
+    }
+
+    public void set(String address, String spec) {
+        table.put(address, SignalFilter.parse(spec, maxValues));
+    }
+
+    public void parse(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq < 0)
+                continue;
+            set(entry.substring(0, eq).trim(), entry.substring(eq + 1));
+        }
+    }
+
+    // Throws IllegalArgumentException if parse() wouldn't take config
+    public static void validateConfig(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq >= 0)
+                SignalFilter.validate(entry.substring(eq + 1));
+        }
+    }
+
+    // Filters the sample in place, false if its filter leaves it out
+    public boolean apply(Sample sample) {
+        if (table.isEmpty())
+            return true;
+        SignalFilter filter = table.get(sample.address);
+        return filter == null || filter.apply(sample);
+    }
+
+    public long getDecimatedCount(String address) {
+        SignalFilter filter = table.get(address);
+        return filter != null ? filter.getDecimatedCount() : 0;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final int maxValues;
+    private final HashMap<String, SignalFilter> table = new HashMap<String, SignalFilter>();
+}
@@ -0,0 +1,75 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  FixedFormat
+ *
+ *  Formats a number like String.format("%6.2f") would, but into a caller-owned char[] so the
+ *  UI can redraw without a Formatter, StringBuilder or String per field per frame.
+ */
+public class FixedFormat {
+
+    //-------- PUBLIC FUNCTIONS --------/
+
+    // Writes value right-aligned in at least width chars with the given decimals, returns the
+    // length written. buf has to hold width chars and every digit of the value.
+    public static int format(char[] buf, double value, int decimals, int width) {
+        int len;
+        if (Double.isNaN(value))
+            len = copy(buf, "NaN");
+        else if (Double.isInfinite(value))
+            len = copy(buf, value > 0 ? "Infinity" : "-Infinity");
+        else
+            len = formatFinite(buf, value, decimals);
+
+        if (len < width) {
+            int shift = width - len;
+            for (int i = len - 1; i >= 0; i--)
+                buf[i + shift] = buf[i];
+            for (int i = 0; i < shift; i++)
+                buf[i] = ' ';
+            len = width;
+        }
+        return len;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private static int formatFinite(char[] buf, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++)
+            scale *= 10;
+
+        boolean negative = value < 0;
+        long scaled = Math.round(Math.abs(value) * scale);
+        long whole = scaled / scale;
+        long fraction = scaled % scale;
+
+        int pos = 0;
+        if (negative && scaled != 0)
+            buf[pos++] = '-';
+
+        // whole part, written backwards then reversed in place
+        int start = pos;
+        do {
+            buf[pos++] = (char) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            char c = buf[i];
+            buf[i] = buf[j];
+            buf[j] = c;
+        }
+
+        if (decimals > 0) {
+            buf[pos++] = '.';
+            for (long div = scale / 10; div > 0; div /= 10) {
+                buf[pos++] = (char) ('0' + (fraction / div) % 10);
+            }
+        }
+        return pos;
+    }
+
+    private static int copy(char[] buf, String s) {
+        s.getChars(0, s.length(), buf, 0);
+        return s.length();
+    }
+}
@@ -0,0 +1,120 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  HeadlessStreamer
+ *
+ *  Runs one DevicePipeline fed by a SyntheticPacketSource on a plain JVM, then prints what the
+ *  source generated, what the pipeline sent, the per-stage latencies and per-address counters. For measuring the
+ *  streamer's own overhead on a dev box or in CI, without a headset or a phone.
+ *
+ *      HeadlessStreamer host port seconds [synthetic spec] [raw] [bundle] [dsp] [derived] [adaptive] [tcp|tcp-len] [paced]
+ *
+ *  e.g. "127.0.0.1 5000 10 eeg=20000;paced=1 raw" sends 100x headset-rate raw EEG for 10 sec.
+ *  dsp adds EegBandPowers with its default spec on /muse/dsp/..., derived adds DerivedMetrics,
+ *  adaptive scales the rates with AdaptiveRate's defaults, tcp and tcp-len send over an
+ *  OscTcpDestination instead of UDP, paced sends through a PlayoutBuffer with its defaults
+ *  (try it with a synthetic burst=40).
+ */
+public class HeadlessStreamer {
+    //-------- PUBLIC FUNCTIONS --------/
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("usage: HeadlessStreamer host port seconds [synthetic spec] [raw] [bundle] [dsp] [derived] [adaptive] [tcp|tcp-len] [paced]");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        long seconds = Long.parseLong(args[2]);
+        String spec = args.length > 3 ? args[3] : "";
+
+        StreamConfig config = new StreamConfig();
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].equals("raw"))
+                config.rawEegMode = true;
+            else if (args[i].equals("bundle"))
+                config.bundleMode = true;
+            else if (args[i].equals("dsp"))
+                config.bandPowers = EegBandPowers.DEFAULT_SPEC;
+            else if (args[i].equals("derived"))
+                config.derivedMetrics = true;
+            else if (args[i].equals("adaptive"))
+                config.adaptiveRate = AdaptiveRate.DEFAULT_SPEC;
+            else if (args[i].equals("tcp") || args[i].equals("tcp-len"))
+                config.transport = args[i];
+            else if (args[i].equals("paced"))
+                config.playout = PlayoutBuffer.DEFAULT_SPEC;
+        }
+
+        DevicePipeline pipeline = new DevicePipeline("synthetic", "", host, port, config);
+        SyntheticPacketSource source = new SyntheticPacketSource(spec);
+        pipeline.start();
+        source.start(pipeline);
+
+        long end = System.nanoTime() + seconds * 1000000000L;
+        while (source.isRunning() && System.nanoTime() < end)
+            Thread.sleep(100);
+        source.stop();
+        Thread.sleep(200);          // let the sender drain the ring
+        pipeline.stop();
+
+        report(source, pipeline, seconds);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private static void report(SyntheticPacketSource source, DevicePipeline pipeline, long seconds) {
+        SampleRing ring = pipeline.getRing();
+        OscSender sender = pipeline.getSender();
+
+        System.out.println("generated " + source.getGeneratedCount() + " packets in " + seconds + " sec, " +
+                source.getGeneratedCount() / Math.max(1, seconds) + " per sec");
+        System.out.println("  eeg=" + source.getCount(SyntheticPacketSource.EEG) +
+                " bands=" + source.getCount(SyntheticPacketSource.BANDS) +
+                " horseshoe=" + source.getCount(SyntheticPacketSource.HORSESHOE) +
+                " artifacts=" + source.getCount(SyntheticPacketSource.ARTIFACTS) +
+                " battery=" + source.getCount(SyntheticPacketSource.BATTERY));
+        System.out.println("ring published=" + ring.getPublishedCount() +
+                " dropped oldest=" + ring.getDroppedOldestCount() +
+                " max depth=" + ring.getMaxDepth());
+        System.out.println("sent " + sender.getSentCount() + " datagrams (" + sender.getSentBytes() + " bytes)" +
+                " failed=" + sender.getFailedCount() +
+                " batched=" + sender.getBatchedCount() +
+                " bundles=" + sender.getBundleCount());
+        for (OscDestination destination : sender.getDestinations()) {
+            System.out.println("  " + destination +
+                    " sent=" + destination.getSentCount() + " (" + destination.getSentBytes() + " bytes)" +
+                    " failed=" + destination.getFailedCount() +
+                    " full=" + destination.getFullCount() +
+                    " skipped=" + destination.getSkippedCount() +
+                    " dropped=" + destination.getDroppedCount());
+            if (destination instanceof OscTcpDestination) {
+                OscTcpDestination tcp = (OscTcpDestination) destination;
+                System.out.println("    connects=" + tcp.getConnectCount() + " writes=" + tcp.getFlushCount());
+            }
+        }
+        if (sender.getAdaptiveRate() != null)
+            System.out.println("adaptive rate " + Math.round(sender.getAdaptiveRate().getScale() * 100) + "%" +
+                    " decreases=" + sender.getAdaptiveRate().getDecreaseCount() +
+                    " increases=" + sender.getAdaptiveRate().getIncreaseCount() +
+                    " stale=" + sender.getStaleCount());
+        if (sender.getPlayout() != null)
+            System.out.println(sender.getPlayout());
+        System.out.println("deadband saved " + sender.getDeadbands().getSavedMessages() + " messages (" +
+                sender.getDeadbands().getSavedBytes() + " bytes)");
+        EegBandPowers bandPowers = pipeline.getBandPowers();
+        if (bandPowers != null)
+            System.out.println("band powers computed " + bandPowers.getComputeCount() + " times, " +
+                    bandPowers.getOutputRate() + " per sec");
+        StreamStats stats = pipeline.getStats();
+        System.out.println("  " + stats.getLatency(StreamStats.E2E));
+        System.out.println("  " + sender.getQueueLatency());
+        System.out.println("  " + sender.getSendLatency());
+        System.out.println("  " + stats.getLatency(StreamStats.EVENT));
+        for (int i = 0; i < stats.getAddresses().length; i++) {
+            System.out.println("  " + stats.getAddresses()[i] +
+                    " received=" + stats.getReceivedCount(i) +
+                    " throttled=" + stats.getThrottledCount(i) +
+                    " sent=" + stats.getSentCount(i) +
+                    " failed=" + stats.getFailedCount(i));
+        }
+    }
+}
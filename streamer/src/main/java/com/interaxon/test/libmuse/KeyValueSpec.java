@@ -0,0 +1,50 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  KeyValueSpec
+ *
+ *  Parses the "key=value;key=value" specs of AdaptiveRate, ReconnectBackoff and PlayoutBuffer,
+ *  where every value is a number >= 0. Values come back in the order of the caller's keys, the
+ *  defaults first with the spec's on top, so the caller only indexes them and checks how they
+ *  relate. Anything else, an unknown key, a missing '=' or a value that isn't a number >= 0,
+ *  throws IllegalArgumentException naming the spec kind, e.g. "bad playout entry: min=x".
+ */
+public class KeyValueSpec {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public static double[] parse(String kind, String[] keys, String defaults, String spec) {
+        double[] values = new double[keys.length];
+        parse(kind, keys, defaults, values);
+        parse(kind, keys, spec, values);
+        return values;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private static void parse(String kind, String[] keys, String spec, double[] values) {
+        for (String entry : spec.split(";")) {
+            entry = entry.trim();
+            if (entry.length() == 0)
+                continue;
+
+            int eq = entry.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("bad " + kind + " entry: " + entry);
+            String key = entry.substring(0, eq).trim();
+            double value;
+            try {
+                value = Double.parseDouble(entry.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad " + kind + " entry: " + entry);
+            }
+            if (!(value >= 0))          // NaN too
+                throw new IllegalArgumentException(kind + " values have to be >= 0: " + entry);
+
+            int i = keys.length - 1;
+            while (i >= 0 && !keys[i].equals(key))
+                i--;
+            if (i < 0)
+                throw new IllegalArgumentException("bad " + kind + " entry: " + entry);
+            values[i] = value;
+        }
+    }
+}
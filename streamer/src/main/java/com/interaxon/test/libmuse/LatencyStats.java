@@ -0,0 +1,137 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  LatencyStats
+ *
+ *  Fixed-size histogram of durations in nanoseconds, for percentiles without keeping the
+ *  samples. Each power of two is split into 8 buckets, so a percentile is accurate to within
+ *  12.5%. Recording is allocation-free and meant for one thread; other threads may read it
+ *  at any time and get a slightly stale but usable picture.
+ *
+ *  Besides the totals since the start, the recording thread can markInterval() and then read
+ *  the getInterval...() figures for just what was recorded since the last mark.
+ */
+public class LatencyStats {
+    //-------- PUBLIC FUNCTIONS --------/
+    public LatencyStats(String _name) {
+        name = _name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets[bucketIndex(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max)
+            max = nanos;
+        if (nanos > intervalMax)
+            intervalMax = nanos;
+    }
+
+    // Starts a new interval, only from the recording thread
+    public void markInterval() {
+        System.arraycopy(buckets, 0, marked, 0, buckets.length);
+        markedCount = count;
+        markedTotal = total;
+        intervalMax = 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = 0;
+        count = 0;
+        total = 0;
+        max = 0;
+        markInterval();
+    }
+
+    public String getName() { return name; }
+    public long getCount() { return count; }
+    public long getMax() { return max; }
+
+    public long getMean() {
+        long n = count;
+        return n == 0 ? 0 : total / n;
+    }
+
+    // Upper bound of the bucket that holds the fraction (0..1) of recorded durations
+    public long getPercentile(double fraction) {
+        return percentile(fraction, count, null, max);
+    }
+
+    //-- since the last markInterval()
+
+    public long getIntervalCount() { return count - markedCount; }
+    public long getIntervalMax() { return intervalMax; }
+
+    public long getIntervalMean() {
+        long n = count - markedCount;
+        return n == 0 ? 0 : (total - markedTotal) / n;
+    }
+
+    public long getIntervalPercentile(double fraction) {
+        return percentile(fraction, count - markedCount, marked, intervalMax);
+    }
+
+    @Override
+    public String toString() {
+        return name + " n=" + count +
+                " mean=" + micros(getMean()) +
+                " p50=" + micros(getPercentile(0.5)) +
+                " p99=" + micros(getPercentile(0.99)) +
+                " max=" + micros(max);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // over buckets minus since (if not null), which hold n durations up to top
+    private long percentile(double fraction, long n, long[] since, long top) {
+        if (n <= 0)
+            return 0;
+
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += since == null ? buckets[i] : buckets[i] - since[i];
+            if (seen >= rank && seen > 0)
+                return Math.min(bucketTop(i), top);
+        }
+        return top;
+    }
+
+    // e.g. 1234 -> "1.2us"
+    private static String micros(long nanos) {
+        return nanos / 1000 + "." + (nanos % 1000) / 100 + "us";
+    }
+
+    private static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = msb - SUB_BITS;
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + (int) ((nanos >> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long bucketTop(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final String name;
+    private final long[] buckets = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+    private volatile long count = 0;
+    private long total = 0;
+    private volatile long max = 0;
+
+    private final long[] marked = new long[buckets.length];
+    private long markedCount = 0;
+    private long markedTotal = 0;
+    private volatile long intervalMax = 0;
+}
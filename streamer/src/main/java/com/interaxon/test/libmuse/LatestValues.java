@@ -0,0 +1,67 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  LatestValues
+ *
+ *  Snapshot of the most recent value of everything the screen shows. The libmuse callback
+ *  thread writes it on every packet, the UI renderer copies it out once per frame. Each field
+ *  group has a version number that goes up on every write, so the renderer can tell what
+ *  changed since the last frame.
+ *
+ *  Writes and copies are a handful of floats under the object's lock, so neither side waits on
+ *  the other for longer than that, and layout never happens while the lock is held.
+ */
+public class LatestValues {
+    public static final int ALPHA = 0;
+    public static final int BETA = 1;
+    public static final int DELTA = 2;
+    public static final int GAMMA = 3;
+    public static final int THETA = 4;
+    public static final int NUM_BANDS = 5;
+    public static final int NUM_CHANNELS = 4;
+
+    //-------- PUBLIC VARIABLES --------/
+    // only read these on a copy made with copyTo()
+    public final float[][] bands = new float[NUM_BANDS][NUM_CHANNELS];
+    public final int[] bandVersions = new int[NUM_BANDS];
+    public final float[] horseshoe = new float[NUM_CHANNELS];
+    public int horseshoeVersion = 0;
+    public float battery = 0;
+    public int batteryVersion = 0;
+    public int touchingForehead = 0;
+    public int touchingForeheadVersion = 0;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public synchronized void setBand(int band, float[] values) {
+        System.arraycopy(values, 0, bands[band], 0, NUM_CHANNELS);
+        bandVersions[band]++;
+    }
+
+    public synchronized void setHorseshoe(float[] values) {
+        System.arraycopy(values, 0, horseshoe, 0, NUM_CHANNELS);
+        horseshoeVersion++;
+    }
+
+    public synchronized void setBattery(float percent) {
+        battery = percent;
+        batteryVersion++;
+    }
+
+    public synchronized void setTouchingForehead(int value) {
+        touchingForehead = value;
+        touchingForeheadVersion++;
+    }
+
+    public synchronized void copyTo(LatestValues out) {
+        for (int b = 0; b < NUM_BANDS; b++) {
+            System.arraycopy(bands[b], 0, out.bands[b], 0, NUM_CHANNELS);
+            out.bandVersions[b] = bandVersions[b];
+        }
+        System.arraycopy(horseshoe, 0, out.horseshoe, 0, NUM_CHANNELS);
+        out.horseshoeVersion = horseshoeVersion;
+        out.battery = battery;
+        out.batteryVersion = batteryVersion;
+        out.touchingForehead = touchingForehead;
+        out.touchingForeheadVersion = touchingForeheadVersion;
+    }
+}
@@ -0,0 +1,70 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  OscAddresses
+ *
+ *  The OSC address patterns we send, shared so nothing needs a new String per message. Per-address
+ *  settings (rates, quantization) are keyed by these; a per-device prefix is only added when a
+ *  message is encoded.
+ */
+public final class OscAddresses {
+    public static final String ALPHA_ABSOLUTE = "/muse/elements/alpha_absolute";
+    public static final String BETA_ABSOLUTE = "/muse/elements/beta_absolute";
+    public static final String DELTA_ABSOLUTE = "/muse/elements/delta_absolute";
+    public static final String GAMMA_ABSOLUTE = "/muse/elements/gamma_absolute";
+    public static final String THETA_ABSOLUTE = "/muse/elements/theta_absolute";
+    public static final String HORSESHOE = "/muse/elements/horseshoe";
+    public static final String TOUCHING_FOREHEAD = "/muse/elements/touching_forehead";
+    public static final String BLINK = "/muse/elements/blink";
+    public static final String JAW_CLENCH = "/muse/elements/jaw_clench";
+    public static final String EEG = "/muse/eeg";
+    public static final String STREAMER_STATS = "/streamer/stats";
+    public static final String STREAMER_SYNC = "/streamer/sync";         // see ClockSync
+
+    // indexed by LatestValues.ALPHA ... LatestValues.THETA
+    public static final String[] BANDS = {
+        ALPHA_ABSOLUTE, BETA_ABSOLUTE, DELTA_ABSOLUTE, GAMMA_ABSOLUTE, THETA_ABSOLUTE
+    };
+
+    // EegBandPowers output when it doesn't replace libmuse's bands, same order as BANDS
+    public static final String[] DSP_BANDS = {
+        "/muse/dsp/alpha_absolute", "/muse/dsp/beta_absolute", "/muse/dsp/delta_absolute",
+        "/muse/dsp/gamma_absolute", "/muse/dsp/theta_absolute"
+    };
+
+    // DerivedMetrics, same order as BANDS
+    public static final String[] RELATIVE = {
+        "/muse/elements/alpha_relative", "/muse/elements/beta_relative", "/muse/elements/delta_relative",
+        "/muse/elements/gamma_relative", "/muse/elements/theta_relative"
+    };
+    public static final String[] BAND_MEANS = {
+        "/muse/derived/alpha_mean", "/muse/derived/beta_mean", "/muse/derived/delta_mean",
+        "/muse/derived/gamma_mean", "/muse/derived/theta_mean"
+    };
+    // indexed by DerivedMetrics.ALPHA_THETA and BETA_ALPHA
+    public static final String[] RATIOS = {
+        "/muse/derived/alpha_theta", "/muse/derived/beta_alpha"
+    };
+
+    // only sent on the event lane, as 1 or 0 when they start or stop
+    public static final String[] ARTIFACT_EVENTS = { BLINK, JAW_CLENCH };
+
+    // every data address a pipeline sends, besides DSP_BANDS, the derived metrics and ARTIFACT_EVENTS
+    public static final String[] ALL = {
+        ALPHA_ABSOLUTE, BETA_ABSOLUTE, DELTA_ABSOLUTE, GAMMA_ABSOLUTE, THETA_ABSOLUTE,
+        HORSESHOE, TOUCHING_FOREHEAD, EEG
+    };
+
+    // "/" + the MAC address without separators, e.g. "/0055DAB01234"
+    public static String devicePrefix(String macAddress) {
+        StringBuilder sb = new StringBuilder("/");
+        for (int i = 0; i < macAddress.length(); i++) {
+            char c = macAddress.charAt(i);
+            if (Character.isLetterOrDigit(c))
+                sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    private OscAddresses() {}
+}
@@ -0,0 +1,133 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  OscBundler
+ *
+ *  Keeps the latest sample for a fixed set of addresses and writes them out together as one
+ *  timestamped OSC #bundle, so a receiver gets one consistent frame per tick instead of one
+ *  datagram per address. Owned and used by the sender thread only.
+ *
+ *  A bundle is only written once at least one value is fresh (see hasFreshData()), and then
+ *  every "latest" address (the band powers) goes in with its latest value, repeated if no new
+ *  one arrived since the last bundle, so each bundle is a complete frame. "Changed" addresses
+ *  (horseshoe, touching_forehead) are only included when their value differs from what was last
+ *  bundled, or when they were offered as forced, a deadband keep-alive that has to go out even
+ *  though nothing changed. wasInLastBundle() tells the fresh values from the repeated ones.
+ */
+public class OscBundler {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public OscBundler(String[] latestAddresses, String[] changedAddresses, int maxValues) {
+        entries = new Entry[latestAddresses.length + changedAddresses.length];
+        int n = 0;
+        for (String address : latestAddresses)
+            entries[n++] = new Entry(address, false, maxValues);
+        for (String address : changedAddresses)
+            entries[n++] = new Entry(address, true, maxValues);
+    }
+
+    // Takes the sample if its address is bundled, returns false if it should be sent on its own.
+    // A forced sample goes into the next bundle even if its address is changed-only and it isn't
+    public boolean offer(Sample sample, boolean forced) {
+        for (int i = 0; i < entries.length; i++) {
+            Entry e = entries[i];
+            if (e.address.equals(sample.address)) {
+                e.latest.copyFrom(sample);
+                e.hasValue = true;
+                e.fresh = true;
+                e.forced |= forced;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True if at least one band has a new value since the last bundle
+    public boolean hasFreshData() {
+        for (int i = 0; i < entries.length; i++) {
+            Entry e = entries[i];
+            if (e.fresh && e.isDue())
+                return true;
+        }
+        return false;
+    }
+
+    // Writes a #bundle with every band that has a value, fresh or not, and any changed state.
+    // Returns the number of messages
+    public int writeBundle(ByteBuffer buf, long timetag, QuantizerTable quantizers, String prefix) {
+        int messages = 0;
+        OscEncoder.writeBundleHeader(buf, timetag);
+
+        for (int i = 0; i < entries.length; i++) {
+            Entry e = entries[i];
+            e.inLastBundle = false;
+            if (!e.hasValue || !e.isDue())
+                continue;
+
+            int sizePosition = OscEncoder.beginBundleElement(buf);
+            if (e.latest.isInt)
+                OscEncoder.writeMessage(buf, prefix, e.address, e.latest.intValue);
+            else
+                quantizers.forAddress(e.address).writeMessage(buf, prefix, e.address, e.latest.values, e.latest.count);
+            OscEncoder.endBundleElement(buf, sizePosition);
+
+            e.sent.copyFrom(e.latest);
+            e.hasSent = true;
+            e.inLastBundle = e.fresh;
+            e.fresh = false;
+            e.forced = false;
+            messages++;
+        }
+        return messages;
+    }
+
+    //-- which entries had a new value in the last writeBundle(), for the sender's per-address stats
+
+    public int getEntryCount() { return entries.length; }
+    public String getAddress(int entry) { return entries[entry].address; }
+    public boolean wasInLastBundle(int entry) { return entries[entry].inLastBundle; }
+    public long getReceivedNanos(int entry) { return entries[entry].sent.receivedNanos; }
+
+    //-------- PRIVATE CLASSES --------/
+    private static class Entry {
+        Entry(String _address, boolean _changedOnly, int maxValues) {
+            address = _address;
+            changedOnly = _changedOnly;
+            latest = new Sample(maxValues);
+            sent = new Sample(maxValues);
+        }
+
+        boolean isDue() {
+            return !changedOnly || forced || isChanged();
+        }
+
+        boolean isChanged() {
+            if (!hasSent || latest.isInt != sent.isInt)
+                return true;
+            if (latest.isInt)
+                return latest.intValue != sent.intValue;
+            if (latest.count != sent.count)
+                return true;
+            for (int i = 0; i < latest.count; i++) {
+                if (Float.floatToIntBits(latest.values[i]) != Float.floatToIntBits(sent.values[i]))
+                    return true;
+            }
+            return false;
+        }
+
+        final String address;
+        final boolean changedOnly;
+        final Sample latest;
+        final Sample sent;
+        boolean hasValue = false;
+        boolean hasSent = false;
+        boolean fresh = false;
+        boolean forced = false;
+        boolean inLastBundle = false;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final Entry[] entries;
+}
@@ -0,0 +1,97 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ *  OscDecoder
+ *
+ *  Reads the OSC 1.0 messages we receive (control messages, a few per minute), the other way
+ *  around from OscEncoder. Arguments come back as Objects since this isn't on any data path:
+ *  String for s, Integer for i, Float for f, Long for h and t, Double for d, Boolean for T and
+ *  F. Anything malformed or with another type throws IllegalArgumentException.
+ */
+public class OscDecoder {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    // The message from buf's position to its limit, or null if it is a #bundle
+    public static Message readMessage(ByteBuffer buf) {
+        try {
+            String address = readString(buf);
+            if (address.equals("#bundle"))
+                return null;
+            if (!address.startsWith("/"))
+                throw new IllegalArgumentException("not an OSC address: " + address);
+
+            String tags = buf.hasRemaining() ? readString(buf) : ",";
+            if (!tags.startsWith(","))
+                throw new IllegalArgumentException("bad type tags: " + tags);
+            Object[] args = new Object[tags.length() - 1];
+            for (int i = 0; i < args.length; i++)
+                args[i] = readArgument(buf, tags.charAt(i + 1));
+            return new Message(address, args);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated OSC message");
+        }
+    }
+
+    // A 0-terminated ASCII string and its padding
+    public static String readString(ByteBuffer buf) {
+        StringBuilder sb = new StringBuilder();
+        byte b;
+        while ((b = buf.get()) != 0)
+            sb.append((char) (b & 0xff));
+        while ((buf.position() & 3) != 0)
+            buf.get();
+        return sb.toString();
+    }
+
+    //-------- PUBLIC CLASSES --------/
+    public static class Message {
+        public final String address;
+        public final Object[] args;
+
+        public Message(String _address, Object[] _args) {
+            address = _address;
+            args = _args;
+        }
+
+        public int size() { return args.length; }
+
+        // Argument i as a timetag or int64, IllegalArgumentException if it is something else
+        public long getLong(int i) {
+            if (i >= args.length || !(args[i] instanceof Long))
+                throw new IllegalArgumentException(address + " needs a timetag or int64 as argument " + i);
+            return (Long) args[i];
+        }
+
+        // Argument i as a String, whatever its type, null if there isn't one
+        public String getString(int i) {
+            return i < args.length ? String.valueOf(args[i]) : null;
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private static Object readArgument(ByteBuffer buf, char tag) {
+        switch (tag) {
+            case 's':
+            case 'S':
+                return readString(buf);
+            case 'i':
+                return buf.getInt();
+            case 'f':
+                return buf.getFloat();
+            case 'h':
+            case 't':
+                return buf.getLong();
+            case 'd':
+                return buf.getDouble();
+            case 'T':
+                return Boolean.TRUE;
+            case 'F':
+                return Boolean.FALSE;
+            default:
+                throw new IllegalArgumentException("unsupported OSC type: " + tag);
+        }
+    }
+}
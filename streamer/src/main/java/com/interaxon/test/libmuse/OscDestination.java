@@ -0,0 +1,253 @@
+package com.interaxon.test.libmuse;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ *  OscDestination
+ *
+ *  One place the sender writes every encoded datagram to: a unicast host, a subnet broadcast
+ *  address or an IP multicast group. Each has its own non-blocking DatagramChannel and counters,
+ *  and a destination that keeps failing is skipped for a while instead of slowing down the
+ *  others. Opened, written and closed by the sender thread only; a host name is looked up on a
+ *  thread of its own, so a slow or dead DNS server never holds up the sender (packets for the
+ *  destination are skipped until the address is there).
+ *
+ *  Specs are written "host:port", "broadcast:192.168.1.255:port" or "multicast:239.0.0.1:port".
+ *  Multicast goes out with the system default TTL (1, i.e. the local network). "tcp:host:port"
+ *  and "tcp-len:host:port" make an OscTcpDestination instead, see there.
+ */
+public class OscDestination {
+    public enum Kind { UNICAST, BROADCAST, MULTICAST, TCP }
+
+    public static final int MAX_FAILURES = 3;               // in a row, before backing off
+    public static final long BACKOFF_NANOS = 1000000000L;   // how long a failing destination is skipped
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public OscDestination(Kind _kind, String _host, int _port) {
+        kind = _kind;
+        host = _host;
+        port = _port;
+    }
+
+    public static OscDestination parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            if (parts.length == 2)
+                return new OscDestination(Kind.UNICAST, parts[0].trim(), Integer.parseInt(parts[1].trim()));
+            if (parts.length == 3) {
+                String kind = parts[0].trim().toLowerCase();
+                int port = Integer.parseInt(parts[2].trim());
+                if (kind.equals("broadcast"))
+                    return new OscDestination(Kind.BROADCAST, parts[1].trim(), port);
+                if (kind.equals("multicast"))
+                    return new OscDestination(Kind.MULTICAST, parts[1].trim(), port);
+                if (kind.equals("unicast") || kind.equals("udp"))
+                    return new OscDestination(Kind.UNICAST, parts[1].trim(), port);
+                if (kind.equals("tcp"))
+                    return new OscTcpDestination(OscTcpDestination.Framing.SLIP, parts[1].trim(), port);
+                if (kind.equals("tcp-len"))
+                    return new OscTcpDestination(OscTcpDestination.Framing.LENGTH, parts[1].trim(), port);
+            }
+        } catch (NumberFormatException e) {
+            // falls through to the error below
+        }
+        throw new IllegalArgumentException("bad destination: " + spec);
+    }
+
+    // Writes the packet (from position 0 to its limit), returns false if it didn't go out
+    public boolean write(ByteBuffer packet, long now) {
+        if (!ready(now))
+            return false;
+
+        packet.position(0);
+        try {
+            int written = channel.write(packet);
+            if (written == 0) {
+                // socket buffer is full, drop it rather than wait
+                full++;
+                return false;
+            }
+            countSent(written);
+            return true;
+        } catch (IOException e) {
+            // e.g. PortUnreachableException from the last datagram, or no route to the host
+            fail(now);
+            return false;
+        }
+    }
+
+    // False if it can't be opened now, also while its host name is still being looked up
+    public boolean open() {
+        try {
+            InetSocketAddress address = resolve();
+            if (address == null)
+                return false;
+            channel = DatagramChannel.open();
+            if (kind == Kind.BROADCAST)
+                channel.socket().setBroadcast(true);
+            channel.connect(address);
+            channel.configureBlocking(false);
+            return true;
+        } catch (IOException e) {
+            System.out.println("OscDestination: can't open " + this + " " + e);
+            close();
+            return false;
+        }
+    }
+
+    // Writes out whatever write() held back, returns how many nanos until it wants to be called
+    // again (Long.MAX_VALUE if nothing is waiting). Datagrams go out at once, so never for these
+    public long flush(long now) {
+        return Long.MAX_VALUE;
+    }
+
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+            channel = null;
+        }
+    }
+
+    public long getSentCount() { return sent; }
+    public long getSentBytes() { return sentBytes; }
+    public long getFailedCount() { return failed; }
+    public long getFullCount() { return full; }
+    public long getSkippedCount() { return skipped; }
+    // packets taken by write() but lost before they reached the socket (a TCP connection breaking)
+    public long getDroppedCount() { return dropped; }
+
+    @Override
+    public String toString() {
+        return (kind == Kind.UNICAST ? "" : kind.toString().toLowerCase() + ":") + host + ":" + port;
+    }
+
+    //-------- PROTECTED FUNCTIONS --------/
+    // False while a failing destination is skipped or if it can't be opened again
+    protected boolean ready(long now) {
+        if (!isOpen() || failuresInRow >= MAX_FAILURES) {
+            if (now - lastFailure < BACKOFF_NANOS) {
+                skipped++;
+                return false;
+            }
+            // time to try again
+            failuresInRow = 0;
+            if (!isOpen() && !open()) {
+                // a lookup still running isn't a failure, the next write checks on it again
+                if (isResolving())
+                    skipped++;
+                else
+                    fail(now);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isOpen() {
+        return channel != null;
+    }
+
+    // The address to connect to, or null while its lookup runs. Numeric addresses need no
+    // lookup, a host name gets a new one on each open so a changed address is picked up.
+    // Throws if the lookup failed
+    protected InetSocketAddress resolve() throws UnknownHostException {
+        if (host.indexOf(':') >= 0 || host.matches("[0-9.]+")) {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved())
+                throw new UnknownHostException(host);
+            return address;
+        }
+
+        Lookup running = lookup;
+        if (running == null) {
+            lookup = new Lookup(host);
+            Thread thread = new Thread(lookup, "OscDestination lookup " + host);
+            thread.setDaemon(true);
+            thread.start();
+            return null;
+        }
+        if (!running.done)
+            return null;
+        lookup = null;
+        if (running.address == null)
+            throw new UnknownHostException(host);
+        return new InetSocketAddress(running.address, port);
+    }
+
+    protected boolean isResolving() {
+        return lookup != null;
+    }
+
+    protected void countSent(int bytes) {
+        sent++;
+        sentBytes += bytes;
+        failuresInRow = 0;
+    }
+
+    protected void countFull() {
+        full++;
+    }
+
+    protected void countSkipped() {
+        skipped++;
+    }
+
+    protected void countDropped(int packets) {
+        dropped += packets;
+    }
+
+    protected void fail(long now) {
+        failed++;
+        failuresInRow++;
+        lastFailure = now;
+    }
+
+    //-------- PRIVATE CLASSES --------/
+    // One host name lookup, on its own thread
+    private static class Lookup implements Runnable {
+        final String host;
+        volatile InetAddress address;       // null if it failed
+        volatile boolean done = false;
+
+        Lookup(String _host) {
+            host = _host;
+        }
+
+        @Override
+        public void run() {
+            try {
+                address = InetAddress.getByName(host);
+            } catch (UnknownHostException e) {
+                address = null;
+            }
+            done = true;
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    protected final Kind kind;
+    protected final String host;
+    protected final int port;
+    private DatagramChannel channel;
+    private Lookup lookup;                  // running or finished and not picked up yet
+
+    private int failuresInRow = 0;
+    private long lastFailure = 0;
+
+    // only written by the sender thread
+    private volatile long sent = 0;
+    private volatile long sentBytes = 0;
+    private volatile long failed = 0;
+    private volatile long full = 0;
+    private volatile long skipped = 0;
+    private volatile long dropped = 0;
+}
@@ -0,0 +1,145 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  OscEncoder
+ *
+ *  Writes OSC 1.0 messages straight into a caller-owned ByteBuffer, so the send path doesn't
+ *  need an OscMessage, boxed arguments or a byte[] per packet. Addresses are expected to be
+ *  plain ASCII, which all of the /muse/... patterns are.
+ *
+ *  The buffer is written in network (big-endian) order, which is the ByteBuffer default. Padding
+ *  is relative to the buffer start, so messages and bundles have to begin on a 4-byte boundary.
+ */
+public class OscEncoder {
+    //-------- PUBLIC FUNCTIONS --------/
+
+    // Message with count float arguments, e.g. "/muse/elements/alpha_absolute ,ffff"
+    public static void writeMessage(ByteBuffer buf, String address, float[] values, int count) {
+        writeMessage(buf, "", address, values, count);
+    }
+
+    // Same, with prefix (e.g. a device id) written in front of the address
+    public static void writeMessage(ByteBuffer buf, String prefix, String address, float[] values, int count) {
+        writeAddress(buf, prefix, address);
+        writeTypeTags(buf, 'f', count);
+
+        for (int i = 0; i < count; i++)
+            buf.putFloat(values[i]);
+    }
+
+    // Message with a single int argument, e.g. "/muse/elements/touching_forehead ,i"
+    public static void writeMessage(ByteBuffer buf, String address, int value) {
+        writeMessage(buf, "", address, value);
+    }
+
+    // Same, with prefix written in front of the address
+    public static void writeMessage(ByteBuffer buf, String prefix, String address, int value) {
+        writeAddress(buf, prefix, address);
+        writeTypeTags(buf, 'i', 1);
+
+        buf.putInt(value);
+    }
+
+    // Type tag string with count copies of one tag, e.g. ",ffff"
+    public static void writeTypeTags(ByteBuffer buf, char tag, int count) {
+        buf.put((byte) ',');
+        for (int i = 0; i < count; i++)
+            buf.put((byte) tag);
+        buf.put((byte) 0);
+        pad(buf);
+    }
+
+    // Type tag string for mixed arguments, tags without the leading ',', e.g. "siii"
+    public static void writeTypeTags(ByteBuffer buf, String tags) {
+        buf.put((byte) ',');
+        writeString(buf, tags);
+    }
+
+    // Pads the end of a blob (or anything else) to the next 4-byte boundary
+    public static void pad(ByteBuffer buf) {
+        while ((buf.position() & 3) != 0)
+            buf.put((byte) 0);
+    }
+
+    // "#bundle" header followed by its 64-bit NTP timetag, elements are added after this
+    public static void writeBundleHeader(ByteBuffer buf, long timetag) {
+        writeString(buf, "#bundle");
+        buf.putLong(timetag);
+    }
+
+    // Reserves the int32 size of a bundle element, returns its position for endBundleElement()
+    public static int beginBundleElement(ByteBuffer buf) {
+        int sizePosition = buf.position();
+        buf.putInt(0);
+        return sizePosition;
+    }
+
+    // Fills in the size of the element written since beginBundleElement()
+    public static void endBundleElement(ByteBuffer buf, int sizePosition) {
+        buf.putInt(sizePosition, buf.position() - sizePosition - 4);
+    }
+
+    // NTP timetag (seconds since 1900 in the upper 32 bits, fraction in the lower) for a
+    // System.currentTimeMillis() value
+    public static long toTimetag(long millis) {
+        long seconds = millis / 1000 + NTP_EPOCH_OFFSET;
+        long fraction = ((millis % 1000) << 32) / 1000;
+        return (seconds << 32) | fraction;
+    }
+
+    // NTP timetag for nanoseconds since 1970, and back
+    public static long toTimetagNanos(long nanos) {
+        long seconds = nanos / 1000000000L + NTP_EPOCH_OFFSET;
+        long fraction = ((nanos % 1000000000L) << 32) / 1000000000L;
+        return (seconds << 32) | fraction;
+    }
+
+    public static long fromTimetagNanos(long timetag) {
+        long seconds = (timetag >>> 32) - NTP_EPOCH_OFFSET;
+        long fraction = timetag & 0xffffffffL;
+        return seconds * 1000000000L + ((fraction * 1000000000L) >>> 32);
+    }
+
+    // OSC-string: ASCII characters, at least one null terminator, padded to a multiple of 4
+    public static void writeString(ByteBuffer buf, String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++)
+            buf.put((byte) s.charAt(i));
+        buf.put((byte) 0);
+        pad(buf);
+    }
+
+    // prefix + address as one OSC-string, without concatenating them first
+    public static void writeAddress(ByteBuffer buf, String prefix, String address) {
+        int len = prefix.length();
+        for (int i = 0; i < len; i++)
+            buf.put((byte) prefix.charAt(i));
+        writeString(buf, address);
+    }
+
+    // Size in bytes of a message with count float (or int) arguments
+    public static int messageSize(String address, int count) {
+        return messageSize("", address, count);
+    }
+
+    // Same with prefix in front of address, padded as the one string writeAddress() makes of them
+    public static int messageSize(String prefix, String address, int count) {
+        // ',' + count tags + terminator, padded
+        return addressSize(prefix, address) + ((count + 5) & ~3) + 4 * count;
+    }
+
+    // Size in bytes of the OSC-string writeAddress() writes
+    public static int addressSize(String prefix, String address) {
+        return (prefix.length() + address.length() + 4) & ~3;
+    }
+
+    // Size in bytes of an OSC-string, including terminator and padding
+    public static int stringSize(String s) {
+        return (s.length() + 4) & ~3;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long NTP_EPOCH_OFFSET = 2208988800L;       // seconds from 1900 to 1970
+}
@@ -0,0 +1,594 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ *  OscSender
+ *
+ *  One long-lived thread that owns the OSC destinations (one or more OscDestinations, each with
+ *  its own DatagramChannel or SocketChannel). It is the single consumer of a SampleRing: each sample is copied out
+ *  of the ring, encoded once with OscEncoder into one direct ByteBuffer, and that buffer is
+ *  written to every destination in turn. Nothing is allocated per message once the
+ *  sender is running, and neither the libmuse callback thread nor the UI thread ever waits on
+ *  the network.
+ *
+ *  Every sample goes through its address's SignalFilter (if it has one) and then the
+ *  RateController, which drops samples or holds the latest one per address according to its
+ *  policy; held samples are sent once their window opens. Filtering first means whatever the
+ *  rate limit lets through has every sample before it in it. Last, the DeadbandTable holds back
+ *  samples that haven't changed enough since the last one sent for their address.
+ *
+ *  With an AdaptiveRate set, the sender reports its health to it every control period and
+ *  scales the RateController's rates by the answer, and drops samples that waited in the ring
+ *  for longer than its stale limit instead of sending them late.
+ *
+ *  With an event ring set, its samples (artifact edges) take a lane of their own: every pass of
+ *  the loop sends whatever is in it first, each as its own datagram flushed at once, without
+ *  filters, rate limits, deadbands, bundling or staleness checks. An event waits for at most
+ *  the one datagram being written when it arrives, however far behind the bulk ring is.
+ *
+ *  With a bundler set, samples for the bundled addresses are held as latest values instead and
+ *  written together as one timestamped #bundle every bundle period.
+ *
+ *  With batching set for an address (raw EEG), consecutive samples for it that are already
+ *  waiting in the ring are packed into one #bundle of up to maxBatch messages, so a Bluetooth
+ *  burst of EEG frames costs one datagram instead of one per frame, without waiting for more.
+ *
+ *  A destination may hold datagrams back to write several at once (OscTcpDestination); the
+ *  sender flushes them all whenever the ring runs empty, so that never adds latency of its own.
+ *
+ *  With timetags set, every message goes out in a #bundle of its own timetagged with when its
+ *  sample was taken, in the receiver's time as the ClockSync estimates it (batches nest one such
+ *  bundle per frame), and a /streamer/sync request goes to every destination every sync period.
+ *
+ *  With a PlayoutBuffer set, samples taken from the ring wait in it until their playout time
+ *  and leave at the pace they were taken at instead of in Bluetooth's bursts. The sender thread
+ *  parks until the next one is due, so it is also the timer.
+ *
+ *  setRate() changes an address's policy while the sender runs (from the control port); the
+ *  change is queued and applied by the sender thread, which owns the RateController.
+ *
+ *  Every stats period the sender also snapshots its StreamStats and, unless publishing is off,
+ *  sends them to every destination as a /streamer/stats #bundle.
+ */
+public class OscSender implements Runnable {
+    public static final int MAX_PACKET_SIZE = 1472;        // one unfragmented IPv4 UDP datagram on ethernet
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public OscSender(SampleRing _ring) {
+        ring = _ring;
+
+        current = new Sample(ring.maxValues());
+        packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "OscSender " + destinations + addressPrefix);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    // Another place to send everything to, has to be added before start()
+    public void addDestination(OscDestination destination) {
+        destinations.add(destination);
+    }
+
+    public ArrayList<OscDestination> getDestinations() { return destinations; }
+
+    // Put in front of every address (e.g. "/0055DAB01234"), has to be set before start()
+    public void setAddressPrefix(String prefix) {
+        addressPrefix = prefix;
+    }
+
+    // Per-address precision of float values, has to be set before start()
+    public void setQuantizers(QuantizerTable _quantizers) {
+        quantizers = _quantizers;
+    }
+
+    // Per-address send rates, has to be set before start()
+    public void setRateController(RateController _rates) {
+        rates = _rates;
+    }
+
+    // Changes one address's rate policy, from any thread, while running. The spec is checked
+    // here (IllegalArgumentException) and applied by the sender thread before its next sample
+    public void setRate(String address, String spec) {
+        RateController.validate(spec);
+        rateChanges.add(new String[] { address, spec });
+    }
+
+    // Per-address smoothing and decimation, has to be set before start()
+    public void setFilters(FilterTable _filters) {
+        filters = _filters;
+    }
+
+    // Per-address change detection, has to be set before start()
+    public void setDeadbands(DeadbandTable _deadbands) {
+        deadbands = _deadbands;
+    }
+
+    // Scale rates to the network's health, has to be set before start()
+    public void setAdaptiveRate(AdaptiveRate _adaptive) {
+        adaptive = _adaptive;
+    }
+
+    // The priority lane for discrete events, has to be set before start()
+    public void setEvents(SampleRing _events) {
+        events = _events;
+    }
+
+    // Timetag every message with its sample's time, and ask for the receiver's time every
+    // syncPeriodMS (0 for never). Has to be set before start()
+    public void setTimetags(ClockSync _clock, long syncPeriodMS) {
+        clock = _clock;
+        syncPeriodNanos = syncPeriodMS * 1000000L;
+    }
+
+    // Pace samples out by their sample times, has to be set before start()
+    public void setPlayout(PlayoutBuffer _playout) {
+        playout = _playout;
+        incoming = new Sample(ring.maxValues());
+    }
+
+    // Bundle mode, has to be set before start()
+    public void setBundler(OscBundler _bundler, long periodMS) {
+        bundler = _bundler;
+        bundlePeriodNanos = periodMS * 1000000L;
+    }
+
+    // Batch consecutive samples for this address into one datagram, has to be set before start()
+    public void setBatching(String address, int maxBatch) {
+        batchAddress = address;
+        batchSize = maxBatch;
+        batchReceived = new long[maxBatch];
+    }
+
+    // Where counters and latencies go, snapshot and published every periodMS; 0 still takes
+    // the snapshots (every DEFAULT_STATS_PERIOD_MS) but doesn't send them. Has to be set before start()
+    public void setStats(StreamStats _stats, long periodMS) {
+        stats = _stats;
+        endToEndLatency = stats.getLatency(StreamStats.E2E);
+        queueLatency = stats.getLatency(StreamStats.QUEUE);
+        sendLatency = stats.getLatency(StreamStats.SEND);
+        eventLatency = stats.getLatency(StreamStats.EVENT);
+        publishStats = periodMS > 0;
+        statsPeriodNanos = (periodMS > 0 ? periodMS : DEFAULT_STATS_PERIOD_MS) * 1000000L;
+    }
+
+    public SampleRing getRing() { return ring; }
+    public SampleRing getEvents() { return events; }
+    public long getBundleCount() { return bundles; }
+    public long getBatchedCount() { return batched; }
+    // datagrams (and their bytes) that went out to at least one destination, and ones that didn't
+    public long getSentCount() { return sent; }
+    public long getSentBytes() { return sentBytes; }
+    public long getFailedCount() { return failed; }
+    public StreamStats getStats() { return stats; }
+    public RateController getRateController() { return rates; }
+    public FilterTable getFilters() { return filters; }
+    public DeadbandTable getDeadbands() { return deadbands; }
+    public AdaptiveRate getAdaptiveRate() { return adaptive; }
+    public PlayoutBuffer getPlayout() { return playout; }
+    // samples dropped for waiting in the ring too long, see AdaptiveRate
+    public long getStaleCount() { return stale; }
+    // from the listener queuing a sample to this thread taking it, and from encoding a
+    // datagram to it being written to every destination
+    public LatencyStats getQueueLatency() { return stats.getLatency(StreamStats.QUEUE); }
+    public LatencyStats getSendLatency() { return stats.getLatency(StreamStats.SEND); }
+
+    @Override
+    public void run() {
+        // connecting happens here, so it never runs on the UI thread, and host names are looked
+        // up on threads of their own; one that can't be opened yet is retried by its write() later
+        for (int i = 0; i < destinations.size(); i++)
+            destinations.get(i).open();
+
+        long nextBundle = System.nanoTime() + bundlePeriodNanos;
+        long nextStats = System.nanoTime() + statsPeriodNanos;
+        long nextAdapt = System.nanoTime() + (adaptive != null ? adaptive.getPeriodNanos() : 0);
+        long nextSync = System.nanoTime();
+        boolean pending = false;            // current holds a sample that still has to be sent
+        while (running) {
+            if (events != null)
+                sendEvents();
+            for (String[] change; (change = rateChanges.poll()) != null; )
+                rates.set(change[0], change[1]);
+
+            long statsNow = System.nanoTime();
+            if (statsNow - nextStats >= 0) {
+                sendStats(statsNow);
+                nextStats += statsPeriodNanos * (1 + (statsNow - nextStats) / statsPeriodNanos);
+            }
+            if (adaptive != null && statsNow - nextAdapt >= 0) {
+                adapt();
+                nextAdapt += adaptive.getPeriodNanos() * (1 + (statsNow - nextAdapt) / adaptive.getPeriodNanos());
+            }
+            if (syncPeriodNanos > 0 && statsNow - nextSync >= 0) {
+                sendSync(statsNow);
+                nextSync += syncPeriodNanos * (1 + (statsNow - nextSync) / syncPeriodNanos);
+            }
+
+            if (bundler != null) {
+                long now = System.nanoTime();
+                if (now - nextBundle >= 0) {
+                    if (bundler.hasFreshData())
+                        sendBundle();
+                    // skip ticks we missed rather than bursting to catch up
+                    nextBundle += bundlePeriodNanos * (1 + (now - nextBundle) / bundlePeriodNanos);
+                }
+            }
+
+            if (!pending) {
+                // held latest-value samples whose rate window has opened
+                while (rates.pollDue(System.nanoTime(), current)) {
+                    if (deadbands.admit(current, System.nanoTime()))
+                        sendSingle(current);
+                }
+
+                if (!pollNext(current)) {
+                    // nothing else to send for now, out with whatever a destination held back
+                    long now = System.nanoTime();
+                    long wait = Math.min(Math.min(IDLE_WAIT_NANOS, rates.nanosUntilDue(now)), nextStats - now);
+                    if (playout != null)
+                        wait = Math.min(wait, playout.nanosUntilDue(now));
+                    wait = Math.min(wait, flushAll(now));
+                    if (adaptive != null)
+                        wait = Math.min(wait, nextAdapt - now);
+                    if (syncPeriodNanos > 0)
+                        wait = Math.min(wait, nextSync - now);
+                    if (bundler != null)
+                        wait = Math.min(wait, nextBundle - now);
+                    if (events != null)
+                        ring.await(Math.max(0, wait), events);
+                    else
+                        ring.await(Math.max(0, wait));
+                    continue;
+                }
+            }
+            pending = false;
+
+            if (!admit(current))
+                continue;
+
+            if (batchSize > 1 && current.address.equals(batchAddress) &&
+                (bundler == null || !bundler.offer(current, deadbands.wasKeepAlive()))) {
+                pending = sendBatch();
+                continue;
+            }
+
+            sendSingle(current);
+        }
+
+        for (int i = 0; i < destinations.size(); i++)
+            destinations.get(i).close();
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // The next sample to send, straight from the ring or from the playout buffer once its time
+    // has come, skipping stale ones. False if there is none for now
+    private boolean pollNext(Sample out) {
+        if (playout == null) {
+            while (ring.poll(out)) {
+                if (!isStale(out))
+                    return true;
+            }
+            return false;
+        }
+
+        long now = System.nanoTime();
+        while (!playout.isFull() && ring.poll(incoming)) {
+            if (!isStale(incoming))
+                playout.offer(incoming, now);
+        }
+        return playout.poll(now, out);
+    }
+
+    // Records how long the sample waited in the ring, true if it waited too long to still be sent
+    private boolean isStale(Sample sample) {
+        long waited = System.nanoTime() - sample.receivedNanos;
+        queueLatency.record(waited);
+        if (adaptive == null || waited <= adaptive.getStaleNanos())
+            return false;
+        stale++;
+        return true;
+    }
+
+    // Reports the last control period's health to the AdaptiveRate and applies its scale
+    private void adapt() {
+        long refused = failed;
+        for (int i = 0; i < destinations.size(); i++)
+            refused += destinations.get(i).getFullCount();
+        long writes = writeCount - lastWriteCount;
+        long meanWrite = writes == 0 ? 0 : (writeNanos - lastWriteNanos) / writes;
+
+        double scale = adaptive.update(ring.size(), ring.capacity(), meanWrite, refused - lastRefused);
+        rates.setScale(scale, adaptive.getFloorHz());
+
+        lastRefused = refused;
+        lastWriteCount = writeCount;
+        lastWriteNanos = writeNanos;
+    }
+
+    // Filters the sample, true if neither the rate limit nor the deadband hold it back
+    private boolean admit(Sample sample) {
+        if (!filters.apply(sample))
+            return false;
+        long now = System.nanoTime();
+        return rates.admit(sample, now) && deadbands.admit(sample, now);
+    }
+
+    private void encode(Sample sample) {
+        if (sample.isInt)
+            OscEncoder.writeMessage(packet, addressPrefix, sample.address, sample.intValue);
+        else
+            quantizers.forAddress(sample.address).writeMessage(packet, addressPrefix, sample.address,
+                                                              sample.values, sample.count);
+    }
+
+    // Sends one sample on its own, or hands it to the bundler if that takes its address. Comes
+    // right after the sample's deadband check, which tells the bundler about keep-alives
+    private void sendSingle(Sample sample) {
+        if (bundler != null && bundler.offer(sample, deadbands.wasKeepAlive()))
+            return;
+
+        encodeStart = System.nanoTime();
+        packet.clear();
+        int element = beginTimetagged(sample);
+        encode(sample);
+        endTimetagged(element);
+        packet.flip();
+        boolean ok = write();
+
+        stats.onSent(sample.address, 1, ok);
+        if (ok)
+            endToEndLatency.record(System.nanoTime() - sample.receivedNanos);
+    }
+
+    private void sendBundle() {
+        encodeStart = System.nanoTime();
+        packet.clear();
+        bundler.writeBundle(packet, timetagNow(), quantizers, addressPrefix);
+        packet.flip();
+        boolean ok = write();
+        if (ok)
+            bundles++;
+
+        // only values that were new go into the per-address counts, repeated ones were already counted
+        long now = System.nanoTime();
+        for (int i = 0; i < bundler.getEntryCount(); i++) {
+            if (!bundler.wasInLastBundle(i))
+                continue;
+            stats.onSent(bundler.getAddress(i), 1, ok);
+            if (ok)
+                endToEndLatency.record(now - bundler.getReceivedNanos(i));
+        }
+    }
+
+    // Every event waiting on the lane, each written and flushed on its own
+    private void sendEvents() {
+        while (events.poll(event)) {
+            encodeStart = System.nanoTime();
+            packet.clear();
+            int element = beginTimetagged(event);
+            OscEncoder.writeMessage(packet, addressPrefix, event.address, event.intValue);
+            endTimetagged(element);
+            packet.flip();
+            boolean ok = write();
+            flushAll(System.nanoTime());
+
+            stats.onSent(event.address, 1, ok);
+            if (ok)
+                eventLatency.record(System.nanoTime() - event.receivedNanos);
+        }
+    }
+
+    // Snapshots the stats and, when publishing, sends them. Not counted as a sent datagram
+    private void sendStats(long now) {
+        stats.update(now, this);
+        if (!publishStats)
+            return;
+
+        long timetag = timetagNow();
+        int row = 0;
+        do {
+            packet.clear();
+            row = stats.writeStats(packet, addressPrefix, timetag, row);
+            packet.flip();
+            writeToAll(now);
+        } while (row > 0);
+    }
+
+    // Packs current and the following batch samples into one #bundle. Returns true if it stopped
+    // on a sample for another address (or one that won't fit), which is then left in current
+    // for the main loop. A waiting event ends the batch too, so it never waits for a full one.
+    private boolean sendBatch() {
+        boolean stoppedEarly = false;
+        int n = 0;
+
+        encodeStart = System.nanoTime();
+        packet.clear();
+        // with timetags the batch is stamped with its first frame, and each frame with its own
+        OscEncoder.writeBundleHeader(packet, clock != null ? clock.toTimetag(current.sampleNanos) : timetagNow());
+        int timetagged = clock != null ? TIMETAGGED_SIZE : 0;
+        do {
+            int sizePosition = OscEncoder.beginBundleElement(packet);
+            int element = beginTimetagged(current);
+            encode(current);
+            endTimetagged(element);
+            OscEncoder.endBundleElement(packet, sizePosition);
+            batchReceived[n] = current.receivedNanos;
+            n++;
+
+            if (n == batchSize)
+                break;
+            // an event that came in meanwhile cuts the batch short, it goes out right after it
+            if (events != null && events.size() > 0)
+                break;
+
+            // next waiting sample for the batch, skipping ones that aren't to be sent
+            boolean next = false;
+            while (pollNext(current)) {
+                if (!current.address.equals(batchAddress) ||
+                    packet.remaining() < 4 + timetagged + OscEncoder.messageSize(addressPrefix, current.address, current.count)) {
+                    stoppedEarly = true;
+                    break;
+                }
+                if (admit(current)) {
+                    next = true;
+                    break;
+                }
+            }
+            if (!next)
+                break;
+        } while (true);
+        packet.flip();
+
+        boolean ok = write();
+        if (ok)
+            batched += n;
+
+        stats.onSent(batchAddress, n, ok);
+        if (ok) {
+            long now = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                endToEndLatency.record(now - batchReceived[i]);
+        }
+        return stoppedEarly;
+    }
+
+    // A request for the receiver's time, flushed at once so it doesn't wait behind anything.
+    // Not counted as a sent datagram
+    private void sendSync(long now) {
+        packet.clear();
+        OscEncoder.writeAddress(packet, addressPrefix, OscAddresses.STREAMER_SYNC);
+        OscEncoder.writeTypeTags(packet, "t");
+        packet.putLong(clock.newRequest(System.nanoTime()));
+        packet.flip();
+        writeToAll(now);
+        flushAll(now);
+    }
+
+    // The timetag for now, in the receiver's time with timetags on
+    private long timetagNow() {
+        if (clock != null)
+            return clock.toTimetag(System.nanoTime());
+        return OscEncoder.toTimetag(System.currentTimeMillis());
+    }
+
+    // With timetags, starts a #bundle for the sample's message and returns the position of its
+    // element size for endTimetagged(), -1 without
+    private int beginTimetagged(Sample sample) {
+        if (clock == null)
+            return -1;
+        OscEncoder.writeBundleHeader(packet, clock.toTimetag(sample.sampleNanos));
+        return OscEncoder.beginBundleElement(packet);
+    }
+
+    private void endTimetagged(int sizePosition) {
+        if (sizePosition >= 0)
+            OscEncoder.endBundleElement(packet, sizePosition);
+    }
+
+    // Writes the encoded packet to every destination and counts it, true if at least one of them took it
+    private boolean write() {
+        int bytes = packet.limit();
+        boolean any = writeToAll(System.nanoTime());
+
+        if (any) {
+            sentBytes += bytes;
+            sent++;
+        } else {
+            failed++;
+        }
+        long elapsed = System.nanoTime() - encodeStart;
+        sendLatency.record(elapsed);
+        writeNanos += elapsed;
+        writeCount++;
+        return any;
+    }
+
+    // Flushes every destination, returns the soonest one of them wants to be flushed again
+    private long flushAll(long now) {
+        long soonest = Long.MAX_VALUE;
+        for (int i = 0; i < destinations.size(); i++)
+            soonest = Math.min(soonest, destinations.get(i).flush(now));
+        return soonest;
+    }
+
+    private boolean writeToAll(long now) {
+        boolean any = false;
+        for (int i = 0; i < destinations.size(); i++) {
+            if (destinations.get(i).write(packet, now))
+                any = true;
+        }
+        return any;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long IDLE_WAIT_NANOS = 50000000L;     // re-check running every 50ms when idle
+    private static final long DEFAULT_STATS_PERIOD_MS = 1000;
+    private static final int TIMETAGGED_SIZE = 20;      // "#bundle", the timetag and the element size
+
+    private final ArrayList<OscDestination> destinations = new ArrayList<OscDestination>();
+    private final SampleRing ring;
+
+    private final Sample current;           // consumer-owned copy of the sample being sent
+    private final Sample event = new Sample(1);     // and of the event being sent
+    private final ByteBuffer packet;
+    private String addressPrefix = "";
+    private QuantizerTable quantizers = new QuantizerTable(Quantizer.round(2));
+    private RateController rates = new RateController(1);
+    private final ConcurrentLinkedQueue<String[]> rateChanges = new ConcurrentLinkedQueue<String[]>();
+    private FilterTable filters = new FilterTable(1);
+    private DeadbandTable deadbands = new DeadbandTable(1, "");
+    private AdaptiveRate adaptive = null;
+    private PlayoutBuffer playout = null;
+    private Sample incoming = null;         // copy of a sample on its way into the playout buffer
+    private SampleRing events = null;
+    private ClockSync clock = null;
+    private long syncPeriodNanos = 0;
+    private String batchAddress = null;
+    private int batchSize = 1;
+    private long[] batchReceived = new long[1];        // receivedNanos of each sample in the batch
+    private OscBundler bundler = null;
+    private long bundlePeriodNanos = 0;
+    private StreamStats stats = new StreamStats(OscAddresses.ALL);
+    private boolean publishStats = false;
+    private long statsPeriodNanos = DEFAULT_STATS_PERIOD_MS * 1000000L;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // only written by the sender thread
+    private volatile long sent = 0;
+    private volatile long sentBytes = 0;
+    private volatile long failed = 0;
+    private volatile long bundles = 0;
+    private volatile long batched = 0;
+    private LatencyStats endToEndLatency = stats.getLatency(StreamStats.E2E);
+    private LatencyStats queueLatency = stats.getLatency(StreamStats.QUEUE);
+    private LatencyStats sendLatency = stats.getLatency(StreamStats.SEND);
+    private LatencyStats eventLatency = stats.getLatency(StreamStats.EVENT);
+    private long encodeStart = 0;
+    private volatile long stale = 0;
+    private long writeNanos = 0;            // for AdaptiveRate, time and number of write()s
+    private long writeCount = 0;
+    private long lastWriteNanos = 0;
+    private long lastWriteCount = 0;
+    private long lastRefused = 0;
+}
@@ -0,0 +1,234 @@
+package com.interaxon.test.libmuse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ *  OscTcpDestination
+ *
+ *  An OscDestination over TCP, for links that lose datagrams: nothing that goes out is lost,
+ *  horseshoe and forehead transitions included. Packets are framed the OSC 1.1 way with SLIP
+ *  (double END: 0xC0 before and after, 0xC0 and 0xDB escaped), or the OSC 1.0 way with an int32
+ *  size in front of each.
+ *
+ *  write() only frames the packet into an outgoing buffer. The buffer goes to the socket in one
+ *  write when the sender runs out of samples (flush()), when the oldest frame in it has waited
+ *  COALESCE_NANOS, or when it is half full, so a burst costs one syscall and one segment instead
+ *  of one per message. TCP_NODELAY is on, so the kernel doesn't add its own wait on top.
+ *
+ *  Connecting is non-blocking: until the connection is up (or while the host name is looked
+ *  up, or the peer is gone and the backoff runs) packets are dropped and counted as skipped,
+ *  and a lost connection is opened again BACKOFF_NANOS later, all on the sender thread.
+ *  Whatever was still buffered when a connection broke is dropped, it would be stale by the
+ *  time a new one is up; those frames count as dropped. A frame only counts as sent once the
+ *  socket has taken all of it.
+ */
+public class OscTcpDestination extends OscDestination {
+    public enum Framing { SLIP, LENGTH }
+
+    public static final int BUFFER_SIZE = 16384;
+    public static final long COALESCE_NANOS = 1000000L;        // longest a frame waits for others
+    public static final long CONNECT_TIMEOUT_NANOS = 3000000000L;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public OscTcpDestination(Framing _framing, String _host, int _port) {
+        super(Kind.TCP, _host, _port);
+        framing = _framing;
+        out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    public Framing getFraming() { return framing; }
+    public long getConnectCount() { return connects; }
+    public long getFlushCount() { return flushes; }
+    public boolean isConnected() { return connected; }
+
+    @Override
+    public boolean write(ByteBuffer packet, long now) {
+        if (!ready(now))
+            return false;
+        if (!connected && !finishConnect(now)) {
+            countSkipped();
+            return false;
+        }
+
+        int length = packet.limit();
+        int maxFrame = framing == Framing.SLIP ? 2 * length + 2 : length + 4;
+        if (out.remaining() < maxFrame) {
+            send(now);
+            if (out.remaining() < maxFrame) {
+                // the socket isn't taking what we have, drop it rather than wait
+                countFull();
+                return false;
+            }
+        }
+
+        if (out.position() == 0)
+            firstQueued = now;
+        int start = out.position();
+        if (framing == Framing.SLIP)
+            slip(packet, length);
+        else {
+            out.putInt(length);
+            packet.position(0);
+            out.put(packet);
+        }
+        frames[(firstFrame + frameCount) % frames.length] = out.position() - start;
+        frameCount++;
+
+        if (now - firstQueued >= COALESCE_NANOS || out.position() >= BUFFER_SIZE / 2)
+            send(now);
+        return true;
+    }
+
+    @Override
+    public long flush(long now) {
+        if (channel == null)
+            return Long.MAX_VALUE;
+        if (!connected)
+            return finishConnect(now) ? Long.MAX_VALUE : CONNECT_POLL_NANOS;
+        if (out.position() > 0)
+            send(now);
+        // whatever the socket didn't take yet, try again shortly
+        return out.position() > 0 ? COALESCE_NANOS : Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            InetSocketAddress address = resolve();
+            if (address == null)
+                return false;
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            out.clear();
+            connectStarted = System.nanoTime();
+            connected = channel.connect(address);
+            if (connected)
+                connects++;
+            return true;
+        } catch (IOException e) {
+            System.out.println("OscTcpDestination: can't open " + this + " " + e);
+            close();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+            channel = null;
+        }
+        connected = false;
+        out.clear();
+        countDropped(frameCount);
+        firstFrame = 0;
+        frameCount = 0;
+        firstFrameWritten = 0;
+    }
+
+    @Override
+    public String toString() {
+        return (framing == Framing.SLIP ? "tcp:" : "tcp-len:") + host + ":" + port;
+    }
+
+    //-------- PROTECTED FUNCTIONS --------/
+    @Override
+    protected boolean isOpen() {
+        return channel != null;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // True once the connection is up, closes it if it failed or took too long
+    private boolean finishConnect(long now) {
+        try {
+            if (channel.finishConnect()) {
+                connected = true;
+                connects++;
+                return true;
+            }
+            if (now - connectStarted < CONNECT_TIMEOUT_NANOS)
+                return false;
+            System.out.println("OscTcpDestination: timed out connecting to " + this);
+        } catch (IOException e) {
+            System.out.println("OscTcpDestination: can't connect to " + this + " " + e);
+        }
+        close();
+        fail(now);
+        return false;
+    }
+
+    // One non-blocking write of everything buffered, keeps what the socket didn't take
+    private void send(long now) {
+        out.flip();
+        try {
+            countWritten(channel.write(out));
+            flushes++;
+            out.compact();
+        } catch (IOException e) {
+            // the peer went away, start over with a new connection after the backoff
+            System.out.println("OscTcpDestination: lost " + this + " " + e);
+            close();
+            fail(now);
+        }
+    }
+
+    // Counts every frame the socket has now taken all of as sent
+    private void countWritten(int bytes) {
+        firstFrameWritten += bytes;
+        while (frameCount > 0 && firstFrameWritten >= frames[firstFrame]) {
+            firstFrameWritten -= frames[firstFrame];
+            countSent(frames[firstFrame]);
+            firstFrame = (firstFrame + 1) % frames.length;
+            frameCount--;
+        }
+    }
+
+    private void slip(ByteBuffer packet, int length) {
+        out.put(END);
+        for (int i = 0; i < length; i++) {
+            byte b = packet.get(i);
+            if (b == END) {
+                out.put(ESC);
+                out.put(ESC_END);
+            }
+            else if (b == ESC) {
+                out.put(ESC);
+                out.put(ESC_ESC);
+            }
+            else
+                out.put(b);
+        }
+        out.put(END);
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final byte END = (byte) 0xC0;
+    private static final byte ESC = (byte) 0xDB;
+    private static final byte ESC_END = (byte) 0xDC;
+    private static final byte ESC_ESC = (byte) 0xDD;
+    private static final long CONNECT_POLL_NANOS = 10000000L;
+
+    private final Framing framing;
+    private final ByteBuffer out;           // frames not written yet, in fill mode
+    // sizes of the frames in out, oldest first, none is shorter than an 8 byte OSC message
+    private final int[] frames = new int[BUFFER_SIZE / 8];
+    private int firstFrame = 0;
+    private int frameCount = 0;
+    private int firstFrameWritten = 0;      // bytes of the oldest frame the socket already took
+    private SocketChannel channel;
+    private volatile boolean connected = false;
+    private long connectStarted = 0;
+    private long firstQueued = 0;
+
+    // only written by the sender thread
+    private volatile long connects = 0;
+    private volatile long flushes = 0;
+}
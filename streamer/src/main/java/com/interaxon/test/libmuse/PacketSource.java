@@ -0,0 +1,18 @@
+package com.interaxon.test.libmuse;
+
+import java.io.IOException;
+
+/**
+ *  PacketSource
+ *
+ *  Something that delivers headset packets into a DevicePipeline: a connected Muse, a recorded
+ *  session or the SyntheticPacketSource. A source calls the pipeline's on...() functions from
+ *  one thread at a time, since that thread is the single producer of the pipeline's ring.
+ */
+public interface PacketSource {
+    // Begins delivering packets to pipeline, returns without waiting for the first one
+    void start(DevicePipeline pipeline) throws IOException;
+
+    // Stops delivering packets
+    void stop();
+}
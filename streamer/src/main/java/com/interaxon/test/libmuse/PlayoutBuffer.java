@@ -0,0 +1,154 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  PlayoutBuffer
+ *
+ *  A jitter buffer between the ring and the network. Bluetooth hands libmuse its packets in
+ *  bursts, and sent as they come a receiver sees the same bursts. Here every sample is held
+ *  until its sample time (Sample.sampleNanos, from the device's timestamps) plus the playout
+ *  delay, so samples go out as evenly spaced as they were taken, a fixed delay later.
+ *
+ *  With adapt on, the delay follows the input jitter: how long samples took from being taken to
+ *  reaching the buffer. It goes up at once when a sample arrives too late for its slot, and
+ *  every ADAPT_PERIOD_NANOS moves a quarter of the way down towards the longest transit of that
+ *  period plus MARGIN_NANOS, never outside min..max.
+ *
+ *      late    arrived after its slot had passed, sent at once
+ *      early   sent before its slot because the buffer was full
+ *
+ *  Samples leave in the order they came; a slot is never earlier than the one before it.
+ *  Without device timestamps (sampleNanos is the receive time) this only delays everything by
+ *  min, there is no timing to restore.
+ *
+ *  Specs are "key=value" pairs separated by ';', e.g. "delay=20;min=5;max=200;adapt=1"
+ *      delay       ms to start with
+ *      min, max    ms the delay adapts between
+ *      adapt       1 to follow the jitter, 0 to keep delay
+ *
+ *  Only used by the sender thread, the getters may be called from anywhere.
+ */
+public class PlayoutBuffer {
+    public static final String DEFAULT_SPEC = "delay=20;min=5;max=200;adapt=1";
+    public static final long ADAPT_PERIOD_NANOS = 1000000000L;
+    public static final long MARGIN_NANOS = 2000000L;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public PlayoutBuffer(String spec, int capacity, int maxValues) {
+        double[] values = parseSpec(spec);
+        minNanos = (long) (values[MIN] * 1000000L);
+        maxNanos = (long) (values[MAX] * 1000000L);
+        adapt = values[ADAPT] != 0;
+        delayNanos = Math.max(minNanos, Math.min(maxNanos, (long) (values[DELAY] * 1000000L)));
+
+        slots = new Sample[capacity];
+        due = new long[capacity];
+        for (int i = 0; i < capacity; i++)
+            slots[i] = new Sample(maxValues);
+    }
+
+    // Throws IllegalArgumentException if the constructor wouldn't take spec
+    public static void validate(String spec) {
+        parseSpec(spec);
+    }
+
+    public boolean isFull() { return count == slots.length; }
+    public boolean isEmpty() { return count == 0; }
+
+    // Copies the sample in with its slot, the buffer must not be full
+    public void offer(Sample sample, long now) {
+        if (offered == 0)
+            periodStart = now;
+        long transit = now - sample.sampleNanos;
+        if (transit > periodMaxTransit)
+            periodMaxTransit = transit;
+
+        long slot = Math.max(sample.sampleNanos + delayNanos, lastDue);
+        if (slot < now) {
+            late++;
+            if (adapt)
+                delayNanos = Math.min(maxNanos, Math.max(delayNanos, transit + MARGIN_NANOS));
+            slot = now;
+        }
+        lastDue = slot;
+
+        int tail = (head + count) % slots.length;
+        slots[tail].copyFrom(sample);
+        due[tail] = slot;
+        count++;
+        offered++;
+
+        if (adapt && now - periodStart >= ADAPT_PERIOD_NANOS)
+            adapt(now);
+    }
+
+    // The first sample if its slot has come, or if the buffer is full. False if there is none yet
+    public boolean poll(long now, Sample out) {
+        if (count == 0)
+            return false;
+        if (due[head] > now) {
+            if (count < slots.length)
+                return false;
+            early++;
+        }
+        out.copyFrom(slots[head]);
+        head = (head + 1) % slots.length;
+        count--;
+        return true;
+    }
+
+    // Until the first sample's slot, Long.MAX_VALUE if there is none
+    public long nanosUntilDue(long now) {
+        return count == 0 ? Long.MAX_VALUE : due[head] - now;
+    }
+
+    public int size() { return count; }
+    public int capacity() { return slots.length; }
+    public long getDelayNanos() { return delayNanos; }
+    public long getOfferedCount() { return offered; }
+    public long getLateCount() { return late; }
+    public long getEarlyCount() { return early; }
+
+    @Override
+    public String toString() {
+        return "playout delay=" + delayNanos / 1000 + "us late=" + late + " early=" + early +
+                " of " + offered + " depth=" + count;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void adapt(long now) {
+        long target = Math.max(minNanos, Math.min(maxNanos, periodMaxTransit + MARGIN_NANOS));
+        if (target < delayNanos)
+            delayNanos += (target - delayNanos) / 4;
+        periodMaxTransit = 0;
+        periodStart = now;
+    }
+
+    // The DEFAULT_SPEC values with spec's on top, in KEYS order
+    private static double[] parseSpec(String spec) {
+        double[] values = KeyValueSpec.parse("playout", KEYS, DEFAULT_SPEC, spec);
+        if (values[MIN] > values[MAX])
+            throw new IllegalArgumentException("playout min can't be more than max: " + spec);
+        return values;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final String[] KEYS = { "delay", "min", "max", "adapt" };
+    private static final int DELAY = 0, MIN = 1, MAX = 2, ADAPT = 3;
+
+    private final long minNanos;
+    private final long maxNanos;
+    private final boolean adapt;
+
+    private final Sample[] slots;
+    private final long[] due;               // each slot's playout time, System.nanoTime()
+    private int head = 0;
+    private int count = 0;
+    private long lastDue = Long.MIN_VALUE;
+    private long periodStart = 0;
+    private long periodMaxTransit = 0;
+
+    private volatile long delayNanos;
+    private volatile long offered = 0;
+    private volatile long late = 0;
+    private volatile long early = 0;
+}
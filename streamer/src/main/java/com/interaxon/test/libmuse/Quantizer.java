@@ -0,0 +1,123 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  Quantizer
+ *
+ *  Turns a sample's float values into OSC arguments at a chosen precision, replacing the old
+ *  String.format("%6.2f") -> Float.valueOf round trip with plain arithmetic:
+ *
+ *      FLOAT32 - values sent untouched as 'f'
+ *      ROUND   - rounded to a number of decimal places, still sent as 'f'
+ *      INT32   - fixed point, round(value * scale) sent as 'i'
+ *      INT16   - fixed point, round(value * scale) packed as big-endian shorts into one 'b' blob,
+ *                half the bytes of float32 for e.g. raw EEG
+ *
+ *  NaN is replaced by an explicit value: -1 for the float modes (what the old code meant to do)
+ *  and the type's minimum for the fixed-point modes. Infinities are sent as-is for FLOAT32, become
+ *  the invalid value for ROUND, and saturate for the fixed-point modes, as do out-of-range values.
+ *
+ *  Specs are written "float32", "round:2", "int32:100" or "int16:10".
+ */
+public class Quantizer {
+    public enum Mode { FLOAT32, ROUND, INT32, INT16 }
+
+    public static final float INVALID_FLOAT = -1f;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public Quantizer(Mode _mode, double _scale) {
+        mode = _mode;
+        scale = _scale;
+    }
+
+    public static Quantizer float32() { return new Quantizer(Mode.FLOAT32, 1); }
+
+    public static Quantizer round(int decimals) { return new Quantizer(Mode.ROUND, Math.pow(10, decimals)); }
+
+    // Parses "mode" or "mode:arg", where arg is decimals for round and the scale for int16/int32
+    public static Quantizer parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        String name = parts[0].trim().toLowerCase();
+        double arg = parts.length > 1 ? Double.parseDouble(parts[1].trim()) : 1;
+
+        if (name.equals("float32"))
+            return float32();
+        else if (name.equals("round"))
+            return round(parts.length > 1 ? (int) arg : 2);
+        else if (name.equals("int32"))
+            return new Quantizer(Mode.INT32, arg);
+        else if (name.equals("int16"))
+            return new Quantizer(Mode.INT16, arg);
+        else
+            throw new IllegalArgumentException("unknown quantization: " + spec);
+    }
+
+    public Mode getMode() { return mode; }
+    public double getScale() { return scale; }
+
+    // Writes a complete message for the first count values, prefix goes in front of the address
+    public void writeMessage(ByteBuffer buf, String prefix, String address, float[] values, int count) {
+        OscEncoder.writeAddress(buf, prefix, address);
+
+        switch (mode) {
+            case FLOAT32:
+                OscEncoder.writeTypeTags(buf, 'f', count);
+                for (int i = 0; i < count; i++)
+                    buf.putFloat(Float.isNaN(values[i]) ? INVALID_FLOAT : values[i]);
+                break;
+
+            case ROUND:
+                OscEncoder.writeTypeTags(buf, 'f', count);
+                for (int i = 0; i < count; i++)
+                    buf.putFloat(toRounded(values[i]));
+                break;
+
+            case INT32:
+                OscEncoder.writeTypeTags(buf, 'i', count);
+                for (int i = 0; i < count; i++)
+                    buf.putInt(toInt32(values[i]));
+                break;
+
+            case INT16:
+                OscEncoder.writeTypeTags(buf, 'b', 1);
+                buf.putInt(2 * count);
+                for (int i = 0; i < count; i++)
+                    buf.putShort(toInt16(values[i]));
+                OscEncoder.pad(buf);
+                break;
+        }
+    }
+
+    public float toRounded(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value))
+            return INVALID_FLOAT;
+        return (float) (Math.round(value * scale) / scale);
+    }
+
+    public int toInt32(float value) {
+        if (Float.isNaN(value))
+            return Integer.MIN_VALUE;
+        double scaled = Math.rint(value * scale);
+        if (scaled >= Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        if (scaled <= -Integer.MAX_VALUE)
+            return -Integer.MAX_VALUE;          // MIN_VALUE is reserved for NaN
+        return (int) scaled;
+    }
+
+    public short toInt16(float value) {
+        if (Float.isNaN(value))
+            return Short.MIN_VALUE;
+        double scaled = Math.rint(value * scale);
+        if (scaled >= Short.MAX_VALUE)
+            return Short.MAX_VALUE;
+        if (scaled <= -Short.MAX_VALUE)
+            return -Short.MAX_VALUE;            // MIN_VALUE is reserved for NaN
+        return (short) scaled;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final Mode mode;
+    private final double scale;
+}
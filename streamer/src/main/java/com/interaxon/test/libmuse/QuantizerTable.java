@@ -0,0 +1,55 @@
+package com.interaxon.test.libmuse;
+
+import java.util.HashMap;
+
+/**
+ *  QuantizerTable
+ *
+ *  Which Quantizer to use for each OSC address, with a default for everything else. Filled in
+ *  before the sender starts and only read afterwards, so lookups need no locking.
+ *
+ *  parse() reads the QUANTIZATION preference, "address=spec" pairs separated by ';', e.g.
+ *      /muse/eeg=int16:10;/muse/elements/horseshoe=round:0
+ */
+public class QuantizerTable {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public QuantizerTable(Quantizer _defaultQuantizer) {
+        defaultQuantizer = _defaultQuantizer;
+    }
+
+    public void set(String address, Quantizer quantizer) {
+        table.put(address, quantizer);
+    }
+
+    public Quantizer forAddress(String address) {
+        Quantizer q = table.get(address);
+        return q != null ? q : defaultQuantizer;
+    }
+
+    public void parse(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq < 0)
+                continue;
+            set(entry.substring(0, eq).trim(), Quantizer.parse(entry.substring(eq + 1)));
+        }
+    }
+
+    // Throws IllegalArgumentException if parse() wouldn't take config
+    public static void validateConfig(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq >= 0)
+                Quantizer.parse(entry.substring(eq + 1));
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final Quantizer defaultQuantizer;
+    private final HashMap<String, Quantizer> table = new HashMap<String, Quantizer>();
+}
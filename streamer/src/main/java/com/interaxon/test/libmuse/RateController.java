@@ -0,0 +1,250 @@
+package com.interaxon.test.libmuse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ *  RateController
+ *
+ *  Per-OSC-address send rate policies, replacing the fixed Timers. Runs on the sender thread
+ *  only and uses System.nanoTime(), so wall-clock changes don't open or close the gates.
+ *
+ *      NONE   - every sample goes out
+ *      MAX    - at most rate samples per second, samples inside the window are dropped
+ *      BUCKET - token bucket, rate tokens per second up to burst, a sample costs one token
+ *      LATEST - at most rate samples per second, but the one that goes out is the newest:
+ *               a sample arriving inside the window replaces the held one, which is released
+ *               when the window opens (see pollDue)
+ *
+ *  Specs are written "none", "max:5", "bucket:5:10" or "latest:5", rates in Hz and the burst in
+ *  samples (at least 1, the default). parse() reads the RATE_LIMITS preference, "address=spec"
+ *  pairs separated by ';'.
+ */
+public class RateController {
+    public enum Policy { NONE, MAX, BUCKET, LATEST }
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public RateController(int _maxValues) {
+        maxValues = _maxValues;
+    }
+
+    public void set(String address, String spec) {
+        Stream stream = new Stream(address, maxValues);
+        parseSpec(spec, stream);
+
+        Stream old = streams.put(address, stream);
+        if (old != null)
+            list.remove(old);
+        list.add(stream);
+    }
+
+    public void parse(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq < 0)
+                continue;
+            set(entry.substring(0, eq).trim(), entry.substring(eq + 1));
+        }
+    }
+
+    // Throws IllegalArgumentException if set() wouldn't take spec
+    public static void validate(String spec) {
+        parseSpec(spec, null);
+    }
+
+    // Throws IllegalArgumentException if parse() wouldn't take config
+    public static void validateConfig(String config) {
+        if (config == null)
+            return;
+        for (String entry : config.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq >= 0)
+                parseSpec(entry.substring(eq + 1), null);
+        }
+    }
+
+    // Runs every rate limited stream at scale (0..1] of its configured rate, but not below
+    // floorHz (or the configured rate, if that is lower). Used by AdaptiveRate
+    public void setScale(double scale, double floorHz) {
+        for (int i = 0; i < list.size(); i++) {
+            Stream s = list.get(i);
+            if (s.policy == Policy.NONE)
+                continue;
+            double rate = 1e9 / s.baseIntervalNanos;
+            double scaled = Math.max(rate * scale, Math.min(floorHz, rate));
+            s.intervalNanos = (long) (1e9 / scaled);
+        }
+    }
+
+    // True if the sample should be sent now. False if it was dropped, or held by a LATEST
+    // stream to be released later by pollDue().
+    public boolean admit(Sample sample, long now) {
+        Stream s = streams.get(sample.address);
+        if (s == null)
+            return true;
+
+        switch (s.policy) {
+            case MAX:
+                if (s.sentOnce && now - s.lastSent < s.intervalNanos) {
+                    s.throttled++;
+                    return false;
+                }
+                s.sentOnce = true;
+                s.lastSent = now;
+                s.passed++;
+                return true;
+
+            case BUCKET:
+                // lastSent is the last refill time here
+                if (s.sentOnce) {
+                    s.tokens = Math.min(s.burst, s.tokens + (double) (now - s.lastSent) / s.intervalNanos);
+                }
+                s.sentOnce = true;
+                s.lastSent = now;
+                if (s.tokens < 1) {
+                    s.throttled++;
+                    return false;
+                }
+                s.tokens -= 1;
+                s.passed++;
+                return true;
+
+            case LATEST:
+                if (!s.sentOnce || now - s.lastSent >= s.intervalNanos) {
+                    // window is open, send right away and forget anything older
+                    if (s.held)
+                        s.throttled++;
+                    s.sentOnce = true;
+                    s.lastSent = now;
+                    s.held = false;
+                    s.passed++;
+                    return true;
+                }
+                if (s.held)
+                    s.throttled++;          // the held one is replaced, it never goes out
+                s.latest.copyFrom(sample);
+                s.held = true;
+                return false;
+
+            default:
+                s.passed++;
+                return true;
+        }
+    }
+
+    // Copies the next held LATEST sample whose window has opened into out, false if none is due
+    public boolean pollDue(long now, Sample out) {
+        for (int i = 0; i < list.size(); i++) {
+            Stream s = list.get(i);
+            if (s.held && now - s.lastSent >= s.intervalNanos) {
+                out.copyFrom(s.latest);
+                s.held = false;
+                s.lastSent = now;
+                s.passed++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Nanoseconds until the next held sample is due, or Long.MAX_VALUE if nothing is held
+    public long nanosUntilDue(long now) {
+        long wait = Long.MAX_VALUE;
+        for (int i = 0; i < list.size(); i++) {
+            Stream s = list.get(i);
+            if (s.held)
+                wait = Math.min(wait, Math.max(0, s.lastSent + s.intervalNanos - now));
+        }
+        return wait;
+    }
+
+    public long getPassedCount(String address) {
+        Stream s = streams.get(address);
+        return s != null ? s.passed : 0;
+    }
+
+    public long getThrottledCount(String address) {
+        Stream s = streams.get(address);
+        return s != null ? s.throttled : 0;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // Checks spec and, unless stream is null, sets it up with the policy
+    private static void parseSpec(String spec, Stream stream) {
+        String[] parts = spec.trim().split(":");
+        String name = parts[0].trim().toLowerCase();
+
+        Policy policy;
+        double rate = 0;
+        double burst = 1;
+        if (name.equals("none")) {
+            policy = Policy.NONE;
+        }
+        else if (name.equals("max") || name.equals("latest") || name.equals("bucket")) {
+            if (parts.length < 2)
+                throw new IllegalArgumentException("missing rate: " + spec);
+            rate = Double.parseDouble(parts[1].trim());
+            if (!(rate > 0))            // NaN too
+                throw new IllegalArgumentException("rate has to be > 0: " + spec);
+
+            if (name.equals("max")) {
+                policy = Policy.MAX;
+            }
+            else if (name.equals("latest")) {
+                policy = Policy.LATEST;
+            }
+            else {
+                policy = Policy.BUCKET;
+                burst = parts.length > 2 ? Double.parseDouble(parts[2].trim()) : 1;
+                // less than one token never lets a sample through, NaN or infinity breaks the refill
+                if (!(burst >= 1) || Double.isInfinite(burst))
+                    throw new IllegalArgumentException("burst has to be a number >= 1: " + spec);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("unknown rate policy: " + spec);
+        }
+
+        if (stream == null)
+            return;
+        stream.policy = policy;
+        if (policy != Policy.NONE) {
+            stream.intervalNanos = (long) (1000000000L / rate);
+            stream.baseIntervalNanos = stream.intervalNanos;
+        }
+        if (policy == Policy.BUCKET) {
+            stream.burst = burst;
+            stream.tokens = burst;
+        }
+    }
+
+    //-------- PRIVATE CLASSES --------/
+    private static class Stream {
+        Stream(String _address, int maxValues) {
+            address = _address;
+            latest = new Sample(maxValues);
+        }
+
+        final String address;
+        Policy policy = Policy.NONE;
+        long intervalNanos = 0;
+        long baseIntervalNanos = 0;         // as configured, intervalNanos is scaled from this
+        double burst = 1;
+        double tokens = 0;
+
+        boolean sentOnce = false;
+        long lastSent = 0;
+        final Sample latest;
+        boolean held = false;
+
+        volatile long passed = 0;
+        volatile long throttled = 0;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final int maxValues;
+    private final HashMap<String, Stream> streams = new HashMap<String, Stream>();
+    private final ArrayList<Stream> list = new ArrayList<Stream>();        // for allocation-free iteration
+}
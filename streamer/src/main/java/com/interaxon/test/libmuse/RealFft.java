@@ -0,0 +1,111 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  RealFft
+ *
+ *  Power spectrum of n real samples (n a power of two) with an in-place radix-2 FFT of n/2
+ *  complex points: even samples go in the real parts, odd ones in the imaginary parts, and the
+ *  halves are separated again afterwards. Bit reversal and twiddle factors are tables made in
+ *  the constructor, so powerSpectrum() allocates nothing. Not thread-safe, the scratch arrays
+ *  belong to the instance.
+ */
+public class RealFft {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public RealFft(int _n) {
+        checkSize(_n);
+        n = _n;
+        int m = n / 2;
+
+        re = new double[m];
+        im = new double[m];
+        reverse = new int[m];
+        int bits = Integer.numberOfTrailingZeros(m);
+        for (int i = 0; i < m; i++)
+            reverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+
+        // e^(-2 pi i j/m) for the butterflies, e^(-2 pi i k/n) for separating the halves
+        cosM = new double[m / 2];
+        sinM = new double[m / 2];
+        for (int j = 0; j < m / 2; j++) {
+            cosM[j] = Math.cos(2 * Math.PI * j / m);
+            sinM[j] = Math.sin(2 * Math.PI * j / m);
+        }
+        cosN = new double[m + 1];
+        sinN = new double[m + 1];
+        for (int k = 0; k <= m; k++) {
+            cosN[k] = Math.cos(2 * Math.PI * k / n);
+            sinN[k] = Math.sin(2 * Math.PI * k / n);
+        }
+    }
+
+    public int size() { return n; }
+
+    // power[k] = |X[k]|^2 of the DFT of in[0..n), for k = 0..n/2 (power needs n/2 + 1 slots)
+    public void powerSpectrum(double[] in, double[] power) {
+        int m = n / 2;
+        for (int i = 0; i < m; i++) {
+            int j = reverse[i];
+            re[j] = in[2 * i];
+            im[j] = in[2 * i + 1];
+        }
+        transform(m);
+
+        for (int k = 0; k <= m; k++) {
+            int a = k == m ? 0 : k;
+            int b = k == 0 ? 0 : m - k;
+            double zr = re[a], zi = im[a];
+            double yr = re[b], yi = im[b];
+
+            // spectra of the even and the odd samples
+            double er = (zr + yr) * 0.5;
+            double ei = (zi - yi) * 0.5;
+            double or = (zi + yi) * 0.5;
+            double oi = (yr - zr) * 0.5;
+
+            double c = cosN[k], s = sinN[k];
+            double xr = er + c * or + s * oi;
+            double xi = ei + c * oi - s * or;
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+
+    // Throws IllegalArgumentException if n isn't a size the constructor takes
+    public static void checkSize(int n) {
+        if (n < 4 || (n & (n - 1)) != 0)
+            throw new IllegalArgumentException("FFT size has to be a power of 2 >= 4: " + n);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // In-place FFT of re/im, already in bit-reversed order
+    private void transform(int m) {
+        for (int size = 2; size <= m; size <<= 1) {
+            int half = size >> 1;
+            int step = m / size;
+            for (int start = 0; start < m; start += size) {
+                for (int j = 0; j < half; j++) {
+                    double wr = cosM[j * step];
+                    double wi = -sinM[j * step];
+                    int a = start + j;
+                    int b = a + half;
+                    double tr = wr * re[b] - wi * im[b];
+                    double ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final int n;
+    private final double[] re;
+    private final double[] im;
+    private final int[] reverse;
+    private final double[] cosM;
+    private final double[] sinM;
+    private final double[] cosN;
+    private final double[] sinN;
+}
@@ -0,0 +1,125 @@
+package com.interaxon.test.libmuse;
+
+import java.util.Random;
+
+/**
+ *  ReconnectBackoff
+ *
+ *  When to try a lost headset connection again, and what each outage cost. The first attempt
+ *  waits initial ms, every failed one multiplies the wait by factor up to max, and each wait is
+ *  shortened by a random part of up to jitter of it, so several headsets that dropped together
+ *  don't all retry in the same instant.
+ *
+ *  An outage starts at the disconnect. Its reconnect time ends when the headset is connected
+ *  again, its gap when the first packet arrives after that, which is how long no data was sent.
+ *
+ *  Specs are "key=value" pairs separated by ';', e.g. "initial=500;max=30000"
+ *      initial     ms before the first attempt
+ *      max         longest wait between attempts in ms
+ *      factor      how much longer each wait is than the last
+ *      jitter      0..1, the largest part of a wait taken off at random
+ *
+ *  onDisconnected() and onConnected() come from the connection listener, onData() from the
+ *  data listener; the getters may be called from anywhere.
+ */
+public class ReconnectBackoff {
+    public static final String DEFAULT_SPEC = "initial=500;max=30000;factor=2;jitter=0.5";
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public ReconnectBackoff(String spec) {
+        double[] values = parseSpec(spec);
+        initialNanos = (long) (values[INITIAL] * 1000000L);
+        maxNanos = (long) (values[MAX] * 1000000L);
+        factor = values[FACTOR];
+        jitter = values[JITTER];
+    }
+
+    // Throws IllegalArgumentException if the constructor wouldn't take spec
+    public static void validate(String spec) {
+        parseSpec(spec);
+    }
+
+    // Starts an outage, or counts a failed attempt if one is under way. Returns how many nanos
+    // to wait before the next attempt
+    public synchronized long onDisconnected(long now) {
+        if (disconnectedAt == 0) {
+            disconnectedAt = now;
+            connectedAt = 0;
+            waitNanos = initialNanos;
+            outages++;
+        }
+        else {
+            waitNanos = Math.min(maxNanos, (long) (waitNanos * factor));
+        }
+        attempts++;
+        return waitNanos - (long) (waitNanos * jitter * random.nextDouble());
+    }
+
+    public synchronized void onConnected(long now) {
+        if (disconnectedAt == 0 || connectedAt != 0)
+            return;
+        connectedAt = now;
+        lastReconnectNanos = now - disconnectedAt;
+    }
+
+    // Every packet, only does anything for the first one after a reconnect
+    public void onData(long now) {
+        if (connectedAt == 0)
+            return;
+        synchronized (this) {
+            if (connectedAt == 0)
+                return;
+            lastGapNanos = now - disconnectedAt;
+            maxGapNanos = Math.max(maxGapNanos, lastGapNanos);
+            totalGapNanos += lastGapNanos;
+            disconnectedAt = 0;
+            connectedAt = 0;
+        }
+    }
+
+    public boolean isInOutage() { return disconnectedAt != 0; }
+    public long getOutageCount() { return outages; }
+    public long getAttemptCount() { return attempts; }
+    public long getLastReconnectNanos() { return lastReconnectNanos; }
+    public long getLastGapNanos() { return lastGapNanos; }
+    public long getMaxGapNanos() { return maxGapNanos; }
+    public long getTotalGapNanos() { return totalGapNanos; }
+
+    @Override
+    public String toString() {
+        return "reconnect outages=" + outages + " attempts=" + attempts +
+                " last reconnect=" + lastReconnectNanos / 1000000 + "ms" +
+                " last gap=" + lastGapNanos / 1000000 + "ms" +
+                " max gap=" + maxGapNanos / 1000000 + "ms";
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // The DEFAULT_SPEC values with spec's on top, in KEYS order
+    private static double[] parseSpec(String spec) {
+        double[] values = KeyValueSpec.parse("reconnect", KEYS, DEFAULT_SPEC, spec);
+        if (values[FACTOR] < 1 || values[JITTER] > 1)
+            throw new IllegalArgumentException("reconnect needs factor >= 1 and jitter <= 1: " + spec);
+        return values;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final String[] KEYS = { "initial", "max", "factor", "jitter" };
+    private static final int INITIAL = 0, MAX = 1, FACTOR = 2, JITTER = 3;
+
+    private final long initialNanos;
+    private final long maxNanos;
+    private final double factor;
+    private final double jitter;
+    private final Random random = new Random();
+
+    private long waitNanos = 0;
+    private volatile long disconnectedAt = 0;       // 0 outside an outage
+    private volatile long connectedAt = 0;          // 0 until the outage's reconnect
+
+    private volatile long outages = 0;
+    private volatile long attempts = 0;
+    private volatile long lastReconnectNanos = 0;
+    private volatile long lastGapNanos = 0;
+    private volatile long maxGapNanos = 0;
+    private volatile long totalGapNanos = 0;
+}
@@ -0,0 +1,55 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  Sample
+ *
+ *  One preallocated slot of outbound data: an OSC address plus either up to values.length
+ *  float arguments or a single int. Slots are filled in place and copied, never reallocated,
+ *  so they can be passed between threads without producing garbage.
+ */
+public class Sample {
+    //-------- PUBLIC VARIABLES --------/
+    public String address;
+    public boolean isInt;
+    public int intValue;
+    public int count;
+    public final float[] values;
+
+    public long receivedNanos;          // System.nanoTime() when the packet reached the listener
+    public long sampleNanos;            // and when it was taken, from the device's timestamp if it had one
+
+    // only used by the SessionRecorder
+    public int type;                    // packet type code, see SessionRecorder
+    public long deviceTimestamp;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public Sample(int maxValues) {
+        values = new float[maxValues];
+    }
+
+    public void setFloats(String _address, float[] _values, int _count) {
+        address = _address;
+        isInt = false;
+        count = _count;
+        System.arraycopy(_values, 0, values, 0, _count);
+    }
+
+    public void setInt(String _address, int _value) {
+        address = _address;
+        isInt = true;
+        intValue = _value;
+        count = 0;
+    }
+
+    public void copyFrom(Sample other) {
+        address = other.address;
+        isInt = other.isInt;
+        intValue = other.intValue;
+        count = other.count;
+        receivedNanos = other.receivedNanos;
+        sampleNanos = other.sampleNanos;
+        type = other.type;
+        deviceTimestamp = other.deviceTimestamp;
+        System.arraycopy(other.values, 0, values, 0, other.count);
+    }
+}
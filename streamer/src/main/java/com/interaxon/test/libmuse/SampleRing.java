@@ -0,0 +1,174 @@
+package com.interaxon.test.libmuse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  SampleRing
+ *
+ *  Bounded, preallocated single-producer/single-consumer ring of Sample slots. The libmuse
+ *  callback thread is the producer: it claim()s a slot, fills it and publish()es it. The
+ *  sender thread is the consumer: it poll()s a copy of the oldest slot into its own Sample.
+ *
+ *  What happens when the ring is full depends on the OverflowPolicy:
+ *      DROP_NEWEST - the new sample is discarded, the ring keeps what it has
+ *      DROP_OLDEST - the oldest unread sample is discarded to make room (freshest data wins)
+ *      BLOCK       - the producer waits for the consumer to free a slot
+ *
+ *  For DROP_OLDEST the producer advances the read index itself, so the consumer copies a slot
+ *  out first and only keeps the copy if its compare-and-set on the read index still succeeds.
+ *
+ *  Counters are plain volatile longs written by one side only, so reading them from any thread
+ *  (e.g. the UI) is safe and cheap.
+ */
+public class SampleRing {
+    public enum OverflowPolicy { DROP_OLDEST, DROP_NEWEST, BLOCK }
+
+    //-------- PUBLIC FUNCTIONS --------/
+
+    // capacity is rounded up to a power of two
+    public SampleRing(int capacity, int _maxValues, OverflowPolicy _policy) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        policy = _policy;
+        maxValues = _maxValues;
+
+        slots = new Sample[size];
+        for (int i = 0; i < size; i++)
+            slots[i] = new Sample(_maxValues);
+    }
+
+    public int capacity() { return slots.length; }
+    public int maxValues() { return maxValues; }
+    public OverflowPolicy getPolicy() { return policy; }
+
+    // number of published samples not yet consumed
+    public int size() {
+        long depth = tail.get() - head.get();
+        return depth < 0 ? 0 : (int) depth;
+    }
+
+    //-- producer side, only ever called from one thread
+
+    // Returns the slot to fill, or null if the sample should be dropped (DROP_NEWEST when full)
+    public Sample claim() {
+        offered++;
+        long t = tail.get();
+        while (t - head.get() >= slots.length) {
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                droppedNewest++;
+                return null;
+            }
+            else if (policy == OverflowPolicy.DROP_OLDEST) {
+                long h = head.get();
+                if (t - h >= slots.length && head.compareAndSet(h, h + 1))
+                    droppedOldest++;
+            }
+            else {
+                blocked++;
+                wakeConsumer();
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+        return slots[(int) (t & mask)];
+    }
+
+    public void publish() {
+        // a full volatile write, so the consumerWaiting check below can't be reordered before it
+        tail.set(tail.get() + 1);
+        published++;
+
+        int depth = size();
+        if (depth > maxDepth)
+            maxDepth = depth;
+
+        wakeConsumer();
+    }
+
+    //-- consumer side, only ever called from one thread
+
+    // Copies the oldest sample into out and removes it, returns false if the ring is empty
+    public boolean poll(Sample out) {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get())
+                return false;
+
+            out.copyFrom(slots[(int) (h & mask)]);
+            if (head.compareAndSet(h, h + 1)) {
+                consumed++;
+                return true;
+            }
+            // the producer dropped this slot while we were copying it, try the next one
+        }
+    }
+
+    // Parks the consumer until something is published or timeoutNanos passes
+    public void await(long timeoutNanos) {
+        consumer = Thread.currentThread();
+        consumerWaiting = true;
+        if (head.get() >= tail.get())
+            LockSupport.parkNanos(this, timeoutNanos);
+        consumerWaiting = false;
+    }
+
+    // Like await(), but also returns when something is published to other, which has to be
+    // consumed by this same thread
+    public void await(long timeoutNanos, SampleRing other) {
+        Thread self = Thread.currentThread();
+        consumer = self;
+        other.consumer = self;
+        consumerWaiting = true;
+        other.consumerWaiting = true;
+        if (head.get() >= tail.get() && other.head.get() >= other.tail.get())
+            LockSupport.parkNanos(this, timeoutNanos);
+        consumerWaiting = false;
+        other.consumerWaiting = false;
+    }
+
+    //-- counters
+
+    public long getOfferedCount() { return offered; }
+    public long getPublishedCount() { return published; }
+    public long getConsumedCount() { return consumed; }
+    public long getDroppedNewestCount() { return droppedNewest; }
+    public long getDroppedOldestCount() { return droppedOldest; }
+    public long getBlockedCount() { return blocked; }
+    public int getMaxDepth() { return maxDepth; }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void wakeConsumer() {
+        if (consumerWaiting) {
+            Thread t = consumer;
+            if (t != null)
+                LockSupport.unpark(t);
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long BLOCK_PARK_NANOS = 100000L;      // 0.1ms between retries when blocked
+
+    private final Sample[] slots;
+    private final int mask;
+    private final int maxValues;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong head = new AtomicLong();       // next slot to read
+    private final AtomicLong tail = new AtomicLong();       // next slot to write
+
+    private volatile Thread consumer;
+    private volatile boolean consumerWaiting = false;
+
+    // producer-owned counters
+    private volatile long offered = 0;
+    private volatile long published = 0;
+    private volatile long droppedNewest = 0;
+    private volatile long droppedOldest = 0;
+    private volatile long blocked = 0;
+    private volatile int maxDepth = 0;
+
+    // consumer-owned counters
+    private volatile long consumed = 0;
+}
@@ -0,0 +1,113 @@
+package com.interaxon.test.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  SessionReader
+ *
+ *  Reads back a SessionRecorder log one record at a time, mapping one segment of the file at
+ *  a time. Each next() fills the public fields in place, so reading allocates nothing per
+ *  record. A log cut short by a crash reads up to its last complete record.
+ */
+public class SessionReader {
+    //-------- PUBLIC VARIABLES --------/
+    // the current record, valid after next() returned true
+    public int type;
+    public int count;
+    public long deviceTimestamp;
+    public long receivedNanos;
+    public final float[] values = new float[SessionRecorder.MAX_VALUES];
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public SessionReader(File _file) throws IOException {
+        file = _file;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        length = channel.size();
+
+        if (length < SessionRecorder.HEADER_SIZE || !mapSegment(0))
+            throw new IOException(file + " is not a session log");
+        for (int i = 0; i < SessionRecorder.MAGIC.length; i++) {
+            if (segment.get() != SessionRecorder.MAGIC[i])
+                throw new IOException(file + " is not a session log");
+        }
+        int version = segment.getInt();
+        if (version != SessionRecorder.VERSION)
+            throw new IOException(file + " has unsupported version " + version);
+        segmentSize = segment.getInt();
+        startMillis = segment.getLong();
+        startNanos = segment.getLong();
+        if (segmentSize <= SessionRecorder.HEADER_SIZE)
+            throw new IOException(file + " has a bad segment size " + segmentSize);
+        if (segmentSize != SessionRecorder.SEGMENT_SIZE)
+            mapSegment(0);
+        segment.position(SessionRecorder.HEADER_SIZE);
+    }
+
+    // Moves to the next record, false at the end of the log
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment.remaining() >= SessionRecorder.RECORD_HEADER_SIZE) {
+                type = segment.getShort() & 0xffff;
+                if (type != 0) {
+                    count = segment.getShort();
+                    if (count < 0 || count > SessionRecorder.MAX_VALUES ||
+                        segment.remaining() < 16 + 4 * count)
+                        return false;               // torn record at the end of a crashed log
+                    deviceTimestamp = segment.getLong();
+                    receivedNanos = segment.getLong();
+                    for (int i = 0; i < count; i++)
+                        values[i] = segment.getFloat();
+                    return true;
+                }
+            }
+            // the rest of this segment is unused
+            if (!mapSegment(segmentIndex + 1))
+                return false;
+        }
+    }
+
+    // Back to the first record
+    public void rewind() throws IOException {
+        mapSegment(0);
+        segment.position(SessionRecorder.HEADER_SIZE);
+    }
+
+    public void close() {
+        segment = null;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+
+    public File getFile() { return file; }
+    public long getStartMillis() { return startMillis; }
+    public long getStartNanos() { return startNanos; }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private boolean mapSegment(int index) throws IOException {
+        long start = (long) index * segmentSize;
+        if (start >= length)
+            return false;
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, length - start));
+        segmentIndex = index;
+        return true;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private int segmentSize = SessionRecorder.SEGMENT_SIZE;
+    private long startMillis;
+    private long startNanos;
+    private MappedByteBuffer segment;
+    private int segmentIndex = 0;
+}
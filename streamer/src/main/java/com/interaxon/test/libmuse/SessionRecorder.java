@@ -0,0 +1,197 @@
+package com.interaxon.test.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  SessionRecorder
+ *
+ *  Appends every packet a device delivers to a binary session log. The listener thread only
+ *  copies the packet into a preallocated SampleRing (dropping it if the ring is full, never
+ *  waiting), and the recorder's own thread copies it from there into a memory-mapped segment
+ *  of the file. The file grows one SEGMENT_SIZE mapping at a time, and each full segment is
+ *  forced to storage before the next one is used, so a crash loses at most the unforced tail
+ *  of the last segment.
+ *
+ *  File layout, all big-endian:
+ *      header, HEADER_SIZE bytes at the start of segment 0:
+ *          8 bytes  "MUSEREC" + 0
+ *          int      VERSION
+ *          int      SEGMENT_SIZE
+ *          long     System.currentTimeMillis() at start
+ *          long     System.nanoTime() at start, to line receive times up with wall time
+ *          rest     zeros
+ *      records, back to back:
+ *          short    packet type (MuseDataPacketType ordinal + 1, never 0)
+ *          short    number of values n
+ *          long     device timestamp
+ *          long     System.nanoTime() when the listener received it
+ *          n floats values
+ *  A record never crosses a segment boundary. A type of 0 means the rest of the segment is
+ *  unused: the reader moves on to the next segment if the file has one, otherwise the log ends.
+ *  The file is cut to its used length when the recorder is stopped.
+ */
+public class SessionRecorder implements Runnable {
+    public static final byte[] MAGIC = { 'M', 'U', 'S', 'E', 'R', 'E', 'C', 0 };
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_HEADER_SIZE = 20;
+    public static final int SEGMENT_SIZE = 4 << 20;         // ~8 minutes of 220Hz 4 channel EEG
+    public static final int MAX_VALUES = 8;
+    public static final int RING_CAPACITY = 4096;           // ~18 sec of EEG if storage stalls
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public SessionRecorder(File _file) {
+        file = _file;
+        ring = new SampleRing(RING_CAPACITY, MAX_VALUES, SampleRing.OverflowPolicy.DROP_NEWEST);
+        current = new Sample(MAX_VALUES);
+    }
+
+    public void start() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        mapSegment(0);
+        writeHeader();
+
+        running = true;
+        thread = new Thread(this, "SessionRecorder " + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Writes what is still in the ring, then forces and closes the file
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            // not interrupt(), that would close the channel under the final drain's map()
+            LockSupport.unpark(thread);
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    // Called from the device's listener thread only, never blocks. values beyond MAX_VALUES
+    // are left out
+    public void record(int type, long deviceTimestamp, float[] values, int count) {
+        Sample sample = ring.claim();
+        if (sample == null)
+            return;
+
+        sample.setFloats(null, values, Math.min(count, MAX_VALUES));
+        sample.type = type;
+        sample.deviceTimestamp = deviceTimestamp;
+        sample.receivedNanos = System.nanoTime();
+        ring.publish();
+    }
+
+    public File getFile() { return file; }
+    public SampleRing getRing() { return ring; }
+    public long getRecordCount() { return records; }
+    public long getBytesWritten() { return bytesWritten; }
+    public long getDroppedCount() { return ring.getDroppedNewestCount(); }
+    public long getErrorCount() { return errors; }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (ring.poll(current))
+                write(current);
+            else
+                ring.await(IDLE_WAIT_NANOS);
+        }
+        while (ring.poll(current))
+            write(current);
+
+        close();
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void writeHeader() {
+        segment.put(MAGIC);
+        segment.putInt(VERSION);
+        segment.putInt(SEGMENT_SIZE);
+        segment.putLong(System.currentTimeMillis());
+        segment.putLong(System.nanoTime());
+        segment.position(HEADER_SIZE);
+        bytesWritten = HEADER_SIZE;
+    }
+
+    private void write(Sample sample) {
+        if (segment == null)
+            return;
+
+        int size = RECORD_HEADER_SIZE + 4 * sample.count;
+        if (segment.remaining() < size) {
+            // the rest of this segment stays zero, which readers skip
+            bytesWritten = (long) (segmentIndex + 1) * SEGMENT_SIZE;
+            segment.force();
+            if (!mapSegment(segmentIndex + 1))
+                return;
+        }
+
+        segment.putShort((short) sample.type);
+        segment.putShort((short) sample.count);
+        segment.putLong(sample.deviceTimestamp);
+        segment.putLong(sample.receivedNanos);
+        for (int i = 0; i < sample.count; i++)
+            segment.putFloat(sample.values[i]);
+
+        bytesWritten += size;
+        records++;
+    }
+
+    // Maps segment index, growing the file. Returns false and stops recording if it can't
+    private boolean mapSegment(int index) {
+        try {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, (long) index * SEGMENT_SIZE, SEGMENT_SIZE);
+            segmentIndex = index;
+            return true;
+        } catch (IOException e) {
+            System.out.println("SessionRecorder: can't map segment " + index + " of " + file + " " + e);
+            errors++;
+            segment = null;
+            return false;
+        }
+    }
+
+    private void close() {
+        try {
+            if (segment != null)
+                segment.force();
+            segment = null;
+            // the mapping stays valid until it is collected, but nothing touches it past here
+            raf.setLength(bytesWritten);
+            raf.close();
+        } catch (IOException e) {
+            System.out.println("SessionRecorder: can't close " + file + " " + e);
+            errors++;
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long IDLE_WAIT_NANOS = 100000000L;    // re-check running every 100ms when idle
+
+    private final File file;
+    private final SampleRing ring;
+    private final Sample current;           // consumer-owned copy of the record being written
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentIndex = 0;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // only written by the recorder thread
+    private volatile long records = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long errors = 0;
+}
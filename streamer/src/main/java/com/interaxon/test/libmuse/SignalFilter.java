@@ -0,0 +1,289 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  SignalFilter
+ *
+ *  Smooths one address's values per channel before the RateController sees them, so a rate
+ *  limited stream sends a value that stands for every sample since the last one instead of
+ *  whichever sample happened to get through. Runs on the sender thread on every sample, all
+ *  state is in primitive arrays made in the constructor.
+ *
+ *      EMA       - exponential moving average, y += alpha * (x - y)
+ *      MEAN      - moving average of the last n samples
+ *      ONE_EURO  - 1 euro filter (Casiez et al.): an EMA whose cutoff rises with the signal's
+ *                  speed, smooth when it's still and quick to follow real changes
+ *      DECIMATE  - windowed-sinc low-pass below the new Nyquist frequency, then only every
+ *                  factor-th sample is kept
+ *
+ *  Specs are written "ema:0.2", "mean:8", "euro:minCutoffHz:beta[:derivativeCutoffHz[:rateHz]]"
+ *  or "decimate:factor[:taps]". The 1 euro filter takes the time between samples from their
+ *  receive times, or from rateHz if given, which suits raw EEG that arrives in bursts.
+ *  Int samples pass through untouched.
+ *
+ *  A NaN or infinite value (a dropped-out electrode) passes through as it came, for the
+ *  Quantizer to send as invalid, and never reaches the state: EMA, MEAN and ONE_EURO start that
+ *  channel over from its next finite value, DECIMATE holds the channel's last finite value.
+ *  DECIMATE sends nothing until its history is full, there is no low-pass before that.
+ */
+public class SignalFilter {
+    public enum Mode { EMA, MEAN, ONE_EURO, DECIMATE }
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public static SignalFilter parse(String spec, int maxValues) {
+        double[] args = parseArgs(spec);
+        switch (parseMode(spec, args)) {
+            case EMA: {
+                SignalFilter f = new SignalFilter(Mode.EMA, maxValues, 0);
+                f.alpha = args[0];
+                return f;
+            }
+            case MEAN:
+                return new SignalFilter(Mode.MEAN, maxValues, (int) args[0]);
+            case ONE_EURO: {
+                SignalFilter f = new SignalFilter(Mode.ONE_EURO, maxValues, 0);
+                f.minCutoff = args[0];
+                f.beta = args[1];
+                f.derivativeCutoff = args.length > 2 ? args[2] : 1;
+                f.fixedDt = args.length > 3 && args[3] > 0 ? 1 / args[3] : 0;
+                return f;
+            }
+            default: {
+                int factor = (int) args[0];
+                SignalFilter f = new SignalFilter(Mode.DECIMATE, maxValues, decimateTaps(args));
+                f.factor = factor;
+                f.designLowPass(0.5 / factor);
+                return f;
+            }
+        }
+    }
+
+    // Throws IllegalArgumentException if parse() wouldn't take spec
+    public static void validate(String spec) {
+        parseMode(spec, parseArgs(spec));
+    }
+
+    public Mode getMode() { return mode; }
+    // samples DECIMATE left out
+    public long getDecimatedCount() { return decimated; }
+
+    // Filters the sample's values in place, false if it should not be sent at all (DECIMATE)
+    public boolean apply(Sample sample) {
+        if (sample.isInt || sample.count > channels)
+            return true;
+
+        float[] v = sample.values;
+        int n = sample.count;
+        switch (mode) {
+            case EMA:
+                for (int c = 0; c < n; c++) {
+                    if (!isFinite(v[c])) {
+                        started[c] = false;
+                        continue;
+                    }
+                    state[c] = started[c] ? state[c] + alpha * (v[c] - state[c]) : v[c];
+                    started[c] = true;
+                    v[c] = (float) state[c];
+                }
+                return true;
+
+            case MEAN:
+                for (int c = 0; c < n; c++) {
+                    double[] h = history[c];
+                    if (!isFinite(v[c])) {
+                        // the window starts over, the zeros left in it drop out of the sum
+                        for (int k = 0; k < length; k++)
+                            h[k] = 0;
+                        state[c] = 0;
+                        counts[c] = 0;
+                        continue;
+                    }
+                    state[c] += v[c] - h[position];
+                    h[position] = v[c];
+                    if (counts[c] < length)
+                        counts[c]++;
+                    v[c] = (float) (state[c] / counts[c]);
+                }
+                position = position + 1 == length ? 0 : position + 1;
+                return true;
+
+            case ONE_EURO:
+                oneEuro(sample);
+                return true;
+
+            case DECIMATE:
+            default:
+                // history holds every sample twice, so the last taps samples are always contiguous
+                for (int c = 0; c < n; c++) {
+                    if (isFinite(v[c]))
+                        state[c] = v[c];
+                    history[c][position] = state[c];
+                    history[c][position + length] = state[c];
+                }
+                position = position + 1 == length ? 0 : position + 1;
+                if (filled < length)
+                    filled++;
+
+                // nothing goes out before there is enough history for the low-pass
+                if (++sinceKept < factor || filled < length) {
+                    decimated++;
+                    return false;
+                }
+                sinceKept = 0;
+                for (int c = 0; c < n; c++) {
+                    if (!isFinite(v[c]))
+                        continue;
+                    double[] h = history[c];
+                    double sum = 0;
+                    for (int k = 0; k < length; k++)
+                        sum += coefficients[k] * h[position + k];
+                    v[c] = (float) sum;
+                }
+                return true;
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private SignalFilter(Mode _mode, int _channels, int _length) {
+        mode = _mode;
+        channels = _channels;
+        length = _length;
+        state = new double[channels];
+        derivative = new double[channels];
+        started = new boolean[channels];
+        counts = new int[channels];
+        if (mode == Mode.MEAN)
+            history = new double[channels][length];
+        else if (mode == Mode.DECIMATE)
+            history = new double[channels][2 * length];
+        else
+            history = null;
+        coefficients = mode == Mode.DECIMATE ? new double[length] : null;
+    }
+
+    // The numbers after the filter's name
+    private static double[] parseArgs(String spec) {
+        String[] parts = spec.trim().split(":");
+        double[] args = new double[parts.length - 1];
+        for (int i = 0; i < args.length; i++)
+            args[i] = Double.parseDouble(parts[i + 1].trim());
+        return args;
+    }
+
+    // The filter spec names, throws IllegalArgumentException if args don't suit it
+    private static Mode parseMode(String spec, double[] args) {
+        String name = spec.trim().split(":")[0].trim().toLowerCase();
+        if (name.equals("ema")) {
+            if (args.length < 1 || args[0] <= 0 || args[0] > 1)
+                throw new IllegalArgumentException("ema needs an alpha in (0, 1]: " + spec);
+            return Mode.EMA;
+        }
+        else if (name.equals("mean")) {
+            if (args.length < 1 || args[0] < 1)
+                throw new IllegalArgumentException("mean needs a length >= 1: " + spec);
+            return Mode.MEAN;
+        }
+        else if (name.equals("euro")) {
+            if (args.length < 2 || args[0] <= 0 || args[1] < 0)
+                throw new IllegalArgumentException("euro needs a min cutoff > 0 and a beta >= 0: " + spec);
+            return Mode.ONE_EURO;
+        }
+        else if (name.equals("decimate")) {
+            if (args.length < 1 || args[0] < 2)
+                throw new IllegalArgumentException("decimate needs a factor >= 2: " + spec);
+            int taps = decimateTaps(args);
+            if (taps < 3 || (taps & 1) == 0)
+                throw new IllegalArgumentException("decimate needs an odd number of taps >= 3: " + spec);
+            return Mode.DECIMATE;
+        }
+        throw new IllegalArgumentException("unknown filter: " + spec);
+    }
+
+    private static int decimateTaps(double[] args) {
+        int factor = (int) args[0];
+        return args.length > 1 ? (int) args[1] : 8 * factor + 1;
+    }
+
+    private void oneEuro(Sample sample) {
+        float[] v = sample.values;
+        double dt = fixedDt;
+        if (dt == 0) {
+            dt = primed ? (sample.receivedNanos - lastNanos) / 1e9 : MIN_DT;
+            if (dt <= 0)
+                dt = MIN_DT;            // same receive time, part of a burst
+        }
+        primed = true;
+        lastNanos = sample.receivedNanos;
+
+        double derivativeAlpha = smoothing(derivativeCutoff, dt);
+        for (int c = 0; c < sample.count; c++) {
+            if (!isFinite(v[c])) {
+                started[c] = false;
+                continue;
+            }
+            if (!started[c]) {
+                state[c] = v[c];
+                derivative[c] = 0;
+                started[c] = true;
+                continue;
+            }
+            double speed = (v[c] - state[c]) / dt;
+            derivative[c] += derivativeAlpha * (speed - derivative[c]);
+            double cutoff = minCutoff + beta * Math.abs(derivative[c]);
+            state[c] += smoothing(cutoff, dt) * (v[c] - state[c]);
+            v[c] = (float) state[c];
+        }
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    // EMA alpha of a first order low-pass with this cutoff, for samples dt seconds apart
+    private static double smoothing(double cutoffHz, double dt) {
+        double tau = 1 / (2 * Math.PI * cutoffHz);
+        return 1 / (1 + tau / dt);
+    }
+
+    // Blackman-windowed sinc, cutoff in cycles per sample, unity gain at DC. The taps run
+    // oldest first, which for a symmetric filter is the same either way
+    private void designLowPass(double cutoff) {
+        int middle = length / 2;
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            int m = k - middle;
+            double sinc = m == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * m) / (Math.PI * m);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * k / (length - 1)) +
+                            0.08 * Math.cos(4 * Math.PI * k / (length - 1));
+            coefficients[k] = sinc * window;
+            sum += coefficients[k];
+        }
+        for (int k = 0; k < length; k++)
+            coefficients[k] /= sum;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final double MIN_DT = 1e-4;
+
+    private final Mode mode;
+    private final int channels;
+    private final int length;               // MEAN window or DECIMATE taps
+    private final double[] state;           // EMA/ONE_EURO value, MEAN running sum, DECIMATE last finite value
+    private final double[] derivative;      // ONE_EURO
+    private final boolean[] started;        // EMA/ONE_EURO, false until a channel's first finite value
+    private final int[] counts;             // MEAN, samples in each channel's window
+    private final double[][] history;       // MEAN and DECIMATE, per channel
+    private final double[] coefficients;    // DECIMATE
+    private int position = 0;               // where the next sample goes in history
+    private int filled = 0;                 // DECIMATE
+    private boolean primed = false;         // ONE_EURO has a receive time to take dt from
+
+    private double alpha = 1;
+    private double minCutoff = 1;
+    private double beta = 0;
+    private double derivativeCutoff = 1;
+    private double fixedDt = 0;
+    private long lastNanos = 0;
+    private int factor = 1;
+    private int sinceKept = 0;
+    private volatile long decimated = 0;
+}
@@ -0,0 +1,38 @@
+package com.interaxon.test.libmuse;
+
+import java.io.File;
+
+/**
+ *  StreamConfig
+ *
+ *  The streaming settings read from the shared preferences, everything a DevicePipeline needs
+ *  besides where to send. Specs are kept as strings and parsed by each pipeline, so every device
+ *  gets its own RateController and nothing mutable is shared between them.
+ */
+public class StreamConfig {
+    //-------- PUBLIC VARIABLES --------/
+    public boolean bundleMode = false;          // all bands as one #bundle every bundlePeriodMS
+    public long bundlePeriodMS = 200;
+    public boolean rawEegMode = false;          // stream every EEG frame on /muse/eeg
+    public String quantization = "";            // see QuantizerTable.parse()
+    public String rateLimits = "";              // see RateController.parse()
+    public String filters = "";                 // see FilterTable.parse()
+    public String deadbands = "";               // see DeadbandTable.parse()
+    public String adaptiveRate = "";            // AdaptiveRate spec, "" for fixed rates
+    public String transport = "udp";            // to the main destination, "udp", "tcp" (SLIP) or "tcp-len"
+    public String destinations = "";            // extra OscDestination specs separated by ';'
+    public File recordDirectory = null;         // a SessionRecorder log per device goes here, null for none
+    public long statsPeriodMS = 1000;           // /streamer/stats every so often, 0 to not send them
+    public String bandPowers = "";              // EegBandPowers spec, "" for libmuse's bands only
+    public boolean derivedMetrics = false;      // relative bands, ratios and means, see DerivedMetrics
+    public boolean artifactEvents = true;       // blink, jaw clench and headband edges on the event lane
+    public String reconnect = ReconnectBackoff.DEFAULT_SPEC;    // ReconnectBackoff spec, "" to not reconnect
+    public boolean timetags = false;            // every message in a #bundle timetagged with its sample time
+    public String playout = "";                 // PlayoutBuffer spec to pace samples out, "" to send them at once
+    public long clockSyncMS = ClockSync.DEFAULT_PERIOD_MS;      // /streamer/sync requests with timetags, 0 for none
+
+    public static final int RING_CAPACITY = 256;
+    public static final int RAW_RING_CAPACITY = 2048;       // ~9 sec of 220Hz EEG plus everything else
+    public static final int RAW_BATCH_SIZE = 16;            // max EEG frames per datagram
+    public static final int EVENT_RING_CAPACITY = 64;
+}
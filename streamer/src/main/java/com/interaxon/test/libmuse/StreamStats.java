@@ -0,0 +1,346 @@
+package com.interaxon.test.libmuse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  StreamStats
+ *
+ *  Always-on counters and latency histograms for one DevicePipeline, cheap enough to leave
+ *  running during a show. Per address it counts the samples received from the headset, the
+ *  ones held back (throttled by the RateController, decimated by a SignalFilter or suppressed
+ *  by the DeadbandTable), and the ones sent or failed. Latency is kept for four
+ *  stages, all from System.nanoTime():
+ *
+ *      e2e     listener receiving the sample to its datagram being written to every destination
+ *              (includes the time a LATEST rate limit holds it back)
+ *      queue   listener receiving the sample to the sender thread taking it from the ring
+ *      send    encoding a datagram to it being written to every destination
+ *      event   listener seeing an artifact edge to its event being written and flushed
+ *
+ *  Received counts come from the listener thread, everything else from the sender thread, so
+ *  every counter has a single writer. Once per period the sender calls update(), which takes
+ *  a snapshot of the last period for the screen and for writeStats(), the /streamer/stats
+ *  bundle (more than one if the rows don't fit in a datagram). Each message names its row in
+ *  the first argument:
+ *
+ *      e2e, queue, send, event ,sffff  p50 p99 max mean, microseconds over the last period
+ *      ring                    ,siiii  depth, max depth, dropped oldest, dropped newest
+ *      datagrams               ,sii    sent, failed
+ *      deadband                ,sii    messages and bytes the DeadbandTable saved
+ *      adaptive                ,siiii  rate scale in %, stale samples dropped, decreases, increases
+ *      reconnect               ,siiii  outages, attempts, last reconnect ms, last gap ms
+ *      playout                 ,siiii  delay us, late, early, depth
+ *      (an address)            ,siiii  received, throttled, sent, failed
+ *
+ *  Counts are totals since the pipeline started, receivers take the differences for rates.
+ */
+public class StreamStats {
+    public static final int E2E = 0;
+    public static final int QUEUE = 1;
+    public static final int SEND = 2;
+    public static final int EVENT = 3;
+    public static final int NUM_STAGES = 4;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public StreamStats(String[] _addresses) {
+        addresses = _addresses;
+        received = new AtomicLongArray(addresses.length);
+        throttled = new AtomicLongArray(addresses.length);
+        sent = new AtomicLongArray(addresses.length);
+        failed = new AtomicLongArray(addresses.length);
+    }
+
+    // Where the reconnect row comes from, null for zeros
+    public void setReconnect(ReconnectBackoff _reconnect) {
+        reconnect = _reconnect;
+    }
+
+    public String[] getAddresses() { return addresses; }
+    public LatencyStats getLatency(int stage) { return latencies[stage]; }
+    public long getReceivedCount(int i) { return received.get(i); }
+    public long getThrottledCount(int i) { return throttled.get(i); }
+    public long getSentCount(int i) { return sent.get(i); }
+    public long getFailedCount(int i) { return failed.get(i); }
+
+    // Index of address in getAddresses(), -1 if it isn't counted
+    public int indexOf(String address) {
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] == address)
+                return i;
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i].equals(address))
+                return i;
+        }
+        return -1;
+    }
+
+    //-- listener thread
+
+    public void onReceived(String address) {
+        int i = indexOf(address);
+        if (i >= 0)
+            received.lazySet(i, received.get(i) + 1);
+    }
+
+    //-- sender thread
+
+    // count samples for address went out in one datagram, or didn't
+    public void onSent(String address, int count, boolean ok) {
+        int i = indexOf(address);
+        if (i < 0)
+            return;
+        if (ok)
+            sent.lazySet(i, sent.get(i) + count);
+        else
+            failed.lazySet(i, failed.get(i) + count);
+    }
+
+    // Ends a period: reads the held back counts and the ring, snapshots the latencies of the
+    // period and starts the next one
+    public void update(long now, OscSender sender) {
+        RateController rates = sender.getRateController();
+        FilterTable filters = sender.getFilters();
+        DeadbandTable deadbands = sender.getDeadbands();
+        SampleRing ring = sender.getRing();
+        long sentTotal = 0;
+        long failedTotal = 0;
+        long throttledTotal = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            long t = rates.getThrottledCount(addresses[i]) + filters.getDecimatedCount(addresses[i]) +
+                     deadbands.getSuppressedCount(addresses[i]);
+            throttled.lazySet(i, t);
+            throttledTotal += t;
+            sentTotal += sent.get(i);
+            failedTotal += failed.get(i);
+        }
+
+        for (int s = 0; s < NUM_STAGES; s++) {
+            LatencyStats stage = latencies[s];
+            long[] period = periods[s];
+            period[0] = stage.getIntervalPercentile(0.5);
+            period[1] = stage.getIntervalPercentile(0.99);
+            period[2] = stage.getIntervalMax();
+            period[3] = stage.getIntervalMean();
+            stage.markInterval();
+        }
+
+        depth = ring.size();
+        maxDepth = ring.getMaxDepth();
+        droppedOldest = ring.getDroppedOldestCount();
+        droppedNewest = ring.getDroppedNewestCount();
+        datagramsSent = sender.getSentCount();
+        datagramsFailed = sender.getFailedCount();
+        savedMessages = deadbands.getSavedMessages();
+        savedBytes = deadbands.getSavedBytes();
+        AdaptiveRate adaptive = sender.getAdaptiveRate();
+        ratePercent = adaptive != null ? Math.round(adaptive.getScale() * 100) : 100;
+        staleDropped = sender.getStaleCount();
+        rateDecreases = adaptive != null ? adaptive.getDecreaseCount() : 0;
+        rateIncreases = adaptive != null ? adaptive.getIncreaseCount() : 0;
+        if (reconnect != null) {
+            outages = reconnect.getOutageCount();
+            reconnectAttempts = reconnect.getAttemptCount();
+            lastReconnectMillis = reconnect.getLastReconnectNanos() / 1000000;
+            lastGapMillis = reconnect.getLastGapNanos() / 1000000;
+        }
+        PlayoutBuffer playout = sender.getPlayout();
+        if (playout != null) {
+            playoutMicros = playout.getDelayNanos() / 1000;
+            playoutLate = playout.getLateCount();
+            playoutEarly = playout.getEarlyCount();
+            playoutDepth = playout.size();
+        }
+
+        long elapsed = now - lastUpdate;
+        sentPerSecond = lastUpdate == 0 || elapsed <= 0 ? 0 : (sentTotal - lastSentTotal) * 1000000000L / elapsed;
+        lastUpdate = now;
+        lastSentTotal = sentTotal;
+        e2eP50 = periods[E2E][0];
+        e2eP99 = periods[E2E][1];
+        e2eMax = periods[E2E][2];
+        this.failedTotal = failedTotal;
+        this.throttledTotal = throttledTotal;
+    }
+
+    // The last update() as a #bundle of prefix + /streamer/stats messages, starting at row
+    // firstRow (0 for the first bundle). Returns the row the next bundle has to start at if
+    // they didn't all fit in buf, -1 once the last row is written
+    public int writeStats(ByteBuffer buf, String prefix, long timetag, int firstRow) {
+        OscEncoder.writeBundleHeader(buf, timetag);
+        int numRows = NUM_STAGES + 6 + addresses.length;
+        for (int r = firstRow; r < numRows; r++) {
+            if (writeRow(buf, prefix, r))
+                continue;
+            if (r > firstRow)
+                return r;
+            // a row that doesn't fit on its own (a very long prefix) is left out
+            if (r + 1 == numRows)
+                return -1;
+            return r + 1;
+        }
+        return -1;
+    }
+
+    //-- any thread, figures of the last update()
+
+    public long getSentPerSecond() { return sentPerSecond; }
+    public long getFailedTotal() { return failedTotal; }
+    public long getThrottledTotal() { return throttledTotal; }
+    public long getDroppedTotal() { return droppedOldest + droppedNewest; }
+    public int getQueueDepth() { return depth; }
+
+    // e.g. "e2e 0.12/3.40/180.00ms 312/s failed 0 throttled 1200 dropped 0 queue 0", no
+    // formatting objects so the screen can call it every second
+    public void appendSummary(StringBuilder sb) {
+        sb.append("e2e ");
+        appendMillis(sb, e2eP50);
+        sb.append('/');
+        appendMillis(sb, e2eP99);
+        sb.append('/');
+        appendMillis(sb, e2eMax);
+        sb.append("ms ").append(sentPerSecond).append("/s");
+        sb.append(" failed ").append(failedTotal);
+        sb.append(" throttled ").append(throttledTotal);
+        sb.append(" dropped ").append(droppedOldest + droppedNewest);
+        sb.append(" queue ").append(depth);
+        if (ratePercent != 100)
+            sb.append(" rate ").append(ratePercent).append('%');
+        if (reconnect != null && reconnect.isInOutage())
+            sb.append(" reconnecting");
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // Latencies, then the ring, datagrams, deadband, adaptive, reconnect and playout rows and the addresses,
+    // false if it didn't fit
+    private boolean writeRow(ByteBuffer buf, String prefix, int r) {
+        if (r < NUM_STAGES)
+            return writeRow(buf, prefix, latencies[r].getName(), periods[r], 4, true);
+
+        if (r == NUM_STAGES) {
+            row[0] = depth;
+            row[1] = maxDepth;
+            row[2] = droppedOldest;
+            row[3] = droppedNewest;
+            return writeRow(buf, prefix, "ring", row, 4, false);
+        }
+        if (r == NUM_STAGES + 1) {
+            row[0] = datagramsSent;
+            row[1] = datagramsFailed;
+            return writeRow(buf, prefix, "datagrams", row, 2, false);
+        }
+        if (r == NUM_STAGES + 2) {
+            row[0] = savedMessages;
+            row[1] = savedBytes;
+            return writeRow(buf, prefix, "deadband", row, 2, false);
+        }
+        if (r == NUM_STAGES + 3) {
+            row[0] = ratePercent;
+            row[1] = staleDropped;
+            row[2] = rateDecreases;
+            row[3] = rateIncreases;
+            return writeRow(buf, prefix, "adaptive", row, 4, false);
+        }
+        if (r == NUM_STAGES + 4) {
+            row[0] = outages;
+            row[1] = reconnectAttempts;
+            row[2] = lastReconnectMillis;
+            row[3] = lastGapMillis;
+            return writeRow(buf, prefix, "reconnect", row, 4, false);
+        }
+        if (r == NUM_STAGES + 5) {
+            row[0] = playoutMicros;
+            row[1] = playoutLate;
+            row[2] = playoutEarly;
+            row[3] = playoutDepth;
+            return writeRow(buf, prefix, "playout", row, 4, false);
+        }
+
+        int i = r - NUM_STAGES - 6;
+        row[0] = received.get(i);
+        row[1] = throttled.get(i);
+        row[2] = sent.get(i);
+        row[3] = failed.get(i);
+        return writeRow(buf, prefix, addresses[i], row, 4, false);
+    }
+
+    // "/streamer/stats ,s" + count floats (microseconds from nanos) or ints
+    private boolean writeRow(ByteBuffer buf, String prefix, String name, long[] values, int count, boolean micros) {
+        int size = 4 + OscEncoder.addressSize(prefix, OscAddresses.STREAMER_STATS) +
+                   ((count + 2 + 4) & ~3) + OscEncoder.stringSize(name) + 4 * count;
+        if (buf.remaining() < size)
+            return false;
+
+        int sizePosition = OscEncoder.beginBundleElement(buf);
+        OscEncoder.writeAddress(buf, prefix, OscAddresses.STREAMER_STATS);
+        OscEncoder.writeTypeTags(buf, micros ? FLOAT_TAGS[count] : INT_TAGS[count]);
+        OscEncoder.writeString(buf, name);
+        for (int i = 0; i < count; i++) {
+            if (micros)
+                buf.putFloat(values[i] / 1000f);
+            else
+                buf.putInt((int) Math.min(Integer.MAX_VALUE, values[i]));
+        }
+        OscEncoder.endBundleElement(buf, sizePosition);
+        return true;
+    }
+
+    // nanoseconds as milliseconds with 2 decimals
+    private static void appendMillis(StringBuilder sb, long nanos) {
+        long hundredths = (nanos + 5000) / 10000;
+        sb.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10)
+            sb.append('0');
+        sb.append(fraction);
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final String[] FLOAT_TAGS = { "s", "sf", "sff", "sfff", "sffff" };
+    private static final String[] INT_TAGS = { "s", "si", "sii", "siii", "siiii" };
+
+    private final String[] addresses;
+    private final AtomicLongArray received;         // written by the listener thread
+    private final AtomicLongArray throttled;        // the rest by the sender thread
+    private final AtomicLongArray sent;
+    private final AtomicLongArray failed;
+    private ReconnectBackoff reconnect = null;
+    private final LatencyStats[] latencies = {
+        new LatencyStats("e2e"), new LatencyStats("queue"), new LatencyStats("send"), new LatencyStats("event")
+    };
+
+    // sender thread only
+    private final long[][] periods = new long[NUM_STAGES][4];      // p50, p99, max, mean
+    private final long[] row = new long[4];
+    private long lastUpdate = 0;
+    private long lastSentTotal = 0;
+    private long datagramsSent = 0;
+    private long datagramsFailed = 0;
+    private long savedMessages = 0;
+    private long savedBytes = 0;
+    private long staleDropped = 0;
+    private long rateDecreases = 0;
+    private long rateIncreases = 0;
+    private long outages = 0;
+    private long reconnectAttempts = 0;
+    private long lastReconnectMillis = 0;
+    private long lastGapMillis = 0;
+    private long playoutMicros = 0;
+    private long playoutLate = 0;
+    private long playoutEarly = 0;
+    private long playoutDepth = 0;
+    private int maxDepth = 0;
+
+    // snapshot of the last update() for other threads
+    private volatile long e2eP50 = 0;
+    private volatile long e2eP99 = 0;
+    private volatile long e2eMax = 0;
+    private volatile long sentPerSecond = 0;
+    private volatile long failedTotal = 0;
+    private volatile long throttledTotal = 0;
+    private volatile long droppedOldest = 0;
+    private volatile long droppedNewest = 0;
+    private volatile int depth = 0;
+    private volatile long ratePercent = 100;
+}
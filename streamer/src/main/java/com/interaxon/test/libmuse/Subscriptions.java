@@ -0,0 +1,126 @@
+package com.interaxon.test.libmuse;
+
+/**
+ *  Subscriptions
+ *
+ *  Which of a pipeline's addresses anyone wants. Everything is subscribed to begin with, so a
+ *  receiver that never sends a control message gets what it always got. The first subscribe
+ *  that matches anything replaces that default, so subscribing to "/muse/eeg" gets just EEG;
+ *  after that (or after an unsubscribe) changes add to and remove from the set. A pipeline checks
+ *  isSubscribed() before it queues a sample, so an unsubscribed address costs neither a ring
+ *  slot nor an encode, and the source asks it which libmuse packets it still needs at all.
+ *
+ *  Patterns are an address, "*" for all of them, or a prefix ending in '*', e.g.
+ *  "/muse/elements/*". Addresses that aren't in the list (e.g. /streamer/stats) are always
+ *  subscribed.
+ *
+ *  The set is one volatile bitmask, so the listener thread reads it without a lock; changes
+ *  come from the control thread and are followed by the change listener.
+ */
+public class Subscriptions {
+    public static final int MAX_ADDRESSES = 64;
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public Subscriptions(String[] _addresses) {
+        if (_addresses.length > MAX_ADDRESSES)
+            throw new IllegalArgumentException("at most " + MAX_ADDRESSES + " addresses: " + _addresses.length);
+        addresses = _addresses;
+        all = addresses.length == MAX_ADDRESSES ? -1L : (1L << addresses.length) - 1;
+        mask = all;
+    }
+
+    public String[] getAddresses() { return addresses; }
+    public boolean isSubscribed(int i) { return (mask & (1L << i)) != 0; }
+    public boolean isAll() { return mask == all; }
+
+    public boolean isSubscribed(String address) {
+        long m = mask;
+        if (m == all)
+            return true;
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] == address)
+                return (m & (1L << i)) != 0;
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i].equals(address))
+                return (m & (1L << i)) != 0;
+        }
+        return true;
+    }
+
+    // True if any of the addresses is subscribed
+    public boolean isAnySubscribed(String[] list) {
+        for (String address : list) {
+            if (isSubscribed(address))
+                return true;
+        }
+        return false;
+    }
+
+    // Both return how many addresses the pattern matched
+    public int subscribe(String pattern) {
+        return change(pattern, true);
+    }
+
+    public int unsubscribe(String pattern) {
+        return change(pattern, false);
+    }
+
+    // Called after every change, on the thread that made it
+    public void setListener(Runnable _listener) {
+        listener = _listener;
+    }
+
+    // The subscribed addresses separated by ',', "*" for all of them
+    @Override
+    public String toString() {
+        if (isAll())
+            return "*";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < addresses.length; i++) {
+            if (!isSubscribed(i))
+                continue;
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(addresses[i]);
+        }
+        return sb.toString();
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private int change(String pattern, boolean on) {
+        pattern = pattern.trim();
+        boolean prefix = pattern.endsWith("*");
+        String start = prefix ? pattern.substring(0, pattern.length() - 1) : pattern;
+
+        int matched = 0;
+        synchronized (this) {
+            long bits = 0;
+            for (int i = 0; i < addresses.length; i++) {
+                if (prefix ? addresses[i].startsWith(start) : addresses[i].equals(start)) {
+                    bits |= 1L << i;
+                    matched++;
+                }
+            }
+            if (matched == 0)
+                return 0;
+            if (!explicit && on)
+                mask = bits;            // the first subscribe narrows "everything" down to it
+            else
+                mask = on ? mask | bits : mask & ~bits;
+            explicit = true;
+        }
+
+        Runnable l = listener;
+        if (l != null)
+            l.run();
+        return matched;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final String[] addresses;
+    private final long all;
+    private volatile long mask;
+    private boolean explicit = false;           // changed since the all-subscribed default, guarded by this
+    private volatile Runnable listener = null;
+}
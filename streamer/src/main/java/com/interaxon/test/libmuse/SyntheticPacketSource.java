@@ -0,0 +1,344 @@
+package com.interaxon.test.libmuse;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  SyntheticPacketSource
+ *
+ *  Generates Muse-like packets on its own thread, for running and benchmarking the pipeline
+ *  without a headset, Android or libmuse. Each packet kind has its own rate in packets per
+ *  second (0 turns it off), and rates can go far beyond what a headset sends.
+ *
+ *  The output is deterministic for a given spec: values depend only on the seed and on each
+ *  packet's index, never on the clock. Paced, packets are scheduled against System.nanoTime()
+ *  and bursts catch up if the thread falls behind. Unpaced, they are generated back to back
+ *  in the same order, as fast as the pipeline takes them.
+ *
+ *  Every packet but artifacts carries a device timestamp, the time it was scheduled for, like
+ *  libmuse's. With burst set, paced packets are held back and handed over together at the end
+ *  of every burst window, plus up to half a window of random delay, the way Bluetooth delivers
+ *  them; the timestamps stay on the schedule, so a PlayoutBuffer can even them out again.
+ *
+ *  Specs are "key=value" pairs separated by ';', e.g. "eeg=220;bands=10;sine=10:20,22:5;noise=4"
+ *      eeg, bands, horseshoe, artifacts, battery   packets per second of each kind
+ *      sine        raw EEG sines as freqHz:amplitude, separated by ','
+ *      noise       standard deviation of the gaussian noise added to raw EEG
+ *      levels      alpha,beta,delta,gamma,theta band powers, each band gets +-10% noise
+ *      blink, jaw  chance (0..1) of each artifact packet having a blink or jaw clench
+ *      headband    "on" or "off"
+ *      seed        random seed
+ *      paced       1 to follow the rates in real time, 0 to go as fast as possible
+ *      burst       ms of packets delivered at once when paced, 0 for each on time
+ */
+public class SyntheticPacketSource implements PacketSource, Runnable {
+    // packet kinds, for getCount()
+    public static final int EEG = 0;
+    public static final int BANDS = 1;
+    public static final int HORSESHOE = 2;
+    public static final int ARTIFACTS = 3;
+    public static final int BATTERY = 4;
+    public static final int NUM_KINDS = 5;
+
+    public static final float EEG_OFFSET = 841;             // microvolts, middle of the Muse's range
+
+    // roughly what a Muse sends with PRESET_14 and raw EEG on
+    public static final String DEFAULT_SPEC =
+            "eeg=220;bands=50;horseshoe=10;artifacts=10;battery=0.1;" +
+            "sine=10:20,22:5;noise=4;levels=0.6,0.3,0.8,0.1,0.5;blink=0.05;jaw=0.02;headband=on;seed=1;paced=1";
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public SyntheticPacketSource() {
+        parse(DEFAULT_SPEC);
+    }
+
+    public SyntheticPacketSource(String spec) {
+        this();
+        parse(spec);
+    }
+
+    // Applies the "key=value;..." pairs in spec over the current settings
+    public void parse(String spec) {
+        parse(spec, this);
+    }
+
+    // Throws IllegalArgumentException if parse() wouldn't take spec
+    public static void validate(String spec) {
+        parse(spec, null);
+    }
+
+    @Override
+    public void start(DevicePipeline _pipeline) {
+        pipeline = _pipeline;
+        random = new Random(seed);
+        burstRandom = new Random(seed + 1);
+
+        running = true;
+        thread = new Thread(this, "SyntheticPacketSource");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() { return running; }
+    public long getGeneratedCount() { return generated; }
+    public long getCount(int kind) { return counts[kind]; }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long[] due = new long[NUM_KINDS];
+        for (int k = 0; k < NUM_KINDS; k++)
+            due[k] = periods[k] > 0 ? 0 : Long.MAX_VALUE;
+
+        while (running) {
+            // the kind due first, ties go to the lower kind so the order is fixed
+            int kind = -1;
+            for (int k = 0; k < NUM_KINDS; k++) {
+                if (due[k] != Long.MAX_VALUE && (kind < 0 || due[k] < due[kind]))
+                    kind = k;
+            }
+            if (kind < 0)
+                break;          // every kind is turned off
+
+            if (paced)
+                waitUntil(start + deliveryTime(due[kind]));
+            emit(kind, due[kind]);
+            due[kind] += periods[kind];
+        }
+        running = false;
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // Checks every entry in spec and, unless into is null, applies it there
+    private static void parse(String spec, SyntheticPacketSource into) {
+        for (String entry : spec.split(";")) {
+            entry = entry.trim();
+            if (entry.length() == 0)
+                continue;
+
+            int eq = entry.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("bad synthetic entry: " + entry);
+            String key = entry.substring(0, eq).trim();
+            String value = entry.substring(eq + 1).trim();
+            try {
+                set(key, value, into);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad synthetic entry: " + entry);
+            }
+        }
+    }
+
+    // Checks the value and, unless into is null, sets it there
+    private static void set(String key, String value, SyntheticPacketSource into) {
+        int kind = kindOf(key);
+        if (kind >= 0) {
+            long period = toPeriod(value);
+            if (into != null)
+                into.periods[kind] = period;
+        }
+        else if (key.equals("sine")) {
+            String[] sines = value.length() == 0 ? new String[0] : value.split(",");
+            double[] hz = new double[sines.length];
+            double[] amplitude = new double[sines.length];
+            for (int i = 0; i < sines.length; i++) {
+                String[] parts = sines[i].split(":");
+                if (parts.length != 2)
+                    throw new IllegalArgumentException("bad sine: " + sines[i]);
+                hz[i] = Double.parseDouble(parts[0].trim());
+                amplitude[i] = Double.parseDouble(parts[1].trim());
+            }
+            if (into != null) {
+                into.sineHz = hz;
+                into.sineAmplitude = amplitude;
+            }
+        }
+        else if (key.equals("levels")) {
+            String[] parts = value.split(",");
+            if (parts.length != LatestValues.NUM_BANDS)
+                throw new IllegalArgumentException("levels needs " + LatestValues.NUM_BANDS + " values: " + value);
+            for (int i = 0; i < parts.length; i++) {
+                float level = Float.parseFloat(parts[i].trim());
+                if (into != null)
+                    into.levels[i] = level;
+            }
+        }
+        else if (key.equals("noise") || key.equals("blink") || key.equals("jaw")) {
+            double number = Double.parseDouble(value);
+            if (into == null)
+                return;
+            if (key.equals("noise"))
+                into.noise = number;
+            else if (key.equals("blink"))
+                into.blinkChance = number;
+            else
+                into.jawChance = number;
+        }
+        else if (key.equals("seed")) {
+            long seed = Long.parseLong(value);
+            if (into != null)
+                into.seed = seed;
+        }
+        else if (key.equals("burst")) {
+            long nanos = toNanos(value);
+            if (into != null)
+                into.burstNanos = nanos;
+        }
+        else if (key.equals("headband")) {
+            if (into != null)
+                into.headbandOn = !value.equals("off");
+        }
+        else if (key.equals("paced")) {
+            if (into != null)
+                into.paced = !value.equals("0");
+        }
+        else
+            throw new IllegalArgumentException("unknown synthetic key: " + key);
+    }
+
+    // The packet kind a rate key is for, -1 if it isn't one
+    private static int kindOf(String key) {
+        if (key.equals("eeg"))
+            return EEG;
+        if (key.equals("bands"))
+            return BANDS;
+        if (key.equals("horseshoe"))
+            return HORSESHOE;
+        if (key.equals("artifacts"))
+            return ARTIFACTS;
+        if (key.equals("battery"))
+            return BATTERY;
+        return -1;
+    }
+
+    // packets per second to nanoseconds between packets, 0 for off
+    private static long toPeriod(String rate) {
+        double perSecond = Double.parseDouble(rate);
+        if (perSecond < 0)
+            throw new NumberFormatException(rate);
+        return perSecond == 0 ? 0 : Math.max(1, Math.round(1e9 / perSecond));
+    }
+
+    private static long toNanos(String ms) {
+        double millis = Double.parseDouble(ms);
+        if (millis < 0)
+            throw new NumberFormatException(ms);
+        return Math.round(millis * 1000000);
+    }
+
+    // When a packet scheduled for due (after start) is handed over: the end of its burst window
+    // plus that window's delay
+    private long deliveryTime(long due) {
+        if (burstNanos == 0)
+            return due;
+        long window = due / burstNanos;
+        if (window != burstWindow) {
+            burstWindow = window;
+            burstDelay = (long) (burstRandom.nextDouble() * burstNanos / 2);
+        }
+        return (window + 1) * burstNanos + burstDelay;
+    }
+
+    private void emit(int kind, long due) {
+        // artifact packets have no timestamp in libmuse either
+        pipeline.setPacketTimestamp(kind == ARTIFACTS ? 0 : DEVICE_EPOCH_MICROS + due / 1000);
+        long index = counts[kind];
+        switch (kind) {
+            case EEG:
+                // sample time from the index, so the waveform doesn't depend on the clock
+                double t = index * (periods[EEG] / 1e9);
+                for (int c = 0; c < 4; c++) {
+                    double v = EEG_OFFSET + noise * random.nextGaussian();
+                    for (int i = 0; i < sineHz.length; i++)
+                        v += sineAmplitude[i] * Math.sin(2 * Math.PI * sineHz[i] * t + c * CHANNEL_PHASE);
+                    values[c] = (float) v;
+                }
+                pipeline.onEeg(values);
+                break;
+
+            case BANDS:
+                // one band per packet, in turn, like the headset sends them
+                int band = (int) (index % LatestValues.NUM_BANDS);
+                for (int c = 0; c < 4; c++)
+                    values[c] = levels[band] * (0.9f + 0.2f * random.nextFloat());
+                pipeline.onBand(band, values);
+                break;
+
+            case HORSESHOE:
+                // mostly good fit, sometimes ok or bad
+                for (int c = 0; c < 4; c++) {
+                    float r = random.nextFloat();
+                    values[c] = r < 0.8f ? 1 : (r < 0.95f ? 2 : 4);
+                }
+                pipeline.onHorseshoe(values);
+                break;
+
+            case ARTIFACTS:
+                pipeline.onArtifacts(headbandOn, random.nextDouble() < blinkChance, random.nextDouble() < jawChance);
+                break;
+
+            case BATTERY:
+                pipeline.onBattery(Math.max(0, 100 - index * 0.01f));
+                break;
+        }
+        counts[kind]++;
+        generated++;
+    }
+
+    // Parks until just before due, then spins
+    private void waitUntil(long due) {
+        while (running) {
+            long left = due - System.nanoTime();
+            if (left <= 0)
+                return;
+            if (left > SPIN_NANOS)
+                LockSupport.parkNanos(left - SPIN_NANOS);
+            else
+                Thread.yield();
+        }
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final long SPIN_NANOS = 1000000L;           // spin for the last 1ms
+    private static final double CHANNEL_PHASE = 0.5;           // radians between channels' sines
+    private static final long DEVICE_EPOCH_MICROS = 1000000L;  // device time of the first packet
+
+    private final long[] periods = new long[NUM_KINDS];
+    private double[] sineHz = new double[0];
+    private double[] sineAmplitude = new double[0];
+    private double noise = 0;
+    private final float[] levels = new float[LatestValues.NUM_BANDS];
+    private double blinkChance = 0;
+    private double jawChance = 0;
+    private boolean headbandOn = true;
+    private long seed = 1;
+    private boolean paced = true;
+    private long burstNanos = 0;
+
+    private DevicePipeline pipeline;
+    private Random random;
+    private Random burstRandom;             // apart from random, so values don't depend on bursts
+    private long burstWindow = -1;
+    private long burstDelay = 0;
+    private final float[] values = new float[4];
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // only written by the generator thread
+    private final long[] counts = new long[NUM_KINDS];
+    private volatile long generated = 0;
+}
@@ -0,0 +1,135 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  AdaptiveRateTest
+ *
+ *  An OscSender with an AdaptiveRate sending rate limited EEG, as fast as it takes it, over TCP
+ *  to a local receiver that accepts the connection and then doesn't read. Samples that waited past the stale limit are
+ *  dropped instead of sent; once the socket stops taking data the scale has to come down, and
+ *  once the receiver reads again it has to grow back.
+ */
+public class AdaptiveRateTest {
+    private static final int HZ = 1000000;         // the limit, the test feeds as fast as it can
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        // a small window, so the blocked receiver pushes back quickly
+        server.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        ring = new SampleRing(2048, 4, SampleRing.OverflowPolicy.DROP_OLDEST);
+        RateController rates = new RateController(4);
+        rates.set(OscAddresses.EEG, "max:" + HZ);
+        adaptive = new AdaptiveRate("floor=1;period=100;stale=200");
+        stats = new StreamStats(OscAddresses.ALL);
+        sender = new OscSender(ring);
+        sender.addDestination(new OscTcpDestination(OscTcpDestination.Framing.SLIP, "127.0.0.1", server.socket().getLocalPort()));
+        sender.setRateController(rates);
+        sender.setAdaptiveRate(adaptive);
+        sender.setStats(stats, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        if (peer != null)
+            peer.close();
+        server.close();
+    }
+
+    @Test
+    public void dropsStaleSamplesAndScalesDownWhenBlocked() throws Exception {
+        // queued while the sender wasn't running, stale by the time it starts
+        for (int i = 0; i < 500; i++)
+            publish(System.nanoTime());
+        Thread.sleep(300);
+        sender.start();
+        peer = server.accept();
+        int eeg = stats.indexOf(OscAddresses.EEG);
+        long deadline = System.nanoTime() + 1000000000L;
+        while (sender.getStaleCount() < 500 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(500, sender.getStaleCount());
+        assertEquals(0, stats.getSentCount(eeg));
+
+        // the receiver doesn't read, the socket buffers fill up (a few MB) and refuse writes
+        feed(4000);
+        assertTrue("scale " + adaptive.getScale(), adaptive.getScale() < 0.5);
+        assertTrue(adaptive.getDecreaseCount() > 0);
+        long refused = sender.getDestinations().get(0).getFullCount();
+        assertTrue(refused > 0);
+
+        // reading again, the scale has to grow back once the backlog is through
+        long increases = adaptive.getIncreaseCount();
+        peer.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer in = ByteBuffer.allocate(65536);
+                try {
+                    while (peer.read(in) >= 0)
+                        in.clear();
+                } catch (IOException e) {
+                    // closed by tearDown()
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        long end = System.nanoTime() + 10000000000L;
+        while (adaptive.getIncreaseCount() == increases && System.nanoTime() < end) {
+            pace();
+            publish(System.nanoTime());
+        }
+        assertTrue("increases " + adaptive.getIncreaseCount(), adaptive.getIncreaseCount() > increases);
+        assertTrue(stats.getSentCount(eeg) > 0);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void feed(long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        while (System.nanoTime() < end) {
+            pace();
+            publish(System.nanoTime());
+        }
+    }
+
+    // As fast as the sender takes them, but never so deep that the ring itself counts as congestion
+    private void pace() {
+        while (ring.size() > ring.capacity() / 16)
+            Thread.yield();
+    }
+
+    private void publish(long received) {
+        Sample sample = ring.claim();
+        sample.setFloats(OscAddresses.EEG, VALUES, 4);
+        sample.receivedNanos = received;
+        sample.sampleNanos = received;
+        ring.publish();
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final float[] VALUES = { 800, 810, 820, 830 };
+
+    private ServerSocketChannel server;
+    private SocketChannel peer;
+    private SampleRing ring;
+    private AdaptiveRate adaptive;
+    private StreamStats stats;
+    private OscSender sender;
+}
@@ -0,0 +1,78 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  BundleKeepAliveTest
+ *
+ *  Bundle mode with a deadband keep-alive on horseshoe, which never changes here. The bundler
+ *  only sends horseshoe when it changed, but the keep-alives the deadband lets through have to
+ *  go out anyway: one bundle per keep-alive interval, each counted as sent, every other sample
+ *  counted as saved.
+ */
+public class BundleKeepAliveTest {
+    private static final long KEEP_ALIVE_MS = 200;
+    private static final long RUN_MS = 1100;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new LoopbackReceiver();
+        ring = new SampleRing(256, 4, SampleRing.OverflowPolicy.BLOCK);
+        deadbands = new DeadbandTable(4, "");
+        deadbands.set(OscAddresses.HORSESHOE, "abs:0:" + KEEP_ALIVE_MS);
+        stats = new StreamStats(OscAddresses.ALL);
+        sender = new OscSender(ring);
+        sender.addDestination(new OscDestination(OscDestination.Kind.UNICAST, "127.0.0.1", receiver.getPort()));
+        sender.setDeadbands(deadbands);
+        sender.setBundler(new OscBundler(OscAddresses.BANDS, new String[] { OscAddresses.HORSESHOE }, 4), 20);
+        sender.setStats(stats, 0);
+        sender.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        receiver.close();
+    }
+
+    @Test
+    public void steadyHorseshoeGoesOutOncePerKeepAlive() throws Exception {
+        float[] good = { 1, 1, 1, 1 };
+        int samples = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < RUN_MS * 1000000L) {
+            Sample sample = ring.claim();
+            sample.setFloats(OscAddresses.HORSESHOE, good, 4);
+            sample.receivedNanos = System.nanoTime();
+            sample.sampleNanos = sample.receivedNanos;
+            ring.publish();
+            samples++;
+            Thread.sleep(10);
+            receiver.receiveAvailable();
+        }
+        while (ring.size() > 0)
+            Thread.sleep(1);
+        Thread.sleep(50);
+        receiver.drain(100);
+
+        // the first one, then a keep-alive every interval
+        long expected = 1 + RUN_MS / KEEP_ALIVE_MS;
+        long datagrams = receiver.getDatagramCount();
+        assertTrue("datagrams " + datagrams, datagrams >= expected - 1 && datagrams <= expected);
+        assertEquals(datagrams, sender.getBundleCount());
+        assertEquals(datagrams, stats.getSentCount(stats.indexOf(OscAddresses.HORSESHOE)));
+        assertEquals(samples - datagrams, deadbands.getSuppressedCount(OscAddresses.HORSESHOE));
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private LoopbackReceiver receiver;
+    private SampleRing ring;
+    private DeadbandTable deadbands;
+    private StreamStats stats;
+    private OscSender sender;
+}
@@ -0,0 +1,93 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *  ClockSyncTest
+ *
+ *  ClockSync against a simulated receiver whose clock is OFFSET ahead of ours and drifts, over
+ *  a network with exponential queuing jitter and a different base delay each way. Time is
+ *  simulated, the test runs 20 minutes of exchanges every 2 seconds at once.
+ *
+ *  The asymmetry can't be seen from either end, so the offset may be off by half of it; on top
+ *  of that the error has to stay under MAX_ERROR_NANOS (MEAN_ERROR_NANOS on average, the rest is
+ *  jitter the smallest-delay filter can't remove) and the drift within MAX_DRIFT_ERROR.
+ */
+public class ClockSyncTest {
+    private static final long WALL = 1700000000000L * 1000000L;     // our wall clock at nanoTime() 0
+    private static final long OFFSET = 250000000L;
+    private static final long PERIOD = 2000000000L;
+    private static final long FORWARD = 3000000L;                   // base delays each way
+    private static final long BACK = 1000000L;
+    private static final double JITTER = 5000000;                   // mean queuing delay
+    private static final long MAX_ERROR_NANOS = 4000000L;
+    private static final long MEAN_ERROR_NANOS = 1000000L;
+    private static final double MAX_DRIFT_ERROR = 20e-6;
+
+    @Test
+    public void unsyncedIsOurWallClock() {
+        ClockSync clock = new ClockSync(0, WALL);
+        assertFalse(clock.isSynced());
+        assertEquals(WALL + 5000, clock.toReceiverNanos(5000));
+        assertFalse(clock.onReply(12345, 1, 2, 0));
+    }
+
+    @Test
+    public void tracksOffsetWithoutDrift() {
+        run(0);
+    }
+
+    @Test
+    public void tracksFastReceiver() {
+        run(200e-6);
+    }
+
+    @Test
+    public void tracksSlowReceiver() {
+        run(-200e-6);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void run(double drift) {
+        ClockSync clock = new ClockSync(0, WALL);
+        Random random = new Random(24);
+        long bias = (FORWARD - BACK) / 2;
+        long maxError = 0;
+        long sumError = 0;
+        int judged = 0;
+
+        for (long now = 1000000L; now < 20 * 60 * 1000000000L; now += PERIOD) {
+            long t1 = clock.newRequest(now);
+            long received = now + FORWARD + (long) (-JITTER * Math.log(1 - random.nextDouble()));
+            long answered = received + 200000L;
+            long back = answered + BACK + (long) (-JITTER * Math.log(1 - random.nextDouble()));
+            assertTrue(clock.onReply(t1, OscEncoder.toTimetagNanos(receiver(received, drift)),
+                                     OscEncoder.toTimetagNanos(receiver(answered, drift)), back));
+
+            // after the first drift span, judged halfway to the next exchange
+            if (now > 2 * ClockSync.DRIFT_SPAN_NANOS) {
+                long at = back + PERIOD / 2;
+                long error = Math.abs(clock.toReceiverNanos(at) - receiver(at, drift) - bias);
+                maxError = Math.max(maxError, error);
+                sumError += error;
+                judged++;
+            }
+        }
+
+        assertTrue(clock.isSynced());
+        assertTrue("max error " + maxError / 1000 + "us", maxError < MAX_ERROR_NANOS);
+        assertTrue("mean error " + sumError / judged / 1000 + "us", sumError / judged < MEAN_ERROR_NANOS);
+        assertEquals(drift, clock.getDrift(), MAX_DRIFT_ERROR);
+    }
+
+    // The receiver's wall clock at our nanoTime() t
+    private static long receiver(long t, double drift) {
+        return WALL + t + OFFSET + (long) (drift * t);
+    }
+}
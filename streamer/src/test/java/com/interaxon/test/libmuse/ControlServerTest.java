@@ -0,0 +1,73 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  ControlServerTest
+ *
+ *  A command that throws something other than IllegalArgumentException, here a Callback that
+ *  fails once, is counted as rejected and the server goes on serving the next command.
+ */
+public class ControlServerTest {
+
+    @Before
+    public void setUp() throws Exception {
+        DatagramSocket probe = new DatagramSocket(0);
+        int port = probe.getLocalPort();
+        probe.close();
+
+        server = new ControlServer(port, new ControlServer.Callback() {
+            @Override
+            public void setDataTransmission(boolean on) {
+                if (calls++ == 0)
+                    throw new IllegalStateException("headset went away");
+            }
+        });
+        server.start();
+        client = DatagramChannel.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        client.close();
+    }
+
+    @Test
+    public void survivesFailingCommand() throws Exception {
+        send(ControlServer.PAUSE);
+        send(ControlServer.RESUME);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (server.getCommandCount() + server.getRejectedCount() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(1, server.getRejectedCount());
+        assertEquals(1, server.getCommandCount());
+        assertEquals(2, calls);
+        assertFalse(server.isPaused());
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void send(String address) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        OscEncoder.writeAddress(buf, "", address);
+        OscEncoder.writeTypeTags(buf, "");
+        buf.flip();
+        client.send(buf, new InetSocketAddress("127.0.0.1", server.getPort()));
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private ControlServer server;
+    private DatagramChannel client;
+    private volatile int calls = 0;
+}
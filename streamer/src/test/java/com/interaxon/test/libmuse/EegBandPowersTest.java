@@ -0,0 +1,143 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *  EegBandPowersTest
+ *
+ *  RealFft and EegBandPowers against a naive O(n^2) DFT of the same windowed samples, for known
+ *  sinusoids and white noise. The FFT has to match to 1e-9 of the spectrum's peak, and a band's
+ *  log10 power to 1e-4 (its float output). A sinusoid of amplitude A also has to come out at
+ *  A^2/2 uV^2 in its own band, within 0.05 in log10, and far below that in the others.
+ */
+public class EegBandPowersTest {
+    private static final double RATE = 220;
+    private static final int WINDOW = 256;
+
+    @Test
+    public void fftMatchesNaiveDft() {
+        Random random = new Random(1);
+        for (int n = 4; n <= 1024; n *= 2) {
+            double[] in = new double[n];
+            for (int i = 0; i < n; i++)
+                in[i] = random.nextGaussian() * 20 + 5 * Math.sin(2 * Math.PI * 3 * i / n);
+
+            double[] power = new double[n / 2 + 1];
+            new RealFft(n).powerSpectrum(in, power);
+            double[] expected = naivePower(in);
+
+            double peak = 0;
+            for (double p : expected)
+                peak = Math.max(peak, p);
+            for (int k = 0; k <= n / 2; k++)
+                assertEquals("n=" + n + " bin " + k, expected[k], power[k], peak * 1e-9);
+        }
+    }
+
+    @Test
+    public void sinusoidsMatchNaiveDftAndTheirAmplitude() {
+        // one band's centre per channel: alpha, beta, theta and gamma
+        double[] hz = { 10, 20, 6, 37 };
+        int[] band = { LatestValues.ALPHA, LatestValues.BETA, LatestValues.THETA, LatestValues.GAMMA };
+        double amplitude = 50;
+
+        double[][] signal = new double[4][WINDOW];
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < WINDOW; i++)
+                signal[c][i] = 800 + amplitude * Math.sin(2 * Math.PI * hz[c] * i / RATE + c);
+        }
+        EegBandPowers powers = feed(signal);
+
+        for (int c = 0; c < 4; c++) {
+            double[] expected = naiveBands(signal[c]);
+            for (int b = 0; b < LatestValues.NUM_BANDS; b++)
+                assertEquals("channel " + c + " band " + b, expected[b], powers.getBand(b)[c], 1e-4);
+
+            double own = powers.getBand(band[c])[c];
+            assertEquals("channel " + c, Math.log10(amplitude * amplitude / 2), own, 0.05);
+            for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+                if (b != band[c])
+                    assertTrue("channel " + c + " band " + b, powers.getBand(b)[c] < own - 1);
+            }
+        }
+    }
+
+    @Test
+    public void whiteNoiseMatchesNaiveDft() {
+        Random random = new Random(2);
+        double[][] signal = new double[4][WINDOW];
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < WINDOW; i++)
+                signal[c][i] = 800 + random.nextGaussian() * 10 * (c + 1);
+        }
+        EegBandPowers powers = feed(signal);
+
+        for (int c = 0; c < 4; c++) {
+            double[] expected = naiveBands(signal[c]);
+            for (int b = 0; b < LatestValues.NUM_BANDS; b++)
+                assertEquals("channel " + c + " band " + b, expected[b], powers.getBand(b)[c], 1e-4);
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // The window as frames, hop 1 so the last add() computes over exactly these samples
+    private static EegBandPowers feed(double[][] signal) {
+        EegBandPowers powers = new EegBandPowers("rate=" + (int) RATE + ";window=" + WINDOW + ";hop=1");
+        float[] frame = new float[4];
+        boolean computed = false;
+        for (int i = 0; i < WINDOW; i++) {
+            for (int c = 0; c < 4; c++)
+                frame[c] = (float) signal[c][i];
+            computed = powers.add(frame);
+        }
+        assertTrue(computed);
+        return powers;
+    }
+
+    // |X[k]|^2 for k = 0..n/2, straight from the definition
+    private static double[] naivePower(double[] in) {
+        int n = in.length;
+        double[] power = new double[n / 2 + 1];
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0, im = 0;
+            for (int i = 0; i < n; i++) {
+                re += in[i] * Math.cos(2 * Math.PI * k * i / n);
+                im -= in[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            power[k] = re * re + im * im;
+        }
+        return power;
+    }
+
+    // log10 band powers as EegBandPowers documents them, from the samples as floats
+    private static double[] naiveBands(double[] signal) {
+        double[] windowed = new double[WINDOW];
+        double mean = 0;
+        for (int i = 0; i < WINDOW; i++)
+            mean += (float) signal[i];
+        mean /= WINDOW;
+        double sumSquares = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            double hann = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / WINDOW);
+            windowed[i] = ((float) signal[i] - mean) * hann;
+            sumSquares += hann * hann;
+        }
+        double[] power = naivePower(windowed);
+
+        double[] low = { 7.5, 13, 1, 30, 4 };
+        double[] high = { 13, 30, 4, 44, 8 };
+        double[] bands = new double[LatestValues.NUM_BANDS];
+        for (int b = 0; b < LatestValues.NUM_BANDS; b++) {
+            double sum = 0;
+            for (int k = (int) Math.ceil(low[b] * WINDOW / RATE); k < (int) Math.ceil(high[b] * WINDOW / RATE); k++)
+                sum += power[k];
+            bands[b] = Math.log10(sum * 2 / (WINDOW * sumSquares));
+        }
+        return bands;
+    }
+}
@@ -0,0 +1,95 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  EventLaneTest
+ *
+ *  Artifact edges on the event lane while another thread keeps the bulk ring full of raw EEG
+ *  for batching. Every edge has to go out, and its latency (listener to written and flushed,
+ *  StreamStats' event stage) has to stay well below the time bulk samples wait in the ring.
+ */
+public class EventLaneTest {
+    private static final int EDGES = 200;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new LoopbackReceiver();
+        ring = new SampleRing(2048, 4, SampleRing.OverflowPolicy.DROP_OLDEST);
+        events = new SampleRing(64, 1, SampleRing.OverflowPolicy.DROP_OLDEST);
+        stats = new StreamStats(new String[] { OscAddresses.EEG, OscAddresses.BLINK });
+        sender = new OscSender(ring);
+        sender.addDestination(new OscDestination(OscDestination.Kind.UNICAST, "127.0.0.1", receiver.getPort()));
+        sender.setBatching(OscAddresses.EEG, 16);
+        sender.setEvents(events);
+        sender.setStats(stats, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        receiver.close();
+    }
+
+    @Test
+    public void edgesOvertakeSaturatedBulkLane() throws Exception {
+        Thread bulk = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] values = { 800, 810, 820, 830 };
+                while (running) {
+                    // topped up, never empty, so the sender is always in the middle of a batch
+                    while (running && ring.size() >= ring.capacity() / 2)
+                        Thread.yield();
+                    for (int i = 0; i < 64; i++) {
+                        Sample sample = ring.claim();
+                        sample.setFloats(OscAddresses.EEG, values, 4);
+                        sample.receivedNanos = System.nanoTime();
+                        sample.sampleNanos = sample.receivedNanos;
+                        ring.publish();
+                    }
+                }
+            }
+        });
+        sender.start();
+        bulk.start();
+
+        for (int i = 0; i < EDGES; i++) {
+            // read what came meanwhile between edges, not while the sender is busy with one
+            Thread.sleep(2);
+            receiver.receiveAvailable();
+            Thread.sleep(3);
+            Sample edge = events.claim();
+            edge.setInt(OscAddresses.BLINK, i & 1);
+            edge.receivedNanos = System.nanoTime();
+            edge.sampleNanos = edge.receivedNanos;
+            events.publish();
+        }
+        Thread.sleep(50);
+        running = false;
+        bulk.join();
+        sender.stop();
+
+        LatencyStats event = stats.getLatency(StreamStats.EVENT);
+        LatencyStats queue = stats.getLatency(StreamStats.QUEUE);
+        assertEquals(EDGES, event.getCount());
+        assertEquals(EDGES, stats.getSentCount(stats.indexOf(OscAddresses.BLINK)));
+        assertTrue("bulk lane wasn't saturated", sender.getBatchedCount() > 100 * EDGES);
+        // the tail is the scheduler (one CPU shared with the bulk thread), the median is the lane
+        assertTrue(event + " vs " + queue, event.getPercentile(0.5) < queue.getPercentile(0.5) / 2);
+        assertTrue(event.toString(), event.getMax() < 50000000L);
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private LoopbackReceiver receiver;
+    private SampleRing ring;
+    private SampleRing events;
+    private StreamStats stats;
+    private OscSender sender;
+    private volatile boolean running = true;
+}
@@ -0,0 +1,99 @@
+package com.interaxon.test.libmuse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ *  LoopbackReceiver
+ *
+ *  A non-blocking DatagramChannel on 127.0.0.1 for the tests to send to, counting what arrives.
+ *  The last datagram received stays in getLast().
+ */
+public class LoopbackReceiver {
+
+    //-------- PUBLIC FUNCTIONS --------/
+    public LoopbackReceiver() throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 22);
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        channel.configureBlocking(false);
+    }
+
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    // Receives until nothing has arrived for quietMillis, returns how many datagrams came
+    public int drain(long quietMillis) throws Exception {
+        int n = 0;
+        long lastArrival = System.nanoTime();
+        while (System.nanoTime() - lastArrival < quietMillis * 1000000L) {
+            if (receiveOne()) {
+                n++;
+                lastArrival = System.nanoTime();
+            }
+            else
+                Thread.sleep(1);
+        }
+        return n;
+    }
+
+    // Receives whatever is waiting without blocking, returns how many datagrams that was
+    public int receiveAvailable() throws Exception {
+        int n = 0;
+        while (receiveOne())
+            n++;
+        return n;
+    }
+
+    // Receives until a datagram that starts with address arrives, false after timeoutMillis
+    public boolean receiveUntil(String address, long timeoutMillis) throws Exception {
+        long end = System.nanoTime() + timeoutMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            if (!receiveOne()) {
+                Thread.yield();
+                continue;
+            }
+            if (startsWith(address))
+                return true;
+        }
+        return false;
+    }
+
+    public long getDatagramCount() { return datagrams; }
+    public long getByteCount() { return bytes; }
+    public ByteBuffer getLast() { return (ByteBuffer) last.duplicate().flip(); }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private boolean receiveOne() throws IOException {
+        last.clear();
+        if (channel.receive(last) == null)
+            return false;
+        datagrams++;
+        bytes += last.position();
+        return true;
+    }
+
+    private boolean startsWith(String address) {
+        if (last.position() < address.length())
+            return false;
+        for (int i = 0; i < address.length(); i++) {
+            if (last.get(i) != (byte) address.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final DatagramChannel channel;
+    private final ByteBuffer last = ByteBuffer.allocate(65536);
+    private long datagrams = 0;
+    private long bytes = 0;
+}
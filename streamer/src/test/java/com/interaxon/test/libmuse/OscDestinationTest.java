@@ -0,0 +1,92 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  OscDestinationTest
+ *
+ *  One OscSender writing to several loopback receivers, one of them by host name, next to a
+ *  destination whose host doesn't resolve. Every receiver has to get every datagram (the
+ *  named one from when its lookup finished), and the dead one must neither get counted as
+ *  sent nor hold up the others.
+ */
+public class OscDestinationTest {
+    private static final int SAMPLES = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        receivers = new LoopbackReceiver[3];
+        for (int i = 0; i < receivers.length; i++)
+            receivers[i] = new LoopbackReceiver();
+        ring = new SampleRing(256, 4, SampleRing.OverflowPolicy.BLOCK);
+        sender = new OscSender(ring);
+        sender.addDestination(OscDestination.parse("127.0.0.1:" + receivers[0].getPort()));
+        sender.addDestination(OscDestination.parse("udp:127.0.0.1:" + receivers[1].getPort()));
+        sender.addDestination(OscDestination.parse("localhost:" + receivers[2].getPort()));
+        sender.addDestination(OscDestination.parse("no-such-host.invalid:9"));
+        sender.setStats(new StreamStats(OscAddresses.ALL), 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        for (LoopbackReceiver receiver : receivers)
+            receiver.close();
+    }
+
+    @Test
+    public void everyReceiverGetsEveryDatagram() throws Exception {
+        sender.start();
+        OscDestination named = sender.getDestinations().get(2);
+        OscDestination dead = sender.getDestinations().get(3);
+        // the first samples find the lookups still running
+        queue(10);
+        long deadline = System.nanoTime() + 5000000000L;
+        while (named.getSentCount() == 0 && System.nanoTime() < deadline)
+            queue(1);
+        long before = sender.getSentCount();
+
+        long start = System.nanoTime();
+        queue(SAMPLES);
+        long elapsed = System.nanoTime() - start;
+        for (LoopbackReceiver receiver : receivers)
+            receiver.drain(100);
+
+        long total = sender.getSentCount();
+        assertEquals(total, receivers[0].getDatagramCount());
+        assertEquals(total, receivers[1].getDatagramCount());
+        assertEquals(named.getSentCount(), receivers[2].getDatagramCount());
+        assertTrue(named.getSentCount() >= SAMPLES);
+        assertEquals(SAMPLES, total - before);
+
+        assertEquals(0, dead.getSentCount());
+        assertTrue(dead.getFailedCount() > 0);
+        assertTrue(dead.getSkippedCount() > 0);
+        assertTrue("took " + elapsed / 1000000 + "ms", elapsed < 1000000000L);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void queue(int n) throws Exception {
+        float[] values = { 1, 2, 3, 4 };
+        for (int i = 0; i < n; i++) {
+            Sample sample = ring.claim();
+            sample.setFloats(OscAddresses.ALPHA_ABSOLUTE, values, 4);
+            sample.receivedNanos = System.nanoTime();
+            sample.sampleNanos = sample.receivedNanos;
+            ring.publish();
+        }
+        // and until the sender wrote the last one
+        while (ring.size() > 0 || sender.getSentCount() + sender.getFailedCount() < ring.getConsumedCount())
+            Thread.sleep(1);
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private LoopbackReceiver[] receivers;
+    private SampleRing ring;
+    private OscSender sender;
+}
@@ -0,0 +1,123 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  OscSenderTest
+ *
+ *  An OscSender against a LoopbackReceiver: what it counts as sent has to be what arrived, and
+ *  once warmed up its thread must not allocate per message. The sizes it plans batches with
+ *  have to be what OscEncoder writes, whatever the device prefix.
+ */
+public class OscSenderTest {
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new LoopbackReceiver();
+        ring = new SampleRing(256, 4, SampleRing.OverflowPolicy.BLOCK);
+        sender = new OscSender(ring);
+        sender.addDestination(new OscDestination(OscDestination.Kind.UNICAST, "127.0.0.1", receiver.getPort()));
+        sender.setStats(new StreamStats(OscAddresses.ALL), 0);
+        sender.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.stop();
+        receiver.close();
+    }
+
+    @Test
+    public void countsEveryDatagramAndByte() throws Exception {
+        queue(1000);
+        receiver.drain(200);
+
+        int size = OscEncoder.messageSize(OscAddresses.ALPHA_ABSOLUTE, 4);
+        assertEquals(1000, receiver.getDatagramCount());
+        assertEquals(1000L * size, receiver.getByteCount());
+        assertEquals(1000, sender.getSentCount());
+        assertEquals(receiver.getByteCount(), sender.getSentBytes());
+        assertEquals(0, sender.getFailedCount());
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() throws Exception {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = senderThreadId();
+
+        // warm up, so class loading and JIT compilation are done
+        for (int i = 0; i < 20; i++) {
+            queue(1000);
+            receiver.drain(20);
+        }
+
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 10; i++) {
+            queue(1000);
+            receiver.drain(20);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertEquals(30000, receiver.getDatagramCount());
+        // the once a second stats snapshot may allocate a little, 10000 messages must not
+        assertTrue("sender allocated " + allocated + " bytes for 10000 messages", allocated < 4096);
+    }
+
+    @Test
+    public void prefixedMessageSizeIsWhatIsWritten() {
+        ByteBuffer buf = ByteBuffer.allocate(OscSender.MAX_PACKET_SIZE);
+        float[] values = { 1, 2, 3, 4 };
+        String prefix = "";
+        for (int i = 0; i < 8; i++) {
+            for (int count = 0; count <= 4; count++) {
+                buf.clear();
+                OscEncoder.writeMessage(buf, prefix, OscAddresses.EEG, values, count);
+                assertEquals(prefix + " " + count, buf.position(), OscEncoder.messageSize(prefix, OscAddresses.EEG, count));
+            }
+            prefix += "/0123456".charAt(i);
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // n distinct alpha samples, waits until the sender has taken them all
+    private void queue(int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Sample sample = ring.claim();
+            values[0] = next++;
+            sample.setFloats(OscAddresses.ALPHA_ABSOLUTE, values, 4);
+            sample.receivedNanos = System.nanoTime();
+            sample.sampleNanos = sample.receivedNanos;
+            ring.publish();
+        }
+        while (ring.size() > 0)
+            Thread.sleep(1);
+    }
+
+    private long senderThreadId() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("OscSender"))
+                return t.getId();
+        }
+        throw new AssertionError("no sender thread");
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private LoopbackReceiver receiver;
+    private SampleRing ring;
+    private OscSender sender;
+    private final float[] values = { 0, 0.5f, 0.25f, 0.125f };
+    private float next = 0;
+}
@@ -0,0 +1,102 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  OscTcpDestinationTest
+ *
+ *  An OscTcpDestination written to from the test thread, the way the sender does. A frame only
+ *  counts as sent once the socket took it, and every frame write() accepted ends up either sent
+ *  or, when the connection breaks with it still buffered, dropped.
+ */
+public class OscTcpDestinationTest {
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        destination = new OscTcpDestination(OscTcpDestination.Framing.LENGTH, "127.0.0.1", server.socket().getLocalPort());
+        assertTrue(destination.open());
+        peer = server.accept();
+        packet = ByteBuffer.allocate(OscSender.MAX_PACKET_SIZE);
+        OscEncoder.writeMessage(packet, "", OscAddresses.HORSESHOE, 1);
+        packet.flip();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        destination.close();
+        if (peer != null)
+            peer.close();
+        server.close();
+    }
+
+    @Test
+    public void countsWhatTheSocketTook() throws Exception {
+        for (int i = 0; i < 100; i++)
+            assertTrue(destination.write(packet, System.nanoTime()));
+        // buffered, not written yet
+        assertTrue(destination.getSentCount() < 100);
+
+        ByteBuffer in = ByteBuffer.allocate(65536);
+        long received = 0;
+        long deadline = System.nanoTime() + 2000000000L;
+        while (destination.flush(System.nanoTime()) != Long.MAX_VALUE && System.nanoTime() < deadline) {
+            in.clear();
+            received += peer.read(in);
+        }
+        assertEquals(100, destination.getSentCount());
+        assertEquals(100L * (4 + packet.limit()), destination.getSentBytes());
+        assertEquals(0, destination.getDroppedCount());
+
+        peer.configureBlocking(false);
+        while (received < destination.getSentBytes() && System.nanoTime() < deadline) {
+            in.clear();
+            received += peer.read(in);
+        }
+        assertEquals(destination.getSentBytes(), received);
+    }
+
+    @Test
+    public void framesLostOnABrokenConnectionAreDropped() throws Exception {
+        // the peer doesn't read, writes pile up in the buffer until it is full
+        long accepted = 0;
+        for (int i = 0; i < 100000 && destination.getFullCount() == 0; i++) {
+            if (destination.write(packet, System.nanoTime()))
+                accepted++;
+        }
+        assertTrue(destination.getFullCount() > 0);
+        assertTrue(destination.getSentCount() < accepted);
+
+        // unread data makes the close a reset, the next write notices
+        peer.setOption(StandardSocketOptions.SO_LINGER, 0);
+        peer.close();
+        peer = null;
+        long deadline = System.nanoTime() + 2000000000L;
+        while (destination.isConnected() && System.nanoTime() < deadline) {
+            destination.flush(System.nanoTime());
+            Thread.sleep(1);
+        }
+
+        assertTrue(destination.getDroppedCount() > 0);
+        assertEquals(accepted, destination.getSentCount() + destination.getDroppedCount());
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private ServerSocketChannel server;
+    private SocketChannel peer;
+    private OscTcpDestination destination;
+    private ByteBuffer packet;
+}
@@ -0,0 +1,129 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *  PlayoutBufferTest
+ *
+ *  PlayoutBuffer with the time passed in, so every slot, late and early count and delay step is
+ *  exact. Times are in ms of a made-up clock.
+ */
+public class PlayoutBufferTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void holdsUntilSlot() {
+        PlayoutBuffer playout = new PlayoutBuffer("delay=10;adapt=0", 4, 4);
+        playout.offer(sample(100), ms(103));
+        assertEquals(7 * MS, playout.nanosUntilDue(ms(103)));
+        assertFalse(playout.poll(ms(109), out));
+        assertTrue(playout.poll(ms(110), out));
+        assertEquals(ms(100), out.sampleNanos);
+        assertEquals(0, playout.getLateCount());
+        assertEquals(0, playout.getEarlyCount());
+    }
+
+    @Test
+    public void countsLateAndEarly() {
+        PlayoutBuffer playout = new PlayoutBuffer("delay=10;adapt=0", 2, 4);
+
+        // its slot at 110 has passed, it goes at once
+        playout.offer(sample(100), ms(115));
+        assertEquals(1, playout.getLateCount());
+        assertEquals(0, playout.nanosUntilDue(ms(115)));
+        assertTrue(playout.poll(ms(115), out));
+
+        // full, so the first one goes before its slot
+        playout.offer(sample(120), ms(121));
+        playout.offer(sample(125), ms(122));
+        assertTrue(playout.isFull());
+        assertTrue(playout.poll(ms(122), out));
+        assertEquals(ms(120), out.sampleNanos);
+        assertEquals(1, playout.getEarlyCount());
+        assertFalse(playout.poll(ms(122), out));
+        assertEquals(1, playout.getEarlyCount());
+        assertEquals(3, playout.getOfferedCount());
+        assertEquals(1, playout.getLateCount());
+    }
+
+    @Test
+    public void slotNeverBeforePrevious() {
+        PlayoutBuffer playout = new PlayoutBuffer("delay=10;adapt=0", 4, 4);
+        playout.offer(sample(100), ms(101));
+        // taken earlier than the one before, it still waits for that one's slot
+        playout.offer(sample(90), ms(102));
+        assertTrue(playout.poll(ms(110), out));
+        assertEquals(ms(100), out.sampleNanos);
+        assertEquals(0, playout.nanosUntilDue(ms(110)));
+        assertTrue(playout.poll(ms(110), out));
+        assertEquals(ms(90), out.sampleNanos);
+        assertEquals(0, playout.getLateCount());
+    }
+
+    @Test
+    public void lateRaisesDelay() {
+        PlayoutBuffer playout = new PlayoutBuffer("delay=10;min=5;max=200;adapt=1", 4, 4);
+        playout.offer(sample(100), ms(150));
+        assertEquals(1, playout.getLateCount());
+        assertEquals(50 * MS + PlayoutBuffer.MARGIN_NANOS, playout.getDelayNanos());
+
+        // never above max
+        playout.offer(sample(200), ms(500));
+        assertEquals(200 * MS, playout.getDelayNanos());
+    }
+
+    @Test
+    public void adaptDecaysTowardsMaxTransit() {
+        PlayoutBuffer playout = new PlayoutBuffer("delay=100;min=5;max=200;adapt=1", 64, 4);
+        long target = 10 * MS + PlayoutBuffer.MARGIN_NANOS;
+        long expected = 100 * MS;
+        int steps = 0;
+
+        // a sample every 20ms for 20s, each 4 to 10ms in transit
+        for (int i = 0; i < 1000; i++) {
+            long taken = 20 * i;
+            playout.offer(sample(taken), ms(taken + 4 + (i % 7)));
+            playout.poll(Long.MAX_VALUE, out);
+
+            // once a period, a quarter of the way down to the longest transit plus the margin
+            if (playout.getDelayNanos() != expected) {
+                expected += (target - expected) / 4;
+                assertEquals(expected, playout.getDelayNanos());
+                steps++;
+            }
+        }
+        assertTrue(steps >= 18);
+        assertTrue(playout.getDelayNanos() >= target);
+        assertTrue(playout.getDelayNanos() < target + MS);
+        assertEquals(0, playout.getLateCount());
+
+        // never below min
+        PlayoutBuffer low = new PlayoutBuffer("delay=50;min=30;max=200;adapt=1", 4, 4);
+        for (long s = 0; s < 20000; s += 20) {
+            low.offer(sample(s), ms(s));
+            low.poll(Long.MAX_VALUE, out);
+        }
+        assertTrue(low.getDelayNanos() >= 30 * MS);
+        assertTrue(low.getDelayNanos() < 31 * MS);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private Sample sample(long takenMs) {
+        Sample sample = new Sample(4);
+        sample.setFloats(OscAddresses.ALPHA_ABSOLUTE, new float[] { 1, 2, 3, 4 }, 4);
+        sample.sampleNanos = ms(takenMs);
+        sample.receivedNanos = sample.sampleNanos;
+        return sample;
+    }
+
+    private static long ms(long ms) {
+        return ms * MS;
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private final Sample out = new Sample(4);
+}
@@ -0,0 +1,74 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *  PlayoutJitterTest
+ *
+ *  A SyntheticPacketSource delivering band powers in Bluetooth-like 40ms bursts, through a
+ *  DevicePipeline to a loopback receiver, with and without a PlayoutBuffer. Alpha, one band in
+ *  five, is taken every 20ms and not rate limited. Unpaced, it arrives in clumps; paced, close
+ *  to every 20ms again, so the 99th percentile of |inter-arrival - 20ms| has to be a fraction
+ *  of the unpaced one.
+ */
+public class PlayoutJitterTest {
+    private static final String SOURCE = "eeg=0;bands=250;horseshoe=0;artifacts=0;battery=0;burst=40;paced=1";
+    private static final long PERIOD_NANOS = 20000000L;
+    private static final int ARRIVALS = 200;
+    private static final int SKIPPED = 50;          // while the device clock and the buffer settle
+
+    @After
+    public void tearDown() throws Exception {
+        if (source != null)
+            source.stop();
+        if (pipeline != null)
+            pipeline.stop();
+        if (receiver != null)
+            receiver.close();
+    }
+
+    @Test
+    public void playoutEvensOutBursts() throws Exception {
+        long unpaced = p99Jitter("");
+        long paced = p99Jitter("delay=100;adapt=0");
+        System.out.println("PlayoutJitterTest: p99 jitter unpaced " + unpaced / 1000 + "us, paced " + paced / 1000 + "us");
+        assertTrue("unpaced " + unpaced + " paced " + paced, paced * 3 < unpaced);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private long p99Jitter(String playout) throws Exception {
+        tearDown();
+        receiver = new LoopbackReceiver();
+        StreamConfig config = new StreamConfig();
+        config.statsPeriodMS = 0;
+        config.artifactEvents = false;
+        config.playout = playout;
+        config.rateLimits = OscAddresses.ALPHA_ABSOLUTE + "=none";
+        pipeline = new DevicePipeline("synthetic", "", "127.0.0.1", receiver.getPort(), config);
+        source = new SyntheticPacketSource(SOURCE);
+        pipeline.start();
+        source.start(pipeline);
+
+        long[] arrivals = new long[ARRIVALS];
+        for (int i = 0; i < ARRIVALS; i++) {
+            assertTrue(receiver.receiveUntil(OscAddresses.ALPHA_ABSOLUTE, 1000));
+            arrivals[i] = System.nanoTime();
+        }
+
+        long[] jitter = new long[ARRIVALS - SKIPPED - 1];
+        for (int i = 0; i < jitter.length; i++)
+            jitter[i] = Math.abs(arrivals[SKIPPED + i + 1] - arrivals[SKIPPED + i] - PERIOD_NANOS);
+        Arrays.sort(jitter);
+        return jitter[(int) (jitter.length * 0.99)];
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private LoopbackReceiver receiver;
+    private DevicePipeline pipeline;
+    private SyntheticPacketSource source;
+}
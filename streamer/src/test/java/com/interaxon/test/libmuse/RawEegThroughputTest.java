@@ -0,0 +1,90 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  RawEegThroughputTest
+ *
+ *  A raw EEG sender fed paced 4 channel frames at the headset's 220 Hz and at 10x that for a
+ *  few seconds, sending to a LoopbackReceiver. Nothing may be dropped, the ring has to stay
+ *  shallow and every frame has to be counted as sent.
+ */
+public class RawEegThroughputTest {
+    private static final long SECONDS = 3;
+    private static final int RING_CAPACITY = 2048;          // as MainActivity's raw EEG mode
+    private static final int BATCH_SIZE = 16;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new LoopbackReceiver();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    @Test
+    public void keepsUpAtHeadsetRate() throws Exception {
+        run(220);
+    }
+
+    @Test
+    public void keepsUpAtTenTimesHeadsetRate() throws Exception {
+        run(2200);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private void run(int hz) throws Exception {
+        SampleRing ring = new SampleRing(RING_CAPACITY, 4, SampleRing.OverflowPolicy.DROP_OLDEST);
+        OscSender sender = new OscSender(ring);
+        sender.addDestination(new OscDestination(OscDestination.Kind.UNICAST, "127.0.0.1", receiver.getPort()));
+        sender.setBatching(EEG, BATCH_SIZE);
+        sender.start();
+
+        int frames = (int) (hz * SECONDS);
+        float[] values = new float[4];
+        long period = 1000000000L / hz;
+        long next = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            next += period;
+            for (int c = 0; c < 4; c++)
+                values[c] = 800 + (i + c) % 100;
+            Sample sample = ring.claim();
+            sample.setFloats(EEG, values, 4);
+            sample.receivedNanos = System.nanoTime();
+            ring.publish();
+            // keep the receive buffer from filling, without holding up the pacing
+            if (i % 100 == 0)
+                receiver.receiveAvailable();
+        }
+        receiver.drain(200);
+        sender.stop();
+
+        assertEquals(frames, ring.getPublishedCount());
+        assertEquals(0, ring.getDroppedOldestCount());
+        assertEquals(0, ring.size());
+        assertEquals(frames, ring.getConsumedCount());
+        assertEquals(0, sender.getFailedCount());
+        assertEquals(frames, sender.getBatchedCount());
+        assertEquals(sender.getSentCount(), receiver.getDatagramCount());
+        // paced input never needs more than a few batches' worth of ring
+        int maxDepth = ring.getMaxDepth();
+        assertTrue("ring reached " + maxDepth + " at " + hz + " Hz", maxDepth <= RING_CAPACITY / 8);
+    }
+
+    //-------- PRIVATE VARIABLES --------/
+    private static final String EEG = "/muse/eeg";
+
+    private LoopbackReceiver receiver;
+}
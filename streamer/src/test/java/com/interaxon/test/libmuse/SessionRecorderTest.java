@@ -0,0 +1,83 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *  SessionRecorderTest
+ *
+ *  Over two hours of 220 Hz 4 channel EEG recorded as fast as the recorder takes it, then read
+ *  back with a SessionReader. The last BURST records are queued all at once right before
+ *  stop(), across a segment boundary, so the final drain has to map a new segment.
+ */
+public class SessionRecorderTest {
+    private static final int HZ = 220;
+    private static final int BURST = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsHoursAndReadsThemBack() throws Exception {
+        int size = SessionRecorder.RECORD_HEADER_SIZE + 4 * 4;
+        int firstSegment = (SessionRecorder.SEGMENT_SIZE - SessionRecorder.HEADER_SIZE) / size;
+        int perSegment = SessionRecorder.SEGMENT_SIZE / size;
+        // a boundary in the middle of the burst, after 13 full segments (a bit over 2 hours)
+        int total = firstSegment + 13 * perSegment + BURST / 2;
+        assertTrue(total > 2 * 3600 * HZ);
+
+        File file = folder.newFile("session.muserec");
+        SessionRecorder recorder = new SessionRecorder(file);
+        SampleRing ring = recorder.getRing();
+        recorder.start();
+
+        float[] values = new float[4];
+        for (int i = 0; i < total; i++) {
+            if (i < total - BURST) {
+                // never drop, a recorder that can't keep up shows as a slow test
+                while (ring.size() > ring.capacity() - 16)
+                    Thread.yield();
+            }
+            else if (i == total - BURST) {
+                // the whole burst has to fit
+                while (ring.size() > 0)
+                    Thread.yield();
+            }
+            fill(values, i);
+            recorder.record(1, i * 1000000L / HZ, values, 4);
+        }
+        recorder.stop();
+
+        assertEquals(0, recorder.getDroppedCount());
+        assertEquals(0, recorder.getErrorCount());
+        assertEquals(total, recorder.getRecordCount());
+        assertEquals(recorder.getBytesWritten(), file.length());
+
+        SessionReader reader = new SessionReader(file);
+        int read = 0;
+        float[] expected = new float[4];
+        while (reader.next()) {
+            fill(expected, read);
+            assertEquals(1, reader.type);
+            assertEquals(4, reader.count);
+            assertEquals(read * 1000000L / HZ, reader.deviceTimestamp);
+            for (int c = 0; c < 4; c++)
+                assertEquals(expected[c], reader.values[c], 0);
+            read++;
+        }
+        reader.close();
+        assertEquals(total, read);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    private static void fill(float[] values, int i) {
+        for (int c = 0; c < 4; c++)
+            values[c] = (float) (800 + 400 * Math.sin(i * 0.05 + c));
+    }
+}
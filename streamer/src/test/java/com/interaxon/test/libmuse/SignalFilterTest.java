@@ -0,0 +1,72 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *  SignalFilterTest
+ *
+ *  Non-finite values have to pass through without poisoning a channel's state, and DECIMATE
+ *  must not send anything before its low-pass has a full history.
+ */
+public class SignalFilterTest {
+
+    @Test
+    public void smoothingFiltersRecoverFromNaN() {
+        String[] specs = { "ema:0.2", "mean:8", "euro:1:0.01:1:220" };
+        for (String spec : specs) {
+            SignalFilter filter = SignalFilter.parse(spec, 4);
+            for (int i = 0; i < 50; i++)
+                assertEquals(spec, 10, apply(filter, 10, i), 1e-3);
+
+            // the NaN goes out as it came, for the Quantizer to send as invalid
+            assertTrue(spec, Float.isNaN(apply(filter, Float.NaN, 50)));
+            assertTrue(spec, Float.isInfinite(apply(filter, Float.POSITIVE_INFINITY, 51)));
+
+            // and the channel starts over from the next finite value
+            assertEquals(spec, 20, apply(filter, 20, 52), 1e-3);
+            for (int i = 53; i < 100; i++)
+                assertEquals(spec, 20, apply(filter, 20, i), 1e-3);
+        }
+    }
+
+    @Test
+    public void decimateWaitsForFullHistory() {
+        SignalFilter filter = SignalFilter.parse("decimate:4:33", 4);
+        Sample sample = new Sample(4);
+        int sent = 0;
+        for (int i = 0; i < 32; i++)
+            assertFalse(filter.apply(set(sample, 10, i)));
+        assertEquals(32, filter.getDecimatedCount());
+
+        for (int i = 32; i < 132; i++) {
+            float in = i == 70 ? Float.NaN : 10;
+            if (filter.apply(set(sample, in, i))) {
+                sent++;
+                if (i == 70)
+                    assertTrue(Float.isNaN(sample.values[0]));
+                else
+                    assertEquals(10, sample.values[0], 1e-4);
+            }
+        }
+        assertEquals(25, sent);
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // One sample at 220 Hz with value on every channel, the first channel's output
+    private static float apply(SignalFilter filter, float value, int i) {
+        Sample sample = set(new Sample(4), value, i);
+        assertTrue(filter.apply(sample));
+        return sample.values[0];
+    }
+
+    private static Sample set(Sample sample, float value, int i) {
+        float[] values = { value, value, value, value };
+        sample.setFloats(OscAddresses.EEG, values, 4);
+        sample.receivedNanos = i * 1000000000L / 220;
+        return sample;
+    }
+}
@@ -0,0 +1,151 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ *  SpecValidationTest
+ *
+ *  The static validate() methods the app checks its preferences with have to take exactly the
+ *  specs the constructors and parse() methods take, good ones and bad ones alike.
+ */
+public class SpecValidationTest {
+
+    @Test
+    public void quantization() {
+        String[] configs = { "/muse/eeg=int16:10;/a=round:0", "/a=int8", "/a=round:x" };
+        for (final String config : configs) {
+            check("quantization " + config, new Check() {
+                public void validate() { QuantizerTable.validateConfig(config); }
+                public void make() { new QuantizerTable(Quantizer.float32()).parse(config); }
+            });
+        }
+    }
+
+    @Test
+    public void rateLimits() {
+        String[] configs = { "/muse/eeg=max:10;/muse/acc=bucket:5:3", "/a=none", "/a=max", "/a=max:0", "/a=fast:1",
+                             "/a=bucket:5:0.5", "/a=bucket:5:NaN", "/a=bucket:5:Infinity", "/a=max:NaN" };
+        for (final String config : configs) {
+            check("rates " + config, new Check() {
+                public void validate() { RateController.validateConfig(config); }
+                public void make() { new RateController(1).parse(config); }
+            });
+        }
+
+        // a bucket that never fills, or never stops refilling, is rejected everywhere
+        for (String spec : new String[] { "bucket:5:0", "bucket:5:0.5", "bucket:5:NaN", "bucket:5:Infinity" }) {
+            try {
+                RateController.validate(spec);
+                fail("took " + spec);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        RateController.validate("bucket:5:1");
+    }
+
+    @Test
+    public void synthetic() {
+        String[] specs = { "eeg=2200;paced=0", "sine=", "sine=10", "levels=1,2", "eeg=-1", "fast=1" };
+        for (final String spec : specs) {
+            check("synthetic " + spec, new Check() {
+                public void validate() { SyntheticPacketSource.validate(spec); }
+                public void make() { new SyntheticPacketSource(spec); }
+            });
+        }
+    }
+
+    @Test
+    public void bandPowers() {
+        String[] specs = { "", "window=128;hop=8;output=replace", "window=100", "hop=0",
+                           "rate=50", "window=8", "output=both", "rate=-1", "window=x" };
+        for (final String spec : specs) {
+            check("bands " + spec, new Check() {
+                public void validate() { EegBandPowers.validate(spec); }
+                public void make() { new EegBandPowers(spec); }
+            });
+        }
+    }
+
+    @Test
+    public void filters() {
+        String[] configs = { "/a=ema:0.2;/b=decimate:4", "/a=ema:2", "/a=decimate:4:32", "/a=median:3" };
+        for (final String config : configs) {
+            check("filters " + config, new Check() {
+                public void validate() { FilterTable.validateConfig(config); }
+                public void make() { new FilterTable(4).parse(config); }
+            });
+        }
+    }
+
+    @Test
+    public void deadbands() {
+        String[] configs = { "/a=abs:0.1;/b=rel:0.05:500;/c=none", "/a=abs", "/a=abs:-1", "/a=rel:1:0", "/a=pct:1" };
+        for (final String config : configs) {
+            check("deadbands " + config, new Check() {
+                public void validate() { DeadbandTable.validateConfig(config); }
+                public void make() { new DeadbandTable(4, "").parse(config); }
+            });
+        }
+    }
+
+    @Test
+    public void adaptiveRate() {
+        String[] specs = { "floor=1", "period=0", "period=50;stale=0", "depth=-1", "speed=2", "floor" };
+        for (final String spec : specs) {
+            check("adaptive " + spec, new Check() {
+                public void validate() { AdaptiveRate.validate(spec); }
+                public void make() { new AdaptiveRate(spec); }
+            });
+        }
+    }
+
+    @Test
+    public void reconnect() {
+        String[] specs = { ReconnectBackoff.DEFAULT_SPEC, "factor=0.5", "jitter=2", "initial=x" };
+        for (final String spec : specs) {
+            check("reconnect " + spec, new Check() {
+                public void validate() { ReconnectBackoff.validate(spec); }
+                public void make() { new ReconnectBackoff(spec); }
+            });
+        }
+    }
+
+    @Test
+    public void playout() {
+        String[] specs = { "delay=50", "min=300", "min=10;max=5", "adapt=0", "late=1", "delay=NaN" };
+        for (final String spec : specs) {
+            check("playout " + spec, new Check() {
+                public void validate() { PlayoutBuffer.validate(spec); }
+                public void make() { new PlayoutBuffer(spec, 4, 4); }
+            });
+        }
+    }
+
+    //-------- PRIVATE FUNCTIONS --------/
+    // validate() has to throw exactly when make() does
+    private void check(String what, Check c) {
+        assertEquals(what, throwsOn(c, true), throwsOn(c, false));
+    }
+
+    private boolean throwsOn(Check c, boolean validate) {
+        try {
+            if (validate)
+                c.validate();
+            else
+                c.make();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    //-------- PRIVATE CLASSES --------/
+    private interface Check {
+        void validate();
+        void make();
+    }
+}
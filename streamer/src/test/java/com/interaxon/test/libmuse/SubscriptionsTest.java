@@ -0,0 +1,59 @@
+package com.interaxon.test.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *  SubscriptionsTest
+ *
+ *  Everything is subscribed until the first subscribe that matches something, which narrows the
+ *  set to what it asked for; later ones add to it.
+ */
+public class SubscriptionsTest {
+    private static final String[] ADDRESSES = { "/muse/eeg", "/muse/acc",
+                                                "/muse/elements/alpha_absolute", "/muse/elements/beta_absolute" };
+
+    @Test
+    public void firstSubscribeNarrows() {
+        Subscriptions s = new Subscriptions(ADDRESSES);
+        assertTrue(s.isAll());
+
+        assertEquals(1, s.subscribe("/muse/eeg"));
+        assertTrue(s.isSubscribed("/muse/eeg"));
+        assertFalse(s.isSubscribed("/muse/acc"));
+        assertFalse(s.isSubscribed("/muse/elements/alpha_absolute"));
+        assertTrue(s.isSubscribed("/streamer/stats"));
+        assertEquals("/muse/eeg", s.toString());
+
+        assertEquals(2, s.subscribe("/muse/elements/*"));
+        assertEquals("/muse/eeg,/muse/elements/alpha_absolute,/muse/elements/beta_absolute", s.toString());
+        s.unsubscribe("/muse/eeg");
+        assertFalse(s.isSubscribed("/muse/eeg"));
+        s.subscribe("*");
+        assertTrue(s.isAll());
+    }
+
+    @Test
+    public void unmatchedSubscribeKeepsDefault() {
+        Subscriptions s = new Subscriptions(ADDRESSES);
+        assertEquals(0, s.subscribe("/muse/typo"));
+        assertTrue(s.isAll());
+        assertEquals(1, s.subscribe("/muse/acc"));
+        assertEquals("/muse/acc", s.toString());
+    }
+
+    @Test
+    public void unsubscribeFromDefaultKeepsTheRest() {
+        Subscriptions s = new Subscriptions(ADDRESSES);
+        s.unsubscribe("/muse/eeg");
+        assertFalse(s.isSubscribed("/muse/eeg"));
+        assertTrue(s.isSubscribed("/muse/acc"));
+
+        // no longer the default, so this adds EEG back instead of narrowing to it
+        s.subscribe("/muse/eeg");
+        assertTrue(s.isAll());
+    }
+}